@@ -0,0 +1,33 @@
+package it.polito.extgol;
+
+/**
+ * Figures that Board.analyze can compute for each generation of a range.
+ */
+public enum AnalyticsMetric {
+
+    /**
+     * Number of alive cells, as Board.countCells.
+     */
+    POPULATION,
+
+    /**
+     * Alive cells per CellType, as Board.countCellsByType.
+     */
+    TYPE_COUNTS,
+
+    /**
+     * Statistics of the lifePoints of the alive cells, as Board.energyStatistics.
+     */
+    ENERGY_STATISTICS,
+
+    /**
+     * Alive cells grouped by lifePoints, as Board.getViewsByEnergyLevel.
+     */
+    ENERGY_LEVELS,
+
+    /**
+     * Alive cells grouped by number of alive neighbors, as
+     * Board.groupViewsByAliveNeighborCount.
+     */
+    NEIGHBOR_GROUPS
+}
@@ -0,0 +1,72 @@
+package it.polito.extgol;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Result of Board.analyze: the requested metrics of every generation of a
+ * step range, in step order.
+ */
+public final class AnalyticsReport {
+
+    private final Set<AnalyticsMetric> metrics;
+    private final int fromStep;
+    private final List<GenerationMetrics> generations;
+
+    AnalyticsReport(Set<AnalyticsMetric> metrics, int fromStep, List<GenerationMetrics> generations) {
+        this.metrics = metrics;
+        this.fromStep = fromStep;
+        this.generations = Collections.unmodifiableList(generations);
+    }
+
+    /**
+     * Returns the metrics computed for each generation.
+     *
+     * @return an unmodifiable Set of AnalyticsMetric
+     */
+    public Set<AnalyticsMetric> getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the first step of the range.
+     *
+     * @return the first analyzed step
+     */
+    public int getFromStep() {
+        return fromStep;
+    }
+
+    /**
+     * Returns the last step of the range.
+     *
+     * @return the last analyzed step
+     */
+    public int getToStep() {
+        return fromStep + generations.size() - 1;
+    }
+
+    /**
+     * Returns the metrics of one generation of the range.
+     *
+     * @param step the step of the generation
+     * @return the GenerationMetrics of that step
+     * @throws IllegalArgumentException if step lies outside the range
+     */
+    public GenerationMetrics get(int step) {
+        if (step < fromStep || step > getToStep())
+            throw new IllegalArgumentException("Step " + step + " is outside the analyzed range "
+                + fromStep + ".." + getToStep());
+        return generations.get(step - fromStep);
+    }
+
+    /**
+     * Returns the metrics of every generation of the range.
+     *
+     * @return an unmodifiable List of GenerationMetrics, in step order
+     */
+    public List<GenerationMetrics> getGenerations() {
+        return generations;
+    }
+}
@@ -1,6 +1,8 @@
 package it.polito.extgol;
 
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IntSummaryStatistics;
@@ -8,9 +10,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
@@ -19,6 +26,7 @@ import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.MapKey;
+import jakarta.persistence.NamedQuery;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.OneToOne;
 
@@ -42,8 +50,22 @@ import jakarta.persistence.OneToOne;
 
 
 
- @Entity
+@Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@NamedQuery(name = Board.STATE_BY_ID, query =
+    "SELECT new it.polito.extgol.StoredBoard(b.id, b.width, b.height, b.game.id, " +
+    "(SELECT COUNT(c) FROM Cell c WHERE c.board = b AND c.isAlive = TRUE)) " +
+    "FROM Board b WHERE b.id = :boardId")
+@NamedQuery(name = Board.FIND_ALL, query = "SELECT b FROM Board b")
 public class Board {
+
+    /** Named query selecting every board, used by GenericExtGOLRepository.findAll. */
+    public static final String FIND_ALL = "Board.findAll";
+
+    /** Named query projecting a board to a StoredBoard. */
+    public static final String STATE_BY_ID = "Board.stateById";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Integer id;
@@ -70,6 +92,7 @@ public class Board {
       fetch         = FetchType.LAZY
     )
     @MapKey(name = "tileCoord")
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     private Map<Coord, Tile> tiles = new HashMap<>();
 
     /**
@@ -191,6 +214,31 @@ public class Board {
         return id;
     }
 
+    /**
+     * Returns the identifier of this Board, or null while it is not persisted.
+     */
+    Integer getStoredId() {
+        return id;
+    }
+
+    /**
+     * Returns the number of columns of this Board.
+     *
+     * @return the board’s width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the number of rows of this Board.
+     *
+     * @return the board’s height
+     */
+    public int getHeight() {
+        return height;
+    }
+
     /**
      * Retrieves the Tile at the specified coordinates.
      *
@@ -234,16 +282,11 @@ public class Board {
      * @return a multi-line String representing the board, where each line corresponds to a row (y-coordinate)
      */
     public String visualize(Generation generation) {
-        Set<Coord> alive = generation.getAliveCells().stream()
-            .map(Cell::getCoordinates)
-            .collect(Collectors.toSet());
-    
         StringBuilder sb = new StringBuilder();
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
-                Coord coord = new Coord(x,y);
-                if (alive.contains( coord )) {
-                    Cell c = this.getTile(coord).getCell();
+                CellView c = generation.getCellView(new Coord(x, y)); // the type recorded at that generation
+                if (c != null && c.isAlive()) {
                     switch (c.getType()) {
                         case BASIC:
                             sb.append('C'); 
@@ -315,7 +358,8 @@ public class Board {
     }
 
     /**
-     * Returns the total number of alive cells in the given generation.
+     * Returns the total number of alive cells in the given generation, read
+     * from the aggregates the engine maintains with it.
      *
      * @param gen the Generation instance to analyze
      * @return the count of alive cells in gen
@@ -323,8 +367,7 @@ public class Board {
     public Integer countCells(Generation generation) {
         Objects.requireNonNull(generation);
 
-        return (int) generation.getAliveCells().stream()
-        .count();
+        return generation.getAggregates().getPopulation();
     }
 
     /**
@@ -335,28 +378,62 @@ public class Board {
      * @return the Cell with maximum lifePoints, or null if no cells are alive
      */
     public Cell getHighestEnergyCell(Generation gen) {
+        CellView highest = getHighestEnergyView(gen);
+        return highest == null ? null : gen.getCell(highest.getIndex());
+    }
+
+    /**
+     * Finds the cell with the highest lifePoints at the given generation, as
+     * a view of the generation's snapshot. In case of a tie, returns the cell
+     * closest to the top-left corner.
+     *
+     * @param gen the Generation instance to analyze
+     * @return the CellView with maximum lifePoints, or null if no cells are alive
+     */
+    public CellView getHighestEnergyView(Generation gen) {
         Objects.requireNonNull(gen);
-    
-        return gen.getAliveCells().stream()
-        .max(Comparator.comparing(Cell::getLifePoints).thenComparing((Cell c) -> c.getCoordinates().getY(), Comparator.reverseOrder()).thenComparing((Cell c) -> c.getCoordinates().getX(), Comparator.reverseOrder()))
-        .orElse(null);
+
+        int highest = gen.getEnergyIndex().highest();
+        return highest < 0 ? null : gen.getCellView(highest);
     }
 
     /**
-     * Groups all alive cells in the generation by their current lifePoints.
+     * Groups all alive cells in the generation by their lifePoints. Cells of
+     * each level are listed in row-major order.
      *
      * @param gen the Generation instance to analyze
-     * @return a Map from lifePoints value to the List of Cells having that energy
+     * @return a Map, sorted by lifePoints, from lifePoints value to the List of Cells having that energy
      */
     public Map<Integer, List<Cell>> getCellsByEnergyLevel(Generation gen) {
+        return toCells(gen, getViewsByEnergyLevel(gen));
+    }
+
+    /**
+     * Groups the views of the alive cells of the generation by their
+     * lifePoints, reading the buckets of the generation's energy index.
+     *
+     * @param gen the Generation instance to analyze
+     * @return a Map, sorted by lifePoints, from lifePoints value to the views of the cells having that energy
+     */
+    public Map<Integer, List<CellView>> getViewsByEnergyLevel(Generation gen) {
         Objects.requireNonNull(gen);
 
-        return gen.getAliveCells().stream()
-        .collect(Collectors.groupingBy(Cell::getLifePoints));
-    } 
+        EnergyIndex index = gen.getEnergyIndex();
+        Map<Integer, List<CellView>> byEnergy = new TreeMap<>();
+        for (int level : index.levels()) {
+            int[] positions = index.positions(level);
+            List<CellView> views = new ArrayList<>(positions.length);
+            for (int i : positions) {
+                views.add(gen.getCellView(i));
+            }
+            byEnergy.put(level, views);
+        }
+        return byEnergy;
+    }
   
     /**
-     * Counts alive cells per CellType in the given generation.
+     * Counts alive cells per CellType in the given generation, as recorded in
+     * its aggregates.
      *
      * @param gen the Generation instance to analyze
      * @return a Map from CellType to the count of alive cells of that type
@@ -364,12 +441,7 @@ public class Board {
     public Map<CellType, Integer> countCellsByType(Generation gen) {
         Objects.requireNonNull(gen);
 
-        return gen.getAliveCells().stream()
-            .collect(Collectors.groupingBy(Cell :: getType, Collectors.collectingAndThen(
-                Collectors.counting(),
-                Long::intValue)));
-        
-
+        return gen.getAggregates().getTypeCounts();
     }
 
     /**
@@ -380,29 +452,88 @@ public class Board {
      * @return a List of the top n Cells by lifePoints, in descending order
      */
     public List<Cell> topEnergyCells(Generation gen, int n) { 
+        List<CellView> top = topEnergyViews(gen, n);
+        List<Cell> cells = new ArrayList<>(top.size());
+        for (CellView view : top) {
+            cells.add(gen.getCell(view.getIndex()));
+        }
+        return cells;
+    }
+
+    /**
+     * Returns the views of the top n cells of the generation sorted by
+     * descending lifePoints.
+     *
+     * @param gen the Generation instance to analyze
+     * @param n   the number of top-energy cells to return
+     * @return a List of the views of the top n cells by lifePoints, in descending order
+     */
+    public List<CellView> topEnergyViews(Generation gen, int n) {
         Objects.requireNonNull(gen);
-        
-        return gen.getAliveCells().stream()
-        .sorted(Comparator.comparing(Cell::getLifePoints).reversed()
-        .thenComparing(Cell::getY).thenComparing(Cell::getX)).limit(n)  //In case of a tie, I return the cell closest to the top-left corner like in getHighestEnergyCell
-        .collect(Collectors.toList());
+
+        // buckets are visited from the highest level down, each already in row-major order,
+        // so ties go to the cell closest to the top-left corner like in getHighestEnergyCell
+        int[] top = gen.getEnergyIndex().top(n);
+        List<CellView> views = new ArrayList<>(top.length);
+        for (int i : top) {
+            views.add(gen.getCellView(i));
+        }
+        return views;
     }
 
     /**
      * Groups each alive cell by its number of live neighbors.
      *
      * @param gen the Generation instance to analyze
-     * @return a Map from neighbor count to the List of Cells having that many alive neighbors
+     * @return a Map, sorted by count, from neighbor count to the List of Cells having that many alive neighbors
      */
     public Map<Integer, List<Cell>> groupByAliveNeighborCount(Generation gen) {
+        return toCells(gen, groupViewsByAliveNeighborCount(gen));
+    }
+
+    /**
+     * Groups the views of the alive cells by their number of live neighbors.
+     *
+     * Counts are read from the generation's neighbor-count plane, so they
+     * reflect the cells alive at that generation even when the board has
+     * evolved since.
+     *
+     * @param gen the Generation instance to analyze
+     * @return a Map, sorted by count, from neighbor count to the views of the cells having that many alive neighbors
+     */
+    public Map<Integer, List<CellView>> groupViewsByAliveNeighborCount(Generation gen) {
         Objects.requireNonNull(gen);
 
-        return gen.getAliveCells().stream()
-        .collect(Collectors.groupingBy(Cell::countAliveNeighbors)); 
+        NeighborCounts counts = gen.getNeighborCounts();
+        Map<Integer, List<CellView>> groups = new TreeMap<>();
+        for (CellView view : gen.getAliveCellViews()) {
+            groups.computeIfAbsent(counts.count(view.getIndex()), k -> new ArrayList<>()).add(view);
+        }
+        return groups;
+    }
+
+    /**
+     * Resolves grouped views to the cells of the generation's board.
+     *
+     * @param gen   the Generation the views belong to
+     * @param views the views to resolve, grouped by key
+     * @return a Map with the same keys and order, holding the corresponding Cells
+     */
+    private static Map<Integer, List<Cell>> toCells(Generation gen, Map<Integer, List<CellView>> views) {
+        Map<Integer, List<Cell>> cells = new TreeMap<>();
+        for (Map.Entry<Integer, List<CellView>> e : views.entrySet()) {
+            List<Cell> group = new ArrayList<>(e.getValue().size());
+            for (CellView view : e.getValue()) {
+                group.add(gen.getCell(view.getIndex()));
+            }
+            cells.put(e.getKey(), group);
+        }
+        return cells;
     }
 
     /**
      * Computes summary statistics (count, min, max, sum, average) over all alive cells’ lifePoints.
+     * The figures come from the generation's aggregates, so no cell is visited.
      *
      * @param gen the Generation instance to analyze
      * @return an IntSummaryStatistics with aggregated lifePoints metrics
@@ -410,20 +541,187 @@ public class Board {
     public IntSummaryStatistics energyStatistics(Generation gen) {
         Objects.requireNonNull(gen);
 
-        return gen.getAliveCells().stream()
-        .mapToInt(Cell -> gen.getCellLifePoints().get(Cell))  
-        .summaryStatistics(); 
-        }
+        return gen.getAggregates().getEnergyStatistics();
+    }
+
+    /**
+     * Counts the alive cells of the generation inside a rectangular region,
+     * in O(1) from the generation's summed-area table.
+     *
+     * @param gen         the Generation instance to analyze
+     * @param topLeft     the top-left corner of the region (inclusive)
+     * @param bottomRight the bottom-right corner of the region (inclusive)
+     * @return the count of alive cells inside the region; parts outside the board are ignored
+     */
+    public int countCellsInRegion(Generation gen, Coord topLeft, Coord bottomRight) {
+        Objects.requireNonNull(gen);
+        Objects.requireNonNull(topLeft);
+        Objects.requireNonNull(bottomRight);
+
+        return gen.getSummedAreaTable().countAlive(topLeft.getX(), topLeft.getY(),
+            regionSize(topLeft.getX(), bottomRight.getX()), regionSize(topLeft.getY(), bottomRight.getY()));
+    }
+
+    /**
+     * Sums the lifePoints of the alive cells of the generation inside a
+     * rectangular region, in O(1) from the generation's summed-area table.
+     *
+     * @param gen         the Generation instance to analyze
+     * @param topLeft     the top-left corner of the region (inclusive)
+     * @param bottomRight the bottom-right corner of the region (inclusive)
+     * @return the total lifePoints of the alive cells inside the region
+     */
+    public long energyInRegion(Generation gen, Coord topLeft, Coord bottomRight) {
+        Objects.requireNonNull(gen);
+        Objects.requireNonNull(topLeft);
+        Objects.requireNonNull(bottomRight);
+
+        return gen.getSummedAreaTable().sumLifePoints(topLeft.getX(), topLeft.getY(),
+            regionSize(topLeft.getX(), bottomRight.getX()), regionSize(topLeft.getY(), bottomRight.getY()));
+    }
+
+    /**
+     * Renders the generation as a coarse density heatmap: the board is split
+     * into columns x rows blocks and each value is the fraction of alive
+     * cells of its block. Costs O(columns * rows) once the generation's
+     * summed-area table is built.
+     *
+     * @param gen     the Generation instance to analyze
+     * @param columns the number of blocks per row, at most the board width
+     * @param rows    the number of blocks per column, at most the board height
+     * @return the density of each block, indexed [row][column]
+     */
+    public double[][] densityHeatmap(Generation gen, int columns, int rows) {
+        Objects.requireNonNull(gen);
+
+        return gen.getSummedAreaTable().densityHeatmap(columns, rows);
+    }
+
+    /**
+     * Finds the 8-connected clusters of alive cells of the generation, with
+     * their sizes, bounding boxes and energy.
+     *
+     * @param gen the Generation instance to analyze
+     * @return the ClusterAnalysis of gen
+     */
+    public ClusterAnalysis analyzeClusters(Generation gen) {
+        Objects.requireNonNull(gen);
+
+        return gen.getClusters();
+    }
+
+    /**
+     * Finds the clusters of alive cells of the generation by updating the
+     * analysis of the previous one, which only rescans the rows that changed
+     * between the two. Meant for tracking colonies generation after generation.
+     *
+     * @param gen      the Generation instance to analyze
+     * @param previous the preceding Generation of the same game
+     * @return the ClusterAnalysis of gen
+     */
+    public ClusterAnalysis analyzeClusters(Generation gen, Generation previous) {
+        Objects.requireNonNull(gen);
+        Objects.requireNonNull(previous);
+
+        return gen.getClusters(previous);
+    }
+
+    private static int regionSize(int from, int to) {
+        return Math.max(0, to - from + 1);
+    }
 
     /**
      * Returns a time series of energy statistics for each generation step in [fromStep, toStep].
      *
+     * Steps recorded in the game's columnar series are read from its arrays
+     * without touching any generation; the others, e.g. of a game loaded from
+     * the database, fall back to the aggregates of the generation itself.
+     *
      * @param fromStep the starting generation index (inclusive)
      * @param toStep   the ending generation index (inclusive)
-     * @return a Map from generation step index to its IntSummaryStatistics
+     * @return a Map, sorted by step, from generation step index to its IntSummaryStatistics
+     * @throws IllegalArgumentException if a step is neither in the series nor in the game
      */
     public Map<Integer, IntSummaryStatistics> getTimeSeriesStats(int fromStep, int toStep) {
-        return IntStream.rangeClosed(fromStep, toStep).boxed() 
-        .collect(Collectors.toMap(step -> step, step -> energyStatistics(game.getGenerations().get(step)))); 
+        GenerationSeries series = game.getSeries();
+        if (series.covers(fromStep) && series.covers(toStep))
+            return series.energyStatistics(fromStep, toStep);
+
+        Map<Integer, IntSummaryStatistics> stats = new TreeMap<>();
+        for (int step = fromStep; step <= toStep; step++) {
+            stats.put(step, series.covers(step)
+                ? series.energyStatistics(step)
+                : energyStatistics(requireGeneration(step)));
+        }
+        return stats;
+    }
+
+    /**
+     * Computes the requested metrics of every generation in [fromStep, toStep]
+     * on the common ForkJoinPool.
+     *
+     * @param metrics  the metrics to compute
+     * @param fromStep the starting generation index (inclusive)
+     * @param toStep   the ending generation index (inclusive)
+     * @return the AnalyticsReport of the range
+     * @throws IllegalArgumentException if no metric is requested or the range is not in the game
+     */
+    public AnalyticsReport analyze(Set<AnalyticsMetric> metrics, int fromStep, int toStep) {
+        return analyze(metrics, fromStep, toStep, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Computes the requested metrics of every generation in [fromStep, toStep].
+     *
+     * Each generation takes its frame and the aggregates of that frame
+     * together, so worker threads never mix two frames even while the
+     * generation changes. Population, type counts and energy statistics come
+     * from the aggregates; energy levels and neighbor groups come from one
+     * pass over the alive cells of the frame, computing the neighbor counts
+     * along the way, instead of the EnergyIndex and NeighborCounts the
+     * individual analytic methods build. The generations are analyzed in
+     * parallel on the given pool.
+     *
+     * @param metrics  the metrics to compute
+     * @param fromStep the starting generation index (inclusive)
+     * @param toStep   the ending generation index (inclusive)
+     * @param pool     the ForkJoinPool running the scans
+     * @return the AnalyticsReport of the range
+     * @throws IllegalArgumentException if no metric is requested or the range is not in the game
+     */
+    public AnalyticsReport analyze(Set<AnalyticsMetric> metrics, int fromStep, int toStep, ForkJoinPool pool) {
+        Objects.requireNonNull(metrics);
+        Objects.requireNonNull(pool);
+        if (metrics.isEmpty())
+            throw new IllegalArgumentException("At least one metric must be requested");
+        if (fromStep < 0 || toStep < fromStep)
+            throw new IllegalArgumentException("Steps " + fromStep + ".." + toStep + " are not a range");
+
+        Set<AnalyticsMetric> requested = Collections.unmodifiableSet(EnumSet.copyOf(metrics));
+        List<Generation> generations = new ArrayList<>(toStep - fromStep + 1);
+        for (int step = fromStep; step <= toStep; step++) {
+            generations.add(requireGeneration(step));
+        }
+        List<ForkJoinTask<GenerationMetrics>> scans = new ArrayList<>(generations.size());
+        for (Generation gen : generations) {
+            scans.add(pool.submit(() -> gen.measure(requested)));
+        }
+        List<GenerationMetrics> results = new ArrayList<>(scans.size());
+        for (ForkJoinTask<GenerationMetrics> scan : scans) {
+            results.add(scan.join());
+        }
+        return new AnalyticsReport(requested, fromStep, results);
+    }
+
+    /**
+     * Returns the generation of the given step, wherever it is in the game's history.
+     *
+     * @throws IllegalArgumentException if the game has no generation of that step
+     */
+    private Generation requireGeneration(int step) {
+        Generation gen = game.findGeneration(step);
+        if (gen == null)
+            throw new IllegalArgumentException("Step " + step + " is not in the game");
+        return gen;
     }
 }
@@ -1,14 +1,26 @@
 package it.polito.extgol;
 
-import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 
+import org.hibernate.jpa.HibernateHints;
+
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.NoResultException;
 import jakarta.persistence.TypedQuery;
 
 public class BoardRepository  extends GenericExtGOLRepository<Board, Long> {
+
+    /**
+     * Fetch plan bringing in a board with its game, all its tiles and their
+     * cells in a single query; tile adjacency is not persisted and is rebuilt
+     * from the coordinates when first needed.
+     */
+    private static final String FETCH_BOARD =
+        "SELECT DISTINCT b FROM Board b " +
+        "JOIN FETCH b.game g " +
+        "JOIN FETCH b.tiles t " +
+        "JOIN FETCH t.cell c ";
     
     public BoardRepository()  { 
         super(Board.class);  
@@ -19,18 +31,8 @@ public class BoardRepository  extends GenericExtGOLRepository<Board, Long> {
         Objects.requireNonNull(boardId);
 
         EntityManager em = JPAUtil.getEntityManager();
-        TypedQuery<Board> query = em.createQuery(
-            "SELECT b FROM Board b " +
-            "JOIN FETCH b.tiles t " +
-            "JOIN FETCH t.cell c " +
-            "WHERE b.id =: boardId", 
-            Board.class);
-        query.setParameter("boardId", boardId);
-        
         try {
-            return Optional.of(query.getSingleResult());
-        } catch (NoResultException e) {
-            return Optional.empty();
+            return load(boardId, em);
         } finally {
             em.close();
         }
@@ -41,12 +43,11 @@ public class BoardRepository  extends GenericExtGOLRepository<Board, Long> {
 
         EntityManager em = JPAUtil.getEntityManager();
         TypedQuery<Board> query = em.createQuery(
-            "SELECT b FROM Board b " +
-            "JOIN FETCH b.tiles t " +
-            "JOIN FETCH t.cell c " +
+            FETCH_BOARD +
             "WHERE b.game.id =: gameId", 
             Board.class);
         query.setParameter("gameId", gameId);
+        query.setHint(HibernateHints.HINT_CACHEABLE, true);
         
         try {
             return Optional.of(query.getSingleResult());
@@ -58,25 +59,42 @@ public class BoardRepository  extends GenericExtGOLRepository<Board, Long> {
     }
 
 
-    public Optional<Board> load(int id, EntityManager em) {
+    public Optional<Board> load(Integer boardId, EntityManager em) {
+        Objects.requireNonNull(boardId);
         Objects.requireNonNull(em);
 
-        Board board = em.find(Board.class, id);
-        if (board == null)
+        TypedQuery<Board> query = em.createQuery(
+            FETCH_BOARD +
+            "WHERE b.id =: boardId", 
+            Board.class);
+        query.setParameter("boardId", boardId);
+        query.setHint(HibernateHints.HINT_CACHEABLE, true);
+
+        try {
+            return Optional.of(query.getSingleResult());
+        } catch (NoResultException e) {
             return Optional.empty();
+        }
+    }
 
-        CellRepository cellRepo = new CellRepository();
-        Optional<List<Cell>> cellsOpt = cellRepo.loadCells(board.getId(), em);
-        if (cellsOpt.isPresent()) {
-            List<Cell> cells = cellsOpt.get();
-            for (Cell c : cells) {
-                Coord co = c.getCoordinates();
-                Tile t = board.getTile(co);
-                if (t != null) {
-                    t.setCell(c);
-                }
-            }
+    /**
+     * Reads the size, owning game and population of a stored board, without
+     * hydrating the board, its tiles or its cells.
+     *
+     * @param boardId the id of the board
+     * @return the board as a StoredBoard record, or empty if no such board is stored
+     */
+    public Optional<StoredBoard> findBoardState(Integer boardId) {
+        Objects.requireNonNull(boardId);
+
+        EntityManager em = JPAUtil.getEntityManager();
+        try {
+            return em.createNamedQuery(Board.STATE_BY_ID, StoredBoard.class)
+                .setParameter("boardId", boardId)
+                .getResultStream()
+                .findFirst();
+        } finally {
+            em.close();
         }
-        return Optional.of(board);
     }
-}
\ No newline at end of file
+}
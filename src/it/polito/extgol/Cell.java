@@ -11,8 +11,12 @@ import static it.polito.extgol.CellType.BASIC;
 import static it.polito.extgol.CellType.HIGHLANDER;
 import static it.polito.extgol.CellType.LONER;
 import static it.polito.extgol.CellType.SOCIAL;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import jakarta.persistence.AttributeOverride;
 import jakarta.persistence.AttributeOverrides;
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
 import jakarta.persistence.ElementCollection;
 import jakarta.persistence.Embedded;
@@ -21,9 +25,12 @@ import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.NamedQuery;
 import jakarta.persistence.OneToOne;
+import jakarta.persistence.Table;
 import jakarta.persistence.Transient;
 
 /**
@@ -37,8 +44,46 @@ import jakarta.persistence.Transient;
  * and Interactable to model cell–cell energy exchanges.
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@Table(indexes = {
+    @Index(name = "idx_cell_game_coord", columnList = "game_id, cell_y, cell_x"),
+    @Index(name = "idx_cell_board_coord", columnList = "board_id, cell_y, cell_x")
+})
+@NamedQuery(name = Cell.STATES_BY_BOARD, query =
+    "SELECT new it.polito.extgol.StoredCell(c.id, c.cellCoord.x, c.cellCoord.y, c.isAlive, c.lifepoints, c.cellType, c.cellMood) " +
+    "FROM Cell c WHERE c.board.id = :boardId " +
+    "ORDER BY c.cellCoord.y, c.cellCoord.x")
+@NamedQuery(name = Cell.ALIVE_STATES_BY_BOARD, query =
+    "SELECT new it.polito.extgol.StoredCell(c.id, c.cellCoord.x, c.cellCoord.y, c.isAlive, c.lifepoints, c.cellType, c.cellMood) " +
+    "FROM Cell c WHERE c.board.id = :boardId AND c.isAlive = TRUE " +
+    "ORDER BY c.cellCoord.y, c.cellCoord.x")
+@NamedQuery(name = Cell.STATES_BY_BOARD_AFTER, query =
+    "SELECT new it.polito.extgol.StoredCell(c.id, c.cellCoord.x, c.cellCoord.y, c.isAlive, c.lifepoints, c.cellType, c.cellMood) " +
+    "FROM Cell c WHERE c.board.id = :boardId " +
+    "AND (c.cellCoord.y > :y OR (c.cellCoord.y = :y AND c.cellCoord.x > :x)) " +
+    "ORDER BY c.cellCoord.y, c.cellCoord.x")
+@NamedQuery(name = Cell.BY_GAME_AND_INDICES, query =
+    "SELECT c FROM Cell c WHERE c.game.id = :gameId " +
+    "AND c.cellCoord.y * :width + c.cellCoord.x IN :indices")
+@NamedQuery(name = Cell.FIND_ALL, query = "SELECT c FROM Cell c")
 public class Cell implements Evolvable, Interactable {
 
+    /** Named query selecting every cell, used by GenericExtGOLRepository.findAll. */
+    public static final String FIND_ALL = "Cell.findAll";
+
+    /** Named query projecting every cell of a board to a StoredCell, in row-major order. */
+    public static final String STATES_BY_BOARD = "Cell.statesByBoard";
+
+    /** Named query projecting the alive cells of a board to a StoredCell, in row-major order. */
+    public static final String ALIVE_STATES_BY_BOARD = "Cell.aliveStatesByBoard";
+
+    /** Named query projecting the cells of a board that follow (x, y) in row-major order. */
+    public static final String STATES_BY_BOARD_AFTER = "Cell.statesByBoardAfter";
+
+    /** Named query selecting the cells of a game at the given row-major indices of a board of the given width. */
+    public static final String BY_GAME_AND_INDICES = "Cell.byGameAndIndices";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -55,29 +100,29 @@ public class Cell implements Evolvable, Interactable {
 
     /** Persisted alive/dead state */
     @Column(name = "is_alive", nullable = false)
-    protected Boolean isAlive = false;
+    private Boolean isAlive = false;
 
     /** Persisted lifepoints (default 0) */
     @Column(name = "lifepoints", nullable = false)
-    protected Integer lifepoints = 0;
+    private Integer lifepoints = 0;
 
     /** Reference to the parent board (read-only). */
     @ManyToOne(fetch = FetchType.LAZY, optional = false)
     @JoinColumn(name = "board_id", nullable = false, updatable = false)
-    protected Board board;
+    private Board board;
 
     /** Reference to the owning game (read-only). */
     @ManyToOne(fetch = FetchType.LAZY, optional = false)
     @JoinColumn(name = "game_id", nullable = false, updatable = false)
-    protected Game game;
+    private Game game;
 
     /** Transient list tracking generations this cell belongs to. */
     @Transient
-    protected List<Generation> generations = new ArrayList<>();
+    private List<Generation> generations = new ArrayList<>();
 
     /** Back-reference: Tile owns the foreign key mapping. */
     @OneToOne(mappedBy = "cell", fetch = FetchType.LAZY)
-    protected Tile tile;
+    private Tile tile;
 
     /** Default setting */
     private int minThreshold = 2;
@@ -108,16 +153,20 @@ public class Cell implements Evolvable, Interactable {
     /** Vamp super mode in BloodMoon event */
     private boolean superVampire = false;
 
+    /** Whether the persisted row is behind the in-memory state since the last checkpoint. */
+    @Transient
+    private boolean dirty = false;
+
     /** Default constructor for JPA compliance. */
     public Cell() {
         this.cellMood = NAIVE;
         this.cellType = BASIC;
 
         this.vampBite = new ArrayList<>();
-        this.addBite(new Coord(-1,-1));
+        this.vampBite.add(new Coord(-1,-1));
 
         this.healerGift = new ArrayList<>();
-        this.addHGift(new Coord(-1,-1));
+        this.healerGift.add(new Coord(-1,-1));
     }
 
     /**
@@ -134,10 +183,10 @@ public class Cell implements Evolvable, Interactable {
         this.cellType = BASIC;
 
         this.vampBite = new ArrayList<>();
-        this.addBite(new Coord(-1,-1));
+        this.vampBite.add(new Coord(-1,-1));
 
         this.healerGift = new ArrayList<>();
-        this.addHGift(new Coord(-1,-1));
+        this.healerGift.add(new Coord(-1,-1));
     }
 
     /**
@@ -164,10 +213,10 @@ public class Cell implements Evolvable, Interactable {
         this.cellType = BASIC;
 
         this.vampBite = new ArrayList<>();
-        this.addBite(new Coord(-1,-1));
+        this.vampBite.add(new Coord(-1,-1));
 
         this.healerGift = new ArrayList<>();
-        this.addHGift(new Coord(-1,-1));
+        this.healerGift.add(new Coord(-1,-1));
     }
 
     /**
@@ -323,6 +372,8 @@ public class Cell implements Evolvable, Interactable {
      * @param isAlive true to mark the cell as alive; false to mark it as dead
      */
     public void setAlive(boolean isAlive) {
+        if (this.isAlive != isAlive)
+            this.dirty = true;
         this.isAlive = isAlive;
     }
 
@@ -347,7 +398,8 @@ public class Cell implements Evolvable, Interactable {
      * @param value the number of new minimum threshold
      */
     public void setMinThreshold(int value) {
-
+        if (this.minThreshold != value)
+            this.dirty = true;
         this.minThreshold = value;
     }
 
@@ -357,10 +409,29 @@ public class Cell implements Evolvable, Interactable {
      * @param value the number of new maximum threshold
      */
     public void setMaxThreshold(int value) {
-
+        if (this.maxThreshold != value)
+            this.dirty = true;
         this.maxThreshold = value;
     }
     
+    /**
+     * Returns the minimum number of alive neighbors this cell needs to survive.
+     *
+     * @return the minimum threshold
+     */
+    public int getMinThreshold() {
+        return this.minThreshold;
+    }
+
+    /**
+     * Returns the maximum number of alive neighbors this cell tolerates.
+     *
+     * @return the maximum threshold
+     */
+    public int getMaxThreshold() {
+        return this.maxThreshold;
+    }
+
     /**
      * Retrieves the current energy level of this cell.
      *
@@ -376,7 +447,8 @@ public class Cell implements Evolvable, Interactable {
      * @param lifePoints the new number of life points to assign to the cell
      */
     public void setLifePoints(int lifePoints) {
-        
+        if (this.lifepoints != lifePoints)
+            this.dirty = true;
         this.lifepoints = lifePoints;
     }
 
@@ -390,6 +462,17 @@ public class Cell implements Evolvable, Interactable {
      */
     @Override
     public void interact(Cell otherCell) {
+        interact(otherCell, new EngineCounters.Tally());
+    }
+
+    /**
+     * Interacts with another cell as interact(Cell) does, counting the
+     * Vampire bites and Healer gifts that take place.
+     *
+     * @param otherCell the Cell object to interact with
+     * @param tally     the counters of the running evolution step
+     */
+    void interact(Cell otherCell, EngineCounters.Tally tally) {
 
         Objects.requireNonNull(otherCell,"Interaction need cells. 'otherCell' cannot be null");
         
@@ -405,6 +488,7 @@ public class Cell implements Evolvable, Interactable {
                         if (!this.getHGiftList().contains(otherCell.getCoordinates())) {
                             this.setLifePoints(this.getLifePoints() + 1);
                             this.addHGift(otherCell.getCoordinates());
+                            tally.gifts++;
                         }
                         break;
                     case VAMPIRE:
@@ -413,6 +497,7 @@ public class Cell implements Evolvable, Interactable {
                             this.setLifePoints(this.getLifePoints() - 1);
                             this.setFutureMood(VAMPIRE);
                             this.addBite(otherCell.getCoordinates());
+                            tally.bites++;
                         }
                         break;
                     default:
@@ -425,6 +510,7 @@ public class Cell implements Evolvable, Interactable {
                         if (!otherCell.getHGiftList().contains(this.getCoordinates())) {
                             otherCell.setLifePoints(otherCell.getLifePoints() + 1);
                             otherCell.addHGift(this.getCoordinates());
+                            tally.gifts++;
                         }
                         break;
                     case HEALER:
@@ -433,6 +519,7 @@ public class Cell implements Evolvable, Interactable {
                         if (this.isAlive() && this.getLifePoints() > 0) {
                             otherCell.setLifePoints(otherCell.getLifePoints() + 1);
                             this.setLifePoints(this.getLifePoints() - 1);
+                            tally.bites++;
                             if (superVampire) {
                                 this.setMood(VAMPIRE);
                             }
@@ -450,10 +537,12 @@ public class Cell implements Evolvable, Interactable {
                                 otherCell.setLifePoints(otherCell.getLifePoints() - 1);
                                 this.setLifePoints(this.getLifePoints() + 1);
                                 otherCell.addBite(this.getCoordinates());
+                                tally.bites++;
                                 break;
                             case HEALER:
                                 otherCell.setLifePoints(otherCell.getLifePoints() - 1);
                                 this.setLifePoints(this.getLifePoints() + 1);
+                                tally.bites++;
                                 if (superVampire) {
                                     otherCell.setMood(VAMPIRE);
                                 }
@@ -468,6 +557,8 @@ public class Cell implements Evolvable, Interactable {
     public void setFutureMood(CellMood futureMood) {
 
         Objects.requireNonNull(futureMood);
+        if (this.futureMood != futureMood)
+            this.dirty = true;
         this.futureMood = futureMood;
     }
 
@@ -483,6 +574,7 @@ public class Cell implements Evolvable, Interactable {
     public void setType(CellType t) {
 
         Objects.requireNonNull(t,"Cell type null");
+        this.dirty = true;
 
         switch(t) {
             case BASIC:
@@ -529,6 +621,8 @@ public class Cell implements Evolvable, Interactable {
     public void setMood(CellMood mood) {
         
         Objects.requireNonNull(mood,"Cell mood null");
+        if (this.cellMood != mood)
+            this.dirty = true;
 
         switch(mood) {
             case NAIVE: 
@@ -562,6 +656,7 @@ public class Cell implements Evolvable, Interactable {
 
     public boolean checkExtraLife() {
 
+        this.dirty = true;
         if (this.skippedGen < 3 && this.skippedGen != -1) {
             this.skippedGen ++;
             return true;
@@ -572,9 +667,20 @@ public class Cell implements Evolvable, Interactable {
         }
     }
 
+    /**
+     * Returns how many generations this Highlander has survived beyond its
+     * thresholds, or -1 once its extra lives are spent.
+     *
+     * @return the number of skipped generations
+     */
+    public int getSkippedGenerations() {
+        return this.skippedGen;
+    }
+
     public void addBite(Coord coord) {
         Objects.requireNonNull(coord);
         this.vampBite.add(coord);
+        this.dirty = true;
     }
 
     public List<Coord> getBiteList() {
@@ -586,25 +692,88 @@ public class Cell implements Evolvable, Interactable {
     }
 
     public void setSuperVampire() {
-        if (this.getMood() == CellMood.VAMPIRE)
+        if (this.getMood() == CellMood.VAMPIRE && !this.superVampire) {
             this.superVampire = true;
+            this.dirty = true;
+        }
     }
 
     public void addHGift(Coord coord) {
         healerGift.add(coord);
+        this.dirty = true;
     }
 
     public List<Coord> getHGiftList() {
         return healerGift;
     }
 
+    /**
+     * Tells whether this cell changed since it was last written to the database.
+     *
+     * @return true if the cell must be included in the next checkpoint
+     */
+    boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Marks this cell as in sync with its persisted row.
+     */
+    void clearDirty() {
+        this.dirty = false;
+    }
+
+    /**
+     * Overwrites the whole engine state of this cell, as recorded in a
+     * GenerationFrame, and clears the interactions of the current step.
+     *
+     * @param alive        the alive state
+     * @param lifePoints   the lifePoints
+     * @param mood         the current mood
+     * @param futureMood   the mood taken on at the next generation
+     * @param type         the cell type
+     * @param skippedGen   the generations survived as a Highlander beyond the thresholds
+     * @param superVampire whether the cell is a super vampire
+     * @param minThreshold the minimum survival threshold
+     * @param maxThreshold the maximum survival threshold
+     */
+    void restoreState(boolean alive, int lifePoints, CellMood mood, CellMood futureMood, CellType type,
+            int skippedGen, boolean superVampire, int minThreshold, int maxThreshold) {
+        this.isAlive = alive;
+        this.lifepoints = lifePoints;
+        this.cellMood = mood;
+        this.futureMood = futureMood;
+        this.cellType = type;
+        this.skippedGen = skippedGen;
+        this.superVampire = superVampire;
+        this.minThreshold = minThreshold;
+        this.maxThreshold = maxThreshold;
+        // fresh lists: the interactions of a step never outlive it, and the
+        // loaded ones may not be initialized
+        this.vampBite = new ArrayList<>();
+        this.vampBite.add(new Coord(-1,-1));
+        this.healerGift = new ArrayList<>();
+        this.healerGift.add(new Coord(-1,-1));
+        this.dirty = true;
+    }
+
     /*
      * It reset the interaction of vampires and healers 
      */
     public void resetHVinteractions() {
+        // a cell holding only the placeholders has nothing to reset, so it
+        // stays clean and out of the next checkpoint
+        if (this.vampBite.size() == 1 && this.healerGift.size() == 1
+                && isPlaceholder(this.vampBite.get(0)) && isPlaceholder(this.healerGift.get(0)))
+            return;
         this.vampBite.clear();
         this.healerGift.clear();
-        this.addBite(new Coord(-1,-1));
-        this.addHGift(new Coord(-1,-1));
-}
+        this.vampBite.add(new Coord(-1,-1));
+        this.healerGift.add(new Coord(-1,-1));
+        this.dirty = true;
+    }
+
+    private static boolean isPlaceholder(Coord coord) {
+        return coord.getX() == -1 && coord.getY() == -1;
+    }
 }
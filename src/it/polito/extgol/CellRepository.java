@@ -4,6 +4,8 @@ import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 
+import org.hibernate.jpa.HibernateHints;
+
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.NoResultException;
 import jakarta.persistence.TypedQuery;
@@ -44,6 +46,7 @@ public class CellRepository  extends GenericExtGOLRepository<Cell, Long> {
                 "SELECT c FROM Cell c WHERE c.isAlive = TRUE AND c.board.id = :boardId", 
                 Cell.class);
                 query.setParameter("boardId", boardId);
+                query.setHint(HibernateHints.HINT_CACHEABLE, true);
         try {
             return Optional.of(query.getResultList());
         } catch (NoResultException e) {
@@ -88,4 +91,73 @@ public class CellRepository  extends GenericExtGOLRepository<Cell, Long> {
             return Optional.empty();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Reads the stored state of every cell of a board, without hydrating any Cell.
+     *
+     * @param boardId the id of the board
+     * @return the cells of the board as StoredCell records, in row-major order
+     */
+    public List<StoredCell> findCellStates(Integer boardId) {
+        return findStates(Cell.STATES_BY_BOARD, boardId);
+    }
+
+    /**
+     * Reads the stored state of the alive cells of a board, without hydrating any Cell.
+     *
+     * @param boardId the id of the board
+     * @return the alive cells of the board as StoredCell records, in row-major order
+     */
+    public List<StoredCell> findAliveCellStates(Integer boardId) {
+        return findStates(Cell.ALIVE_STATES_BY_BOARD, boardId);
+    }
+
+    /**
+     * Reads one page of the cells of a board in row-major order, using keyset
+     * pagination: the page starts right after the given coordinate, so every
+     * page is a range scan of the (board_id, cell_y, cell_x) index however deep
+     * into the board it is.
+     *
+     * @param boardId the id of the board
+     * @param after   the coordinate of the last cell of the previous page, or null for the first page
+     * @param limit   the maximum number of cells in the page
+     * @return up to limit StoredCell records following after, in row-major order
+     * @throws IllegalArgumentException if limit is not positive
+     */
+    public List<StoredCell> findCellStates(Integer boardId, Coord after, int limit) {
+        Objects.requireNonNull(boardId);
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+
+        EntityManager em = JPAUtil.getEntityManager();
+        try {
+            TypedQuery<StoredCell> query;
+            if (after == null) {
+                query = em.createNamedQuery(Cell.STATES_BY_BOARD, StoredCell.class);
+            } else {
+                query = em.createNamedQuery(Cell.STATES_BY_BOARD_AFTER, StoredCell.class)
+                    .setParameter("x", after.getX())
+                    .setParameter("y", after.getY());
+            }
+            return query.setParameter("boardId", boardId)
+                .setMaxResults(limit)
+                .getResultList();
+        } finally {
+            em.close();
+        }
+    }
+
+    private List<StoredCell> findStates(String namedQuery, Integer boardId) {
+        Objects.requireNonNull(boardId);
+
+        EntityManager em = JPAUtil.getEntityManager();
+        try {
+            return em.createNamedQuery(namedQuery, StoredCell.class)
+                .setParameter("boardId", boardId)
+                .getResultList();
+        } finally {
+            em.close();
+        }
+    }
+}
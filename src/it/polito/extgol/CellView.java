@@ -0,0 +1,119 @@
+package it.polito.extgol;
+
+/**
+ * Read-only view of one cell as recorded in a generation.
+ *
+ * A view is a flyweight over the generation's immutable frame: it holds only
+ * the frame and the cell's row-major index, and every getter reads the frame.
+ * Unlike a Cell, whose state follows the simulation, a view always reports
+ * the state at its generation, and it never touches the board, so views can
+ * be read from any thread while the simulation keeps evolving.
+ *
+ * Two views are equal when they describe the same position of the same frame.
+ */
+public final class CellView {
+
+    private final GenerationFrame frame;
+    private final int index;
+
+    /**
+     * Creates the view of a cell of a frame.
+     *
+     * @param frame the frame the view reads
+     * @param index the row-major index of the cell
+     */
+    CellView(GenerationFrame frame, int index) {
+        this.frame = frame;
+        this.index = index;
+    }
+
+    /**
+     * Returns the row-major index of the cell in its frame.
+     *
+     * @return y * width + x
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the column of the cell.
+     *
+     * @return the x coordinate
+     */
+    public int getX() {
+        return index % frame.getWidth();
+    }
+
+    /**
+     * Returns the row of the cell.
+     *
+     * @return the y coordinate
+     */
+    public int getY() {
+        return index / frame.getWidth();
+    }
+
+    /**
+     * Returns the position of the cell.
+     *
+     * @return the Coord of the cell
+     */
+    public Coord getCoordinates() {
+        return new Coord(getX(), getY());
+    }
+
+    /**
+     * Tells whether the cell was alive at the generation.
+     *
+     * @return true if the cell was alive
+     */
+    public boolean isAlive() {
+        return frame.isAlive(index);
+    }
+
+    /**
+     * Returns the lifePoints of the cell at the generation.
+     *
+     * @return the recorded lifePoints
+     */
+    public int getLifePoints() {
+        return frame.getLifePoints(index);
+    }
+
+    /**
+     * Returns the type of the cell at the generation.
+     *
+     * @return the recorded CellType
+     */
+    public CellType getType() {
+        return frame.getType(index);
+    }
+
+    /**
+     * Returns the mood of the cell at the generation.
+     *
+     * @return the recorded CellMood
+     */
+    public CellMood getMood() {
+        return frame.getMood(index);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CellView)) return false;
+        CellView v = (CellView) o;
+        return frame == v.frame && index == v.index;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * System.identityHashCode(frame) + index;
+    }
+
+    @Override
+    public String toString() {
+        return "CellView(" + getX() + ", " + getY() + ", " + (isAlive() ? "alive" : "dead")
+            + ", " + getLifePoints() + " lp, " + getType() + ", " + getMood() + ")";
+    }
+}
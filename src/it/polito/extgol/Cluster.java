@@ -0,0 +1,35 @@
+package it.polito.extgol;
+
+/**
+ * One 8-connected group of alive cells of a generation, as found by
+ * ClusterAnalysis.
+ *
+ * @param label  the index of the cluster, clusters being numbered in
+ *               row-major order of their top-left-most cell
+ * @param size   the number of alive cells in the cluster
+ * @param energy the total lifePoints of the cells of the cluster
+ * @param minX   the leftmost column of the cluster
+ * @param minY   the topmost row of the cluster
+ * @param maxX   the rightmost column of the cluster
+ * @param maxY   the bottommost row of the cluster
+ */
+public record Cluster(int label, int size, long energy, int minX, int minY, int maxX, int maxY) {
+
+    /**
+     * Returns the width of the bounding box of the cluster.
+     *
+     * @return maxX - minX + 1
+     */
+    public int width() {
+        return maxX - minX + 1;
+    }
+
+    /**
+     * Returns the height of the bounding box of the cluster.
+     *
+     * @return maxY - minY + 1
+     */
+    public int height() {
+        return maxY - minY + 1;
+    }
+}
@@ -0,0 +1,337 @@
+package it.polito.extgol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Connected components (8-connectivity) of the alive cells of one
+ * generation, with their sizes, bounding boxes and total lifePoints.
+ *
+ * Each board row is split into runs of consecutive alive cells, found a word
+ * at a time in the packed alive bits. Runs of adjacent rows that touch,
+ * diagonals included, are merged with a union-find, so labelling costs
+ * O(cells/64 + runs) plus one pass over the alive cells for the energy sums.
+ * Clusters are numbered in row-major order of their top-left-most cell.
+ *
+ * An analysis can be advanced to the next generation of the same board:
+ * rows whose aliveness and lifePoints did not change keep their runs and
+ * energy sums, and only the union-find is run again.
+ *
+ * Instances are immutable; Generation caches the analysis of its frame.
+ */
+public final class ClusterAnalysis {
+
+    private static final int[] NO_RUNS = new int[0];
+    private static final long[] NO_ENERGY = new long[0];
+
+    private final GenerationFrame frame;
+
+    /** Per row, the first and last column of each run, left to right. */
+    private final int[][] runStarts;
+    private final int[][] runEnds;
+
+    /** Per row, the total lifePoints of each run. */
+    private final long[][] runEnergies;
+
+    /** Index of the first run of each row in runLabels; one extra entry for the end. */
+    private final int[] rowOffsets;
+
+    /** Cluster label of each run, rows in order. */
+    private final int[] runLabels;
+
+    private final List<Cluster> clusters;
+
+    private ClusterAnalysis(GenerationFrame frame, int[][] runStarts, int[][] runEnds, long[][] runEnergies) {
+        this.frame = frame;
+        this.runStarts = runStarts;
+        this.runEnds = runEnds;
+        this.runEnergies = runEnergies;
+
+        int height = runStarts.length;
+        rowOffsets = new int[height + 1];
+        for (int y = 0; y < height; y++) {
+            rowOffsets[y + 1] = rowOffsets[y] + runStarts[y].length;
+        }
+        int runs = rowOffsets[height];
+
+        // union-find over runs, linking each run to the touching runs of the row above
+        int[] parent = new int[runs];
+        for (int r = 0; r < runs; r++) {
+            parent[r] = r;
+        }
+        for (int y = 1; y < height; y++) {
+            int[] aboveStarts = runStarts[y - 1], aboveEnds = runEnds[y - 1];
+            int[] starts = runStarts[y], ends = runEnds[y];
+            int i = 0, j = 0;
+            while (i < aboveStarts.length && j < starts.length) {
+                if (aboveStarts[i] <= ends[j] + 1 && starts[j] <= aboveEnds[i] + 1)
+                    union(parent, rowOffsets[y - 1] + i, rowOffsets[y] + j);
+                if (aboveEnds[i] < ends[j])
+                    i++;
+                else
+                    j++;
+            }
+        }
+
+        // roots are met in row-major order of their first run, which numbers the clusters
+        runLabels = new int[runs];
+        int[] labelOfRoot = new int[runs];
+        Arrays.fill(labelOfRoot, -1);
+        List<int[]> boxes = new ArrayList<>();
+        List<long[]> totals = new ArrayList<>();
+        for (int y = 0; y < height; y++) {
+            for (int k = 0; k < runStarts[y].length; k++) {
+                int r = rowOffsets[y] + k;
+                int root = find(parent, r);
+                int label = labelOfRoot[root];
+                if (label < 0) {
+                    label = boxes.size();
+                    labelOfRoot[root] = label;
+                    boxes.add(new int[] { runStarts[y][k], y, runEnds[y][k], y });
+                    totals.add(new long[2]);
+                }
+                runLabels[r] = label;
+                int[] box = boxes.get(label);
+                box[0] = Math.min(box[0], runStarts[y][k]);
+                box[2] = Math.max(box[2], runEnds[y][k]);
+                box[3] = y;
+                long[] total = totals.get(label);
+                total[0] += runEnds[y][k] - runStarts[y][k] + 1;
+                total[1] += runEnergies[y][k];
+            }
+        }
+        List<Cluster> found = new ArrayList<>(boxes.size());
+        for (int label = 0; label < boxes.size(); label++) {
+            int[] box = boxes.get(label);
+            long[] total = totals.get(label);
+            found.add(new Cluster(label, (int) total[0], total[1], box[0], box[1], box[2], box[3]));
+        }
+        clusters = Collections.unmodifiableList(found);
+    }
+
+    /**
+     * Analyzes a frame from scratch.
+     *
+     * @param frame the frame to analyze
+     * @return the ClusterAnalysis of the alive cells of frame
+     */
+    static ClusterAnalysis of(GenerationFrame frame) {
+        int height = frame.getHeight();
+        int[][] starts = new int[height][];
+        int[][] ends = new int[height][];
+        long[][] energies = new long[height][];
+        for (int y = 0; y < height; y++) {
+            scanRow(frame, y, starts, ends, energies);
+        }
+        return new ClusterAnalysis(frame, starts, ends, energies);
+    }
+
+    /**
+     * Analyzes the next frame of the same board, reusing the runs of every
+     * row whose aliveness and lifePoints did not change.
+     *
+     * @param next the frame to analyze
+     * @return the ClusterAnalysis of the alive cells of next
+     * @throws IllegalArgumentException if next belongs to a board of a different size
+     */
+    public ClusterAnalysis advance(GenerationFrame next) {
+        if (next == frame)
+            return this;
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        if (next.getWidth() != width || next.getHeight() != height) {
+            throw new IllegalArgumentException("Clusters cannot follow a frame of a different board");
+        }
+        int[][] starts = new int[height][];
+        int[][] ends = new int[height][];
+        long[][] energies = new long[height][];
+        int[] oldLifePoints = frame.lifePointsArray();
+        int[] newLifePoints = next.lifePointsArray();
+        for (int y = 0; y < height; y++) {
+            int from = y * width;
+            if (sameBits(frame.aliveWords(), next.aliveWords(), from, width)
+                    && Arrays.equals(oldLifePoints, from, from + width, newLifePoints, from, from + width)) {
+                starts[y] = runStarts[y];
+                ends[y] = runEnds[y];
+                energies[y] = runEnergies[y];
+            } else {
+                scanRow(next, y, starts, ends, energies);
+            }
+        }
+        return new ClusterAnalysis(next, starts, ends, energies);
+    }
+
+    /**
+     * Splits a row into runs of alive cells and sums their lifePoints.
+     */
+    private static void scanRow(GenerationFrame frame, int y, int[][] starts, int[][] ends, long[][] energies) {
+        int width = frame.getWidth();
+        int rowStart = y * width;
+        int rowEnd = rowStart + width;
+        long[] alive = frame.aliveWords();
+        int[] lifePoints = frame.lifePointsArray();
+
+        int count = 0;
+        for (int i = frame.nextAlive(rowStart); i >= 0 && i < rowEnd; i = frame.nextAlive(i)) {
+            i = nextDead(alive, i, rowEnd);
+            count++;
+        }
+        if (count == 0) {
+            starts[y] = NO_RUNS;
+            ends[y] = NO_RUNS;
+            energies[y] = NO_ENERGY;
+            return;
+        }
+        int[] rowStarts = new int[count];
+        int[] rowEnds = new int[count];
+        long[] rowEnergies = new long[count];
+        int k = 0;
+        for (int i = frame.nextAlive(rowStart); i >= 0 && i < rowEnd; i = frame.nextAlive(i)) {
+            int end = nextDead(alive, i, rowEnd);
+            long energy = 0;
+            for (int c = i; c < end; c++) {
+                energy += lifePoints[c];
+            }
+            rowStarts[k] = i - rowStart;
+            rowEnds[k] = end - 1 - rowStart;
+            rowEnergies[k] = energy;
+            k++;
+            i = end;
+        }
+        starts[y] = rowStarts;
+        ends[y] = rowEnds;
+        energies[y] = rowEnergies;
+    }
+
+    /**
+     * Finds the first dead cell at or after from, a word at a time.
+     *
+     * @return its index, or limit if every cell up to limit is alive
+     */
+    private static int nextDead(long[] alive, int from, int limit) {
+        int w = from >>> 6;
+        if (w >= alive.length)
+            return limit;
+        long bits = ~alive[w] & (-1L << from);
+        while (bits == 0) {
+            if (++w >= alive.length || w << 6 >= limit)
+                return limit;
+            bits = ~alive[w];
+        }
+        return Math.min(limit, (w << 6) + Long.numberOfTrailingZeros(bits));
+    }
+
+    /**
+     * Tells whether two packed bit arrays agree on the bits [from, from + length).
+     */
+    private static boolean sameBits(long[] a, long[] b, int from, int length) {
+        for (int k = 0; k < length; k += 64) {
+            long diff = GenerationFrame.bitsAt(a, from + k) ^ GenerationFrame.bitsAt(b, from + k);
+            int valid = Math.min(64, length - k);
+            if (valid < 64)
+                diff &= (1L << valid) - 1;
+            if (diff != 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static int find(int[] parent, int r) {
+        while (parent[r] != r) {
+            parent[r] = parent[parent[r]];
+            r = parent[r];
+        }
+        return r;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int ra = find(parent, a);
+        int rb = find(parent, b);
+        // the earlier run stays the root, keeping roots in row-major order
+        if (ra < rb)
+            parent[rb] = ra;
+        else if (rb < ra)
+            parent[ra] = rb;
+    }
+
+    /**
+     * Returns the number of clusters.
+     *
+     * @return the number of connected groups of alive cells
+     */
+    public int count() {
+        return clusters.size();
+    }
+
+    /**
+     * Returns every cluster, ordered by label.
+     *
+     * @return an unmodifiable List of Cluster
+     */
+    public List<Cluster> getClusters() {
+        return clusters;
+    }
+
+    /**
+     * Returns the label of the cluster containing a cell.
+     *
+     * @param x the column of the cell
+     * @param y the row of the cell
+     * @return the label of its cluster, or -1 if the cell is dead or outside the board
+     */
+    public int label(int x, int y) {
+        if (y < 0 || y >= runStarts.length)
+            return -1;
+        int[] starts = runStarts[y];
+        int k = Arrays.binarySearch(starts, x);
+        if (k < 0)
+            k = -k - 2; // the last run starting before x
+        if (k < 0 || x > runEnds[y][k])
+            return -1;
+        return runLabels[rowOffsets[y] + k];
+    }
+
+    /**
+     * Returns the cluster containing a cell.
+     *
+     * @param c the coordinates of the cell
+     * @return the Cluster of the cell, or empty if the cell is dead or outside the board
+     */
+    public Optional<Cluster> clusterAt(Coord c) {
+        int label = label(c.getX(), c.getY());
+        return label < 0 ? Optional.empty() : Optional.of(clusters.get(label));
+    }
+
+    /**
+     * Returns the largest cluster; among clusters of the same size the one
+     * with the lowest label wins.
+     *
+     * @return the largest Cluster, or empty if no cell is alive
+     */
+    public Optional<Cluster> largest() {
+        Cluster largest = null;
+        for (Cluster cluster : clusters) {
+            if (largest == null || cluster.size() > largest.size())
+                largest = cluster;
+        }
+        return Optional.ofNullable(largest);
+    }
+
+    /**
+     * Counts the clusters of each size.
+     *
+     * @return a Map, sorted by size, from cluster size to the number of clusters of that size
+     */
+    public Map<Integer, Integer> sizeDistribution() {
+        Map<Integer, Integer> distribution = new TreeMap<>();
+        for (Cluster cluster : clusters) {
+            distribution.merge(cluster.size(), 1, Integer::sum);
+        }
+        return distribution;
+    }
+}
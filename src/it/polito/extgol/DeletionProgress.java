@@ -0,0 +1,12 @@
+package it.polito.extgol;
+
+/**
+ * Progress report of a bulk deletion, handed to the caller's callback after
+ * every set-based statement.
+ *
+ * @param table        the table the statement deleted from
+ * @param rowsDeleted  the number of rows removed by the statement
+ * @param totalDeleted the number of rows removed so far by the whole operation
+ */
+public record DeletionProgress(String table, int rowsDeleted, long totalDeleted) {
+}
@@ -0,0 +1,115 @@
+package it.polito.extgol;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The number of alive cells per lifePoints value in one generation.
+ *
+ * A histogram is stored with the GenerationSummary of its generation, so that
+ * histogram queries over a stored game read one narrow summary row instead of
+ * the generation's frame. One taken from a live frame is only counted when
+ * first read or written, so evolving a game does not pay for it at every step.
+ * Instances are immutable.
+ */
+final class EnergyHistogram {
+
+    /** The frame still to be counted, or null once counted or read back. */
+    private final GenerationFrame frame;
+
+    /** The distinct lifePoints values in ascending order, each followed by its cell count. */
+    private volatile int[] buckets;
+
+    private EnergyHistogram(GenerationFrame frame, int[] buckets) {
+        this.frame = frame;
+        this.buckets = buckets;
+    }
+
+    /**
+     * Returns the histogram of the alive cells of a frame, counted on first use.
+     *
+     * @param frame the frame to count
+     * @return the histogram of frame
+     */
+    static EnergyHistogram of(GenerationFrame frame) {
+        return new EnergyHistogram(frame, null);
+    }
+
+    /**
+     * Returns a histogram with the given buckets, as read back from storage.
+     *
+     * @param buckets lifePoints values in ascending order, each followed by its cell count
+     * @return the histogram holding buckets
+     */
+    static EnergyHistogram ofBuckets(int[] buckets) {
+        return new EnergyHistogram(null, buckets);
+    }
+
+    /**
+     * Returns the buckets of this histogram, counting the frame on first use.
+     *
+     * @return lifePoints values in ascending order, each followed by its cell
+     *         count; not to be modified
+     */
+    int[] buckets() {
+        int[] counted = buckets;
+        if (counted == null) {
+            counted = count(frame);
+            buckets = counted;
+        }
+        return counted;
+    }
+
+    /**
+     * Returns the histogram as a map, like GenerationFrame.aliveEnergyHistogram.
+     *
+     * @return a Map, sorted by lifePoints, from lifePoints value to the number of alive cells
+     */
+    Map<Integer, Integer> toMap() {
+        int[] counted = buckets();
+        Map<Integer, Integer> histogram = new TreeMap<>();
+        for (int b = 0; b < counted.length; b += 2) {
+            histogram.put(counted[b], counted[b + 1]);
+        }
+        return histogram;
+    }
+
+    /**
+     * Sorts the lifePoints of the alive cells and counts each run of equal values.
+     */
+    private static int[] count(GenerationFrame frame) {
+        long[] words = frame.aliveWords();
+        int[] lifePoints = frame.lifePointsArray();
+        int[] alive = new int[frame.countAlive()];
+        int n = 0;
+        for (int w = 0; w < words.length; w++) {
+            for (long bits = words[w]; bits != 0; bits &= bits - 1) {
+                alive[n++] = lifePoints[(w << 6) + Long.numberOfTrailingZeros(bits)];
+            }
+        }
+        Arrays.sort(alive);
+
+        int[] counted = new int[2 * n];
+        int size = 0;
+        for (int i = 0; i < n; ) {
+            int run = i;
+            while (run < n && alive[run] == alive[i])
+                run++;
+            counted[size++] = alive[i];
+            counted[size++] = run - i;
+            i = run;
+        }
+        return Arrays.copyOf(counted, size);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof EnergyHistogram other && Arrays.equals(buckets(), other.buckets());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(buckets());
+    }
+}
@@ -0,0 +1,65 @@
+package it.polito.extgol;
+
+import java.util.Arrays;
+
+import org.hibernate.annotations.Immutable;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+/**
+ * JPA converter storing an EnergyHistogram as a single compact binary value.
+ *
+ * Layout:
+ *   - the number of buckets as an unsigned varint;
+ *   - for each bucket, in ascending lifePoints order, the distance from the
+ *     previous lifePoints value (from 0 for the first) as a zig-zag varint,
+ *     followed by the cell count as an unsigned varint.
+ *
+ * Histograms are immutable, so Hibernate compares them by equality instead of
+ * taking deep copies for dirty checking.
+ */
+@Converter
+@Immutable
+public class EnergyHistogramConverter implements AttributeConverter<EnergyHistogram, byte[]> {
+
+    @Override
+    public byte[] convertToDatabaseColumn(EnergyHistogram histogram) {
+        if (histogram == null)
+            return null;
+
+        int[] buckets = histogram.buckets();
+        // a worst-case varint for the size and for every value and count
+        byte[] out = new byte[5 + 5 * buckets.length];
+        int pos = GenerationFrameConverter.writeVarint(out, 0, buckets.length / 2);
+        int previous = 0;
+        for (int b = 0; b < buckets.length; b += 2) {
+            int delta = buckets[b] - previous;
+            pos = GenerationFrameConverter.writeVarint(out, pos, (delta << 1) ^ (delta >> 31));
+            pos = GenerationFrameConverter.writeVarint(out, pos, buckets[b + 1]);
+            previous = buckets[b];
+        }
+        return Arrays.copyOf(out, pos);
+    }
+
+    @Override
+    public EnergyHistogram convertToEntityAttribute(byte[] data) {
+        if (data == null)
+            return null;
+
+        try {
+            int[] pos = { 0 };
+            int[] buckets = new int[2 * GenerationFrameConverter.readVarint(data, pos)];
+            int previous = 0;
+            for (int b = 0; b < buckets.length; b += 2) {
+                int zz = GenerationFrameConverter.readVarint(data, pos);
+                previous += (zz >>> 1) ^ -(zz & 1);
+                buckets[b] = previous;
+                buckets[b + 1] = GenerationFrameConverter.readVarint(data, pos);
+            }
+            return EnergyHistogram.ofBuckets(buckets);
+        } catch (ArrayIndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IllegalArgumentException("Truncated energy histogram", e);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package it.polito.extgol;
+
+import java.util.Arrays;
+
+/**
+ * Index of the alive cells of one generation by lifePoints.
+ *
+ * Alive cells are grouped into one bucket per distinct lifePoints value,
+ * buckets ordered by ascending value and the positions inside each bucket in
+ * row-major order, i.e. closest to the top-left corner first. The index is
+ * built with a counting sort in O(cells/64 + alive + buckets); when the
+ * lifePoints are spread over a range much wider than the population, the
+ * distinct values are sorted instead. The top n cells are then read in
+ * O(n + buckets) and a whole bucket in O(size of the bucket).
+ *
+ * An index is immutable and describes a single frame; Generation builds it
+ * on first use and drops it whenever its frame changes.
+ */
+public final class EnergyIndex {
+
+    /** Widest lifePoints range, relative to the population, indexed by counting sort. */
+    private static final int DENSE_SPAN_FACTOR = 4;
+
+    /** Range always indexed by counting sort, however small the population. */
+    private static final int MIN_DENSE_SPAN = 1024;
+
+    private static final int[] NONE = new int[0];
+
+    /** Distinct lifePoints values of the alive cells, ascending. */
+    private final int[] levels;
+
+    /** Positions of bucket k are positions[starts[k]] .. positions[starts[k + 1] - 1]. */
+    private final int[] starts;
+
+    /** Row-major indices of the alive cells, grouped by bucket. */
+    private final int[] positions;
+
+    private EnergyIndex(int[] levels, int[] starts, int[] positions) {
+        this.levels = levels;
+        this.starts = starts;
+        this.positions = positions;
+    }
+
+    /**
+     * Builds the index of a frame.
+     *
+     * @param frame      the frame to index
+     * @param aggregates the aggregates of frame, giving its population and lifePoints range
+     * @return the EnergyIndex of the alive cells of frame
+     */
+    static EnergyIndex of(GenerationFrame frame, GenerationAggregates aggregates) {
+        int population = aggregates.getPopulation();
+        if (population == 0)
+            return new EnergyIndex(NONE, new int[1], NONE);
+
+        long[] alive = frame.aliveWords();
+        int[] lifePoints = frame.lifePointsArray();
+        int min = aggregates.getMinLifePoints();
+        long span = (long) aggregates.getMaxLifePoints() - min + 1;
+
+        // bucket of each distinct value, either by offset or by binary search
+        int[] levels;
+        boolean dense = isDense(span, population);
+        if (dense) {
+            levels = null;
+        } else {
+            int[] values = new int[population];
+            int n = 0;
+            for (int w = 0; w < alive.length; w++) {
+                for (long bits = alive[w]; bits != 0; bits &= bits - 1) {
+                    values[n++] = lifePoints[(w << 6) + Long.numberOfTrailingZeros(bits)];
+                }
+            }
+            Arrays.sort(values);
+            int distinct = 0;
+            for (int k = 0; k < values.length; k++) {
+                if (k == 0 || values[k] != values[k - 1])
+                    values[distinct++] = values[k];
+            }
+            levels = Arrays.copyOf(values, distinct);
+        }
+
+        int buckets = dense ? (int) span : levels.length;
+        int[] starts = new int[buckets + 1];
+        for (int w = 0; w < alive.length; w++) {
+            for (long bits = alive[w]; bits != 0; bits &= bits - 1) {
+                int lp = lifePoints[(w << 6) + Long.numberOfTrailingZeros(bits)];
+                starts[(dense ? lp - min : Arrays.binarySearch(levels, lp)) + 1]++;
+            }
+        }
+        for (int k = 0; k < buckets; k++) {
+            starts[k + 1] += starts[k];
+        }
+
+        // scanning in row-major order keeps each bucket sorted by position
+        int[] next = Arrays.copyOf(starts, buckets);
+        int[] positions = new int[population];
+        for (int w = 0; w < alive.length; w++) {
+            for (long bits = alive[w]; bits != 0; bits &= bits - 1) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                int lp = lifePoints[i];
+                positions[next[dense ? lp - min : Arrays.binarySearch(levels, lp)]++] = i;
+            }
+        }
+
+        if (!dense)
+            return new EnergyIndex(levels, starts, positions);
+
+        // drop the empty buckets of the counting sort
+        int distinct = 0;
+        for (int k = 0; k < buckets; k++) {
+            if (starts[k + 1] > starts[k])
+                distinct++;
+        }
+        levels = new int[distinct];
+        int[] compact = new int[distinct + 1];
+        int d = 0;
+        for (int k = 0; k < buckets; k++) {
+            if (starts[k + 1] > starts[k]) {
+                levels[d] = min + k;
+                compact[++d] = starts[k + 1];
+            }
+        }
+        return new EnergyIndex(levels, compact, positions);
+    }
+
+    /**
+     * Tells whether a lifePoints range is narrow enough to be bucketed by
+     * offset, with one counter per value, rather than by sorting the values.
+     *
+     * @param span       the number of values between the lowest and highest lifePoints
+     * @param population the number of alive cells
+     * @return true if a counting sort over span values is worth it
+     */
+    static boolean isDense(long span, int population) {
+        return span <= Math.max(MIN_DENSE_SPAN, (long) DENSE_SPAN_FACTOR * population);
+    }
+
+    /**
+     * Returns the number of alive cells in the index.
+     *
+     * @return the population of the indexed generation
+     */
+    public int size() {
+        return positions.length;
+    }
+
+    /**
+     * Returns the number of distinct lifePoints values among the alive cells.
+     *
+     * @return the number of buckets
+     */
+    public int bucketCount() {
+        return levels.length;
+    }
+
+    /**
+     * Returns the distinct lifePoints values of the alive cells.
+     *
+     * @return the values in ascending order
+     */
+    public int[] levels() {
+        return levels.clone();
+    }
+
+    /**
+     * Returns the alive cells having the given lifePoints.
+     *
+     * @param lifePoints the lifePoints value to look up
+     * @return the row-major indices of those cells in ascending order, empty if none
+     */
+    public int[] positions(int lifePoints) {
+        int k = Arrays.binarySearch(levels, lifePoints);
+        if (k < 0)
+            return NONE;
+        return Arrays.copyOfRange(positions, starts[k], starts[k + 1]);
+    }
+
+    /**
+     * Returns the alive cell with the most lifePoints; ties go to the cell
+     * closest to the top-left corner.
+     *
+     * @return the row-major index of that cell, or -1 if no cell is alive
+     */
+    public int highest() {
+        if (levels.length == 0)
+            return -1;
+        return positions[starts[levels.length - 1]];
+    }
+
+    /**
+     * Returns the n alive cells with the most lifePoints, in descending order
+     * of lifePoints; ties go to the cell closest to the top-left corner.
+     *
+     * @param n the maximum number of cells to return
+     * @return the row-major indices of the top-energy alive cells
+     * @throws IllegalArgumentException if n is negative
+     */
+    public int[] top(int n) {
+        if (n < 0)
+            throw new IllegalArgumentException("n must not be negative");
+        int[] top = new int[Math.min(n, positions.length)];
+        int filled = 0;
+        for (int k = levels.length - 1; k >= 0 && filled < top.length; k--) {
+            int count = Math.min(starts[k + 1] - starts[k], top.length - filled);
+            System.arraycopy(positions, starts[k], top, filled, count);
+            filled += count;
+        }
+        return top;
+    }
+}
@@ -0,0 +1,71 @@
+package it.polito.extgol;
+
+/**
+ * Events counted by the engine while evolving one generation into the next.
+ *
+ * The counters are incremented by the evolution loop as it interacts,
+ * evolves and updates each cell, so they cost no pass over the board of
+ * their own. They are attached to the generation produced by the loop;
+ * generations that were not produced by an evolution step report NONE.
+ *
+ * @param births          the cells that were dead and came to life
+ * @param deaths          the cells that were alive and died
+ * @param extraLives      the extra lives spent by Highlanders to survive their thresholds
+ * @param bites           the lifePoints drained by Vampires from Naive or Healer cells
+ * @param gifts           the lifePoints given by Healers to Naive cells
+ * @param moodTransitions the cells whose mood changed to their future mood
+ * @param turnedVampire   the mood transitions that turned a cell into a Vampire
+ */
+public record EngineCounters(int births, int deaths, int extraLives, int bites, int gifts,
+        int moodTransitions, int turnedVampire) {
+
+    /** Counters of a generation that was not produced by an evolution step. */
+    public static final EngineCounters NONE = new EngineCounters(0, 0, 0, 0, 0, 0, 0);
+
+    /**
+     * Returns the change in population caused by the evolution step.
+     *
+     * @return births - deaths
+     */
+    public int netGrowth() {
+        return births - deaths;
+    }
+
+    /**
+     * Mutable counters filled by a single evolution loop.
+     */
+    static final class Tally {
+
+        int births;
+        int deaths;
+        int extraLives;
+        int bites;
+        int gifts;
+        int moodTransitions;
+        int turnedVampire;
+
+        /**
+         * Counts the outcome of applying a cell's future state.
+         *
+         * @param wasAlive   whether the cell was alive before the step
+         * @param willLive   whether the cell is alive after the step
+         * @param mood       the mood of the cell before the step
+         * @param futureMood the mood the cell takes after the step
+         */
+        void apply(boolean wasAlive, boolean willLive, CellMood mood, CellMood futureMood) {
+            if (willLive && !wasAlive)
+                births++;
+            else if (wasAlive && !willLive)
+                deaths++;
+            if (mood != futureMood) {
+                moodTransitions++;
+                if (futureMood == CellMood.VAMPIRE)
+                    turnedVampire++;
+            }
+        }
+
+        EngineCounters toCounters() {
+            return new EngineCounters(births, deaths, extraLives, bites, gifts, moodTransitions, turnedVampire);
+        }
+    }
+}
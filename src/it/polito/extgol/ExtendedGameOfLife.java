@@ -1,11 +1,14 @@
 package it.polito.extgol;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.hibernate.Hibernate;
 
-import jakarta.persistence.EntityManager;
-import jakarta.persistence.EntityTransaction;
 
 /**
  * Facade coordinating the core operations of the Extended Game of Life simulation.
@@ -17,6 +20,27 @@ import jakarta.persistence.EntityTransaction;
  */
 public class ExtendedGameOfLife {
     //private GameRepository gameRepository = new GameRepository();
+
+    /** Backend storing and reloading games. */
+    private final GameStore store;
+
+    /**
+     * Creates the facade with the storage backend selected by configuration,
+     * the JPA database unless the "extgol.store" property says otherwise.
+     */
+    public ExtendedGameOfLife() {
+        this(GameStore.configured());
+    }
+
+    /**
+     * Creates the facade storing games in the given backend.
+     *
+     * @param store the GameStore used to save, checkpoint, resume and replay games
+     */
+    public ExtendedGameOfLife(GameStore store) {
+        this.store = Objects.requireNonNull(store);
+    }
+
     /**
      * Computes and returns the next generation based on the current one.
      *
@@ -27,11 +51,28 @@ public class ExtendedGameOfLife {
      *   4. Applies all calculated state changes simultaneously, ensuring consistency.
      *   5. Captures a snapshot of all cells' states into the persistent map for future retrieval.
      *
+     * Births, deaths, Highlander extra lives, Vampire bites, Healer gifts and
+     * mood transitions are counted along the way and attached to the new
+     * generation as its EngineCounters.
+     *
      * @param current The current generation snapshot used for evolving to the next state.
      * @return A new Generation object reflecting the evolved board state.
      * @throws IllegalStateException If Generation is not properly initialized.
      */
     public Generation evolve(Generation current) {
+        return evolve(current, () -> {});
+    }
+
+    /**
+     * Computes the next generation like evolve(current), running
+     * beforeCapture once the new cell states are applied and just before the
+     * board is captured, so that the frame is taken once per step.
+     *
+     * @param current       The current generation snapshot used for evolving to the next state.
+     * @param beforeCapture Changes to the board to record in the new generation.
+     * @return A new Generation object reflecting the evolved board state.
+     */
+    private Generation evolve(Generation current, Runnable beforeCapture) {
         Objects.requireNonNull(current, "Current generation cannot be null");
 
         Board board = current.getBoard();
@@ -45,6 +86,7 @@ public class ExtendedGameOfLife {
 
         // Step 1: Compute next state for each cell based only on current generation state
         Map<Cell, Boolean> nextStates = new HashMap<>();
+        EngineCounters.Tally tally = new EngineCounters.Tally();
         for (Tile tile : board.getTiles()) {
             Cell c = tile.getCell();
             if (c == null) {
@@ -55,26 +97,32 @@ public class ExtendedGameOfLife {
                     .map(Tile::getCell) 
                     .sorted(Comparator.comparing(Cell::getY).thenComparing(Cell::getX))
                     .filter(Cell::isAlive)
-                    .forEach(cell -> c.interact(cell));
+                    .forEach(cell -> c.interact(cell, tally));
 
             int aliveNeighbors = c.countAliveNeighbors();
+            int skipped = c.getSkippedGenerations();
             boolean nextState = c.evolve(aliveNeighbors);
+            if (c.getSkippedGenerations() > skipped)
+                tally.extraLives++;
             nextStates.put(c, nextState);
         }
 
         // Step 2: Instantiate the next Generation based on current
-        Generation nextGen = Generation.createNextGeneration(current);
+        Generation nextGen = Generation.follow(current);
 
         // Step 3: Apply all computed states simultaneously to avoid intermediate inconsistencies
         for (Map.Entry<Cell, Boolean> e : nextStates.entrySet()) {
             Cell c = e.getKey();
+            tally.apply(c.isAlive(), e.getValue(), c.getMood(), c.getFutureMood());
             c.setMood(c.getFutureMood());
             c.setAlive(e.getValue());
             c.addGeneration(nextGen);  // register cell with new generation
         }
 
         // Step 4: Persist snapshot of the next generation state
-        nextGen.snapCells();
+        beforeCapture.run();
+        nextGen.captureAfter(current);
+        nextGen.setCounters(tally.toCounters());
         return nextGen;
     }
 
@@ -117,23 +165,111 @@ public class ExtendedGameOfLife {
      * @return          The same Game instance, now containing the extended generation history.
      */
     public Game run(Game game, int steps, Map<Integer, EventType> eventMap) {
-    Generation current = game.getStart();
+        return run(game, game.getStart(), steps, eventMap, next -> {});
+    }
+
+    /**
+     * Advances the simulation like run(game, steps, eventMap), handing each
+     * completed generation to a write-behind persister.
+     *
+     * The simulation only blocks on the writer when its queue is full; call
+     * writer.flush() afterwards to wait until every generation is stored.
+     *
+     * @param game      The Game instance to run and update; it must already be persisted.
+     * @param steps     The total number of generations to simulate.
+     * @param eventMap  A map from generation index (0-based) to the EventType to trigger.
+     * @param writer    The GenerationWriter receiving each new generation.
+     * @return          The same Game instance, now containing the extended generation history.
+     */
+    public Game run(Game game, int steps, Map<Integer, EventType> eventMap, GenerationWriter writer) {
+        Objects.requireNonNull(writer);
+        return run(game, game.getStart(), steps, eventMap, writer::submit);
+    }
+
+    /**
+     * Continues a game from its latest generation, applying the event
+     * schedule stored with the game.
+     *
+     * Meant for games returned by resume(gameId, step): the simulation picks
+     * up exactly where the stored generation left off, and new generations
+     * follow its step number.
+     *
+     * @param game  The Game instance to continue.
+     * @param steps The number of further generations to simulate.
+     * @return      The same Game instance, now containing the extended generation history.
+     */
+    public Game continueRun(Game game, int steps) {
+        return continueRun(game, steps, Map.copyOf(game.getEventMapInternal()));
+    }
+
+    /**
+     * Continues a game from its latest generation with the given events.
+     *
+     * The events are added to the game's schedule, so that they are stored
+     * with it and applied again if the game is later resumed from an earlier
+     * step; a detached game whose schedule was never loaded keeps it untouched.
+     *
+     * @param game     The Game instance to continue.
+     * @param steps    The number of further generations to simulate.
+     * @param eventMap A map from absolute generation step to the EventType to trigger.
+     * @return         The same Game instance, now containing the extended generation history.
+     */
+    public Game continueRun(Game game, int steps, Map<Integer, EventType> eventMap) {
+        if (Hibernate.isInitialized(game.getEventMapInternal()))
+            game.getEventMapInternal().putAll(eventMap);
+        List<Generation> generations = game.getGenerations();
+        return run(game, generations.get(generations.size() - 1), steps, eventMap, next -> {});
+    }
+
+    /**
+     * Rebuilds a stored game exactly as it was at the given generation, ready
+     * to be continued with continueRun.
+     *
+     * Works from any stored step, so a pre-empted worker can resume from its
+     * last checkpoint instead of starting over. Stored generations after that
+     * step are only discarded by the next checkpoint or save of the returned
+     * game, so resuming just to inspect a step leaves the history intact.
+     *
+     * @param gameId The id of the stored game.
+     * @param step   The stored generation to resume from.
+     * @return       The Game with its board restored to that generation.
+     * @throws IllegalArgumentException if the game or the generation is not stored
+     */
+    public Game resume(Long gameId, int step) {
+        return store.resume(gameId, step)
+            .orElseThrow(() -> new IllegalArgumentException("Game with id " + gameId + " not found."));
+    }
+
+    /**
+     * Event-driven evolution loop shared by the public run methods. It
+     * applies eventMap without recording it in the game's schedule.
+     *
+     * @param game      The Game instance to run and update.
+     * @param from      The generation to evolve from.
+     * @param steps     The total number of generations to simulate.
+     * @param eventMap  A map from generation index (0-based) to the EventType to trigger.
+     * @param completed Receives each generation once it is fully evolved.
+     * @return          The same Game instance.
+     */
+    private Game run(Game game, Generation from, int steps, Map<Integer, EventType> eventMap,
+            Consumer<Generation> completed) {
+    Generation current = from;
     for (int i = 0; i < steps; i++) {
-        final int step = i;
+        final int step = current.getStep();
         
         if (eventMap.containsKey(step)) {
             game.getBoard().getTiles().stream()
                 .forEach(tile -> tile.unrollEvent(eventMap.get(step)));
         } 
         
-        Generation next = evolve(current);
-        next.setEvent(eventMap.get(step));
-        current = next;
-
-        game.getBoard().getTiles().stream().forEach(t -> {
+        // the event wears off before the new generation is captured
+        Generation next = evolve(current, () -> game.getBoard().getTiles().stream().forEach(t -> {
             t.setLifePointModifier(-1* t.getLifePointModifier());
             t.setEnableSuperVampire(false);
-        });
+        }));
+        next.setEvent(eventMap.get(step));
+        current = next;
+        completed.accept(next);
     }
     return game;
 }
@@ -175,30 +311,38 @@ public class ExtendedGameOfLife {
      * Cells, and all associated Generations.
      *
      * If the Game is new, it will be created and persisted.
-     * Otherwise, its state will be updated (merged) in the database. Ensures transactional 
-     * safety and consistency through commit and rollback handling.
+     * Otherwise, its state will be updated in the configured GameStore, which
+     * ensures transactional safety and consistency.
      *
      * @param game The Game instance to persist or update.
      */
     public void saveGame(Game game) {
-        EntityManager em = JPAUtil.getEntityManager();
-        EntityTransaction tx = em.getTransaction();
-        try {
-            tx.begin();
-            if (game.getId() == null) {
-                em.persist(game);
-            } else {
-                em.merge(game);
-            }
-            tx.commit();
-        } catch (RuntimeException e) {
-            if (tx.isActive()) {
-                tx.rollback();
-            }
-            throw e;
-        } finally {
-            em.close();
-        }
+        store.save(game);
+    }
+
+    /**
+     * Stores the progress of a running game since its previous checkpoint.
+     *
+     * Unlike saveGame, which merges the whole game graph, only the generations
+     * appended after the last stored step and the cells and tiles changed in the
+     * meantime are written, so periodic checkpoints cost O(new work).
+     *
+     * @param game The Game instance to checkpoint.
+     */
+    public void checkpoint(Game game) {
+        store.checkpoint(game);
+    }
+
+    /**
+     * Streams the stored generations of a game in step order, without
+     * rebuilding the game. The stream must be closed, e.g. with
+     * try-with-resources.
+     *
+     * @param gameId The id of the stored game.
+     * @return       A Stream of the game's generations.
+     */
+    public Stream<StoredGeneration> replay(Long gameId) {
+        return store.replay(gameId);
     }
 
     /**
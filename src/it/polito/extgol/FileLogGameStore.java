@@ -0,0 +1,510 @@
+package it.polito.extgol;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+
+import org.hibernate.Hibernate;
+
+/**
+ * GameStore keeping each game in an append-only, event-sourced binary log.
+ *
+ * Every game has its own file, named after its id, made of a header (magic
+ * number, format version, id, name and board size) followed by records. A
+ * record is a kind byte, the payload length, the payload and a CRC32 of kind
+ * and payload:
+ *   - KEYFRAME: step, event and the whole frame as GenerationFrameConverter
+ *     encodes it; written for the first generation and every
+ *     KEYFRAME_INTERVAL steps, so that reading never decodes long chains;
+ *   - DELTA: step, event and the FrameDelta from the previous generation;
+ *   - EVENTS: the whole event schedule, written whenever it changes;
+ *   - TRUNCATE: a step after which the generations are discarded, written
+ *     by the first save or checkpoint of a resumed game.
+ *
+ * Records are only ever appended through a FileChannel, and forced to disk at
+ * the end of each save or checkpoint; logs are read back through a read-only
+ * memory mapping. A record cut short by a crash fails its checksum: it is
+ * ignored, and cut off the file before anything else is appended.
+ *
+ * Ids of new games are assigned by the store, after the highest id found in
+ * its directory. An id is only taken once its log file has been created, so
+ * stores of several processes sharing a directory never hand out the same id.
+ */
+public class FileLogGameStore implements GameStore {
+
+    /** Generations between two keyframes. */
+    static final int KEYFRAME_INTERVAL = 64;
+
+    private static final int MAGIC = 0x45474F4C; // "EGOL"
+    private static final byte FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".egol";
+
+    private static final byte KEYFRAME = 1;
+    private static final byte DELTA = 2;
+    private static final byte EVENTS = 3;
+    private static final byte TRUNCATE = 4;
+
+    /** Kind byte, payload length and checksum around each payload. */
+    private static final int RECORD_OVERHEAD = 1 + 4 + 4;
+
+    private static final EventType[] EVENT_TYPES = EventType.values();
+
+    private final Path directory;
+    private final AtomicLong lastId;
+    private final GenerationFrameConverter converter = new GenerationFrameConverter();
+
+    /** Append position of the logs opened by this store, by game id. */
+    private final ConcurrentMap<Long, GameLog> logs = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a store keeping its logs in the given directory, creating it if needed.
+     *
+     * @param directory the directory holding one log file per game
+     * @throws UncheckedIOException if the directory cannot be created or listed
+     */
+    public FileLogGameStore(Path directory) {
+        this.directory = Objects.requireNonNull(directory);
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                lastId = new AtomicLong(files.mapToLong(FileLogGameStore::idOf).max().orElse(0));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends the game's generations and event schedule to its log, creating
+     * the log and assigning the game's id if it was never stored. Logs are
+     * append-only, so for a stored game this is the same as checkpoint.
+     */
+    @Override
+    public void save(Game game) {
+        Objects.requireNonNull(game);
+        GameLog log;
+        if (game.getId() == null) {
+            log = createWithNewId(game);
+            logs.put(game.getId(), log);
+        } else {
+            lastId.accumulateAndGet(game.getId(), Math::max);
+            log = logs.computeIfAbsent(game.getId(), id -> Files.exists(pathOf(id)) ? open(id) : create(game, id));
+        }
+        synchronized (log) {
+            try (FileChannel channel = FileChannel.open(log.path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+                Integer resumedStep = game.getResumedStep();
+                if (resumedStep != null && log.lastStep > resumedStep) {
+                    writeRecord(out, TRUNCATE, ByteBuffer.allocate(4).putInt(resumedStep).array());
+                    log.lastStep = resumedStep;
+                    log.lastFrame = frameAt(game, resumedStep);
+                }
+                for (Generation generation : game.getGenerations()) {
+                    int step = generation.getStep();
+                    if (step <= log.lastStep)
+                        continue;
+                    GenerationFrame frame = generation.getFrame();
+                    if (log.lastFrame == null || step % KEYFRAME_INTERVAL == 0) {
+                        writeRecord(out, KEYFRAME, generationPayload(step, generation.getEvent(),
+                            converter.convertToDatabaseColumn(frame)));
+                    } else {
+                        writeRecord(out, DELTA, generationPayload(step, generation.getEvent(),
+                            FrameDelta.encode(log.lastFrame, frame)));
+                    }
+                    log.lastStep = step;
+                    log.lastFrame = frame;
+                }
+
+                Map<Integer, EventType> schedule = game.getEventMapInternal();
+                if (Hibernate.isInitialized(schedule) && !schedule.equals(log.events)) {
+                    writeRecord(out, EVENTS, eventsPayload(schedule));
+                    log.events = new HashMap<>(schedule);
+                }
+                out.flush();
+                channel.force(false);
+                game.clearResumedStep();
+            } catch (IOException e) {
+                // the file may now end with a partial record: read it again on next use
+                logs.remove(game.getId(), log);
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                logs.remove(game.getId(), log);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void checkpoint(Game game) {
+        save(game);
+    }
+
+    /**
+     * Rebuilds the game from its log. Later generations stay in the log until
+     * the next save of the returned game appends a TRUNCATE record.
+     */
+    @Override
+    public Optional<Game> resume(Long gameId, int step) {
+        Optional<GameLog> stored = existing(gameId);
+        if (stored.isEmpty())
+            return Optional.empty();
+
+        GameLog log = stored.get();
+        synchronized (log) {
+            LogContents contents = read(log.path);
+            Game game = Game.createExtended(contents.name, contents.width, contents.height);
+            game.assignId(gameId);
+            game.clearGenerations();
+
+            GenerationFrame frame = null;
+            Generation resumed = null;
+            for (Entry entry : contents.generations) {
+                if (entry.step() > step)
+                    break;
+                frame = decode(entry, frame);
+                resumed = Generation.restored(game, game.getBoard(), entry.step(), frame, entry.event());
+                game.addGeneration(resumed);
+            }
+            if (resumed == null || resumed.getStep() != step) {
+                throw new IllegalArgumentException("No generation " + step + " stored for game " + gameId);
+            }
+            game.getEventMapInternal().putAll(contents.events);
+
+            frame.restore(game.getBoard());
+            game.markResumedAt(step);
+            return Optional.of(game);
+        }
+    }
+
+    /**
+     * Returns the frame of the game's generation at the given step.
+     */
+    private static GenerationFrame frameAt(Game game, int step) {
+        for (Generation generation : game.getGenerations()) {
+            if (generation.getStep() == step)
+                return generation.getFrame();
+        }
+        throw new IllegalStateException("Game " + game.getId() + " has no generation " + step);
+    }
+
+    /**
+     * Streams the generations of the game's log, decoding each frame only
+     * when the stream reaches it. The returned stream needs no closing.
+     */
+    @Override
+    public Stream<StoredGeneration> replay(Long gameId) {
+        Optional<GameLog> stored = existing(gameId);
+        if (stored.isEmpty())
+            return Stream.empty();
+
+        LogContents contents = read(stored.get().path);
+        Iterator<Entry> entries = contents.generations.iterator();
+        Spliterator<StoredGeneration> frames = new Spliterators.AbstractSpliterator<>(
+                contents.generations.size(), Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE) {
+            private GenerationFrame frame = null;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super StoredGeneration> action) {
+                if (!entries.hasNext())
+                    return false;
+                Entry entry = entries.next();
+                frame = decode(entry, frame);
+                action.accept(new StoredGeneration(entry.step(), entry.event(), frame));
+                return true;
+            }
+        };
+        return StreamSupport.stream(frames, false);
+    }
+
+    @Override
+    public boolean delete(Long gameId) {
+        Objects.requireNonNull(gameId);
+        GameLog log = logs.remove(gameId);
+        Path path = log != null ? log.path : pathOf(gameId);
+        try {
+            if (log == null)
+                return Files.deleteIfExists(path);
+            synchronized (log) {
+                return Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the log of a stored game, opening it if this store has not used it yet.
+     */
+    private Optional<GameLog> existing(Long gameId) {
+        Objects.requireNonNull(gameId);
+        GameLog log = logs.get(gameId);
+        if (log != null)
+            return Optional.of(log);
+        if (!Files.exists(pathOf(gameId)))
+            return Optional.empty();
+        return Optional.of(logs.computeIfAbsent(gameId, this::open));
+    }
+
+    /**
+     * Creates the log of a game that has no id yet under the next free id,
+     * and assigns that id to the game. Creating the file claims the id
+     * atomically: if another store sharing the directory got there first,
+     * the following id is tried.
+     */
+    private GameLog createWithNewId(Game game) {
+        while (true) {
+            long id = lastId.incrementAndGet();
+            try {
+                GameLog log = writeHeader(game, id);
+                game.assignId(id);
+                return log;
+            } catch (FileAlreadyExistsException e) {
+                // taken by another store since this one last looked
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Creates the log of a new game, holding only its header.
+     */
+    private GameLog create(Game game, long id) {
+        try {
+            return writeHeader(game, id);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Creates the log file of a game under the given id and writes its header.
+     *
+     * @throws FileAlreadyExistsException if a log with that id already exists
+     */
+    private GameLog writeHeader(Game game, long id) throws IOException {
+        Path path = pathOf(id);
+        try (DataOutputStream out = new DataOutputStream(Channels.newOutputStream(
+                FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)))) {
+            byte[] name = game.getName().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeLong(id);
+            out.writeInt(name.length);
+            out.write(name);
+            out.writeInt(game.getBoard().getWidth());
+            out.writeInt(game.getBoard().getHeight());
+        }
+        return new GameLog(path);
+    }
+
+    /**
+     * Opens the existing log of a game for appending: cuts off a partial last
+     * record, then decodes the generations since the last keyframe to find
+     * where the next delta starts from.
+     */
+    private GameLog open(Long gameId) {
+        Path path = pathOf(gameId);
+        LogContents contents = read(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            if (channel.size() > contents.validEnd)
+                channel.truncate(contents.validEnd);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        GameLog log = new GameLog(path);
+        List<Entry> generations = contents.generations;
+        int from = generations.size() - 1;
+        while (from > 0 && !generations.get(from).keyframe())
+            from--;
+        for (int i = Math.max(from, 0); i < generations.size(); i++) {
+            log.lastFrame = decode(generations.get(i), log.lastFrame);
+            log.lastStep = generations.get(i).step();
+        }
+        log.events = contents.events;
+        return log;
+    }
+
+    /**
+     * Maps a log read-only and parses it up to its last complete record.
+     * Frames are not decoded: entries point into the mapping.
+     */
+    private static LogContents read(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            LogContents contents = new LogContents();
+            try {
+                if (buffer.getInt() != MAGIC || buffer.get() != FORMAT_VERSION) {
+                    throw new IllegalStateException(path + " is not a game log of a supported format");
+                }
+                buffer.getLong();
+                byte[] name = new byte[buffer.getInt()];
+                buffer.get(name);
+                contents.name = new String(name, StandardCharsets.UTF_8);
+                contents.width = buffer.getInt();
+                contents.height = buffer.getInt();
+            } catch (BufferUnderflowException | NegativeArraySizeException e) {
+                throw new IllegalStateException("Truncated header in " + path, e);
+            }
+
+            contents.validEnd = buffer.position();
+            while (buffer.remaining() >= RECORD_OVERHEAD) {
+                byte kind = buffer.get();
+                int length = buffer.getInt();
+                if (length < 0 || buffer.remaining() < length + 4)
+                    break;
+                ByteBuffer payload = buffer.slice(buffer.position(), length);
+                buffer.position(buffer.position() + length);
+                CRC32 crc = new CRC32();
+                crc.update(kind);
+                crc.update(payload.duplicate());
+                if (buffer.getInt() != (int) crc.getValue() || !contents.apply(kind, payload))
+                    break;
+                contents.validEnd = buffer.position();
+            }
+            return contents;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private GenerationFrame decode(Entry entry, GenerationFrame previous) {
+        if (entry.keyframe()) {
+            byte[] data = new byte[entry.body().remaining()];
+            entry.body().duplicate().get(data);
+            return converter.convertToEntityAttribute(data);
+        }
+        if (previous == null) {
+            throw new IllegalStateException("Delta of step " + entry.step() + " has no preceding keyframe");
+        }
+        return FrameDelta.apply(previous, entry.body().duplicate());
+    }
+
+    private static byte[] generationPayload(int step, EventType event, byte[] frame) {
+        ByteBuffer payload = ByteBuffer.allocate(4 + 1 + frame.length);
+        payload.putInt(step).put(event == null ? -1 : (byte) event.ordinal()).put(frame);
+        return payload.array();
+    }
+
+    private static byte[] eventsPayload(Map<Integer, EventType> schedule) {
+        ByteBuffer payload = ByteBuffer.allocate(4 + 5 * schedule.size());
+        payload.putInt(schedule.size());
+        schedule.forEach((step, event) -> payload.putInt(step).put((byte) event.ordinal()));
+        return payload.array();
+    }
+
+    private static void writeRecord(DataOutputStream out, byte kind, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(kind);
+        crc.update(payload);
+        out.writeByte(kind);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private Path pathOf(Long gameId) {
+        return directory.resolve(gameId + SUFFIX);
+    }
+
+    private static long idOf(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(SUFFIX))
+            return 0;
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /** Append position of one log; guarded by its own monitor. */
+    private static final class GameLog {
+        final Path path;
+        int lastStep = -1;
+        GenerationFrame lastFrame;
+        Map<Integer, EventType> events = Map.of();
+
+        GameLog(Path path) {
+            this.path = path;
+        }
+    }
+
+    /** A generation record, pointing into the mapped log. */
+    private record Entry(int step, EventType event, boolean keyframe, ByteBuffer body) {
+    }
+
+    /** The state described by a log, with truncations applied. */
+    private static final class LogContents {
+        String name;
+        int width;
+        int height;
+        final List<Entry> generations = new ArrayList<>();
+        Map<Integer, EventType> events = new HashMap<>();
+        long validEnd;
+
+        /**
+         * Applies one record.
+         *
+         * @return false if the record is not understood, which ends the log
+         */
+        boolean apply(byte kind, ByteBuffer payload) {
+            try {
+                switch (kind) {
+                    case KEYFRAME:
+                    case DELTA:
+                        int step = payload.getInt();
+                        byte event = payload.get();
+                        generations.add(new Entry(step, event < 0 ? null : EVENT_TYPES[event],
+                            kind == KEYFRAME, payload.slice()));
+                        return true;
+                    case EVENTS:
+                        Map<Integer, EventType> schedule = new HashMap<>();
+                        for (int n = payload.getInt(); n > 0; n--) {
+                            schedule.put(payload.getInt(), EVENT_TYPES[payload.get()]);
+                        }
+                        events = schedule;
+                        return true;
+                    case TRUNCATE:
+                        int last = payload.getInt();
+                        while (!generations.isEmpty() && generations.get(generations.size() - 1).step() > last)
+                            generations.remove(generations.size() - 1);
+                        return true;
+                    default:
+                        return false;
+                }
+            } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+                return false;
+            }
+        }
+    }
+}
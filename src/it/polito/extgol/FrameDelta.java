@@ -0,0 +1,169 @@
+package it.polito.extgol;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary difference between two GenerationFrames of the same board.
+ *
+ * Layout:
+ *   - the number of changed cells as an unsigned varint;
+ *   - for each changed cell, in row-major order, the gap from the previous
+ *     changed index as an unsigned varint, followed by the whole state of the
+ *     cell: a flags byte (alive in bit 0, super-vampire in bit 1), lifePoints
+ *     as a zig-zag varint, type and mood in one byte, future mood and
+ *     skipped generations + 1 in one byte, the minimum and maximum thresholds
+ *     and the tile modifier as zig-zag varints.
+ *
+ * Consecutive generations of a large board usually differ in a small fraction
+ * of their cells, so a delta is much smaller than the frame it leads to.
+ */
+final class FrameDelta {
+
+    private FrameDelta() {} // utility class need not to be instantiated
+
+    /**
+     * Encodes the cells of next that differ from prev.
+     *
+     * @param prev the frame the delta applies to
+     * @param next the frame the delta leads to
+     * @return the encoded delta
+     * @throws IllegalArgumentException if the frames have different sizes
+     */
+    static byte[] encode(GenerationFrame prev, GenerationFrame next) {
+        if (prev.getWidth() != next.getWidth() || prev.getHeight() != next.getHeight()) {
+            throw new IllegalArgumentException("Frames of different boards cannot be diffed");
+        }
+        int size = next.size();
+        int changed = 0;
+        for (int i = 0; i < size; i++) {
+            if (differs(prev, next, i))
+                changed++;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 + changed * 8);
+        writeVarint(out, changed);
+        int last = -1;
+        for (int i = 0; i < size; i++) {
+            if (!differs(prev, next, i))
+                continue;
+            writeVarint(out, i - last - 1);
+            last = i;
+            out.write((next.isAlive(i) ? 1 : 0) | (next.isSuperVampire(i) ? 2 : 0));
+            writeVarint(out, zigZag(next.getLifePoints(i)));
+            out.write(next.typeOrdinals()[i] << 2 | next.moodOrdinals()[i]);
+            out.write((next.skippedGenerations()[i] + 1) << 2 | next.futureMoodOrdinals()[i]);
+            writeVarint(out, zigZag(next.getMinThreshold(i)));
+            writeVarint(out, zigZag(next.getMaxThreshold(i)));
+            writeVarint(out, zigZag(next.getTileModifier(i)));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Rebuilds the frame a delta leads to.
+     *
+     * @param prev  the frame the delta was computed against
+     * @param delta the encoded delta, read from its position to its limit
+     * @return the resulting frame
+     * @throws IllegalArgumentException if the delta is malformed
+     */
+    static GenerationFrame apply(GenerationFrame prev, ByteBuffer delta) {
+        long[] alive = prev.aliveWords().clone();
+        int[] lifePoints = prev.lifePointsArray().clone();
+        byte[] moods = prev.moodOrdinals().clone();
+        byte[] types = prev.typeOrdinals().clone();
+        byte[] futureMoods = prev.futureMoodOrdinals().clone();
+        byte[] skippedGens = prev.skippedGenerations().clone();
+        long[] superVampires = prev.superVampireWords().clone();
+        int[] thresholds = prev.thresholdArray().clone();
+        int[] tileModifiers = prev.tileModifierArray().clone();
+
+        try {
+            int changed = readVarint(delta);
+            int i = -1;
+            for (int n = 0; n < changed; n++) {
+                i += readVarint(delta) + 1;
+                if (i >= lifePoints.length)
+                    throw new IllegalArgumentException("Delta refers to cell " + i + " outside the board");
+                int flags = delta.get();
+                setBit(alive, i, (flags & 1) != 0);
+                setBit(superVampires, i, (flags & 2) != 0);
+                lifePoints[i] = unZigZag(readVarint(delta));
+                int typeMood = delta.get();
+                types[i] = (byte) (typeMood >> 2 & 0x3);
+                moods[i] = (byte) (typeMood & 0x3);
+                int engine = delta.get();
+                futureMoods[i] = (byte) (engine & 0x3);
+                skippedGens[i] = (byte) ((engine >> 2 & 0x7) - 1);
+                thresholds[2 * i] = unZigZag(readVarint(delta));
+                thresholds[2 * i + 1] = unZigZag(readVarint(delta));
+                tileModifiers[i] = unZigZag(readVarint(delta));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated frame delta", e);
+        }
+        return new GenerationFrame(prev.getWidth(), prev.getHeight(), alive, lifePoints, moods, types,
+            futureMoods, skippedGens, superVampires, thresholds, tileModifiers);
+    }
+
+    private static boolean differs(GenerationFrame a, GenerationFrame b, int i) {
+        return a.isAlive(i) != b.isAlive(i)
+            || a.getLifePoints(i) != b.getLifePoints(i)
+            || a.moodOrdinals()[i] != b.moodOrdinals()[i]
+            || a.typeOrdinals()[i] != b.typeOrdinals()[i]
+            || a.futureMoodOrdinals()[i] != b.futureMoodOrdinals()[i]
+            || a.skippedGenerations()[i] != b.skippedGenerations()[i]
+            || a.isSuperVampire(i) != b.isSuperVampire(i)
+            || a.getMinThreshold(i) != b.getMinThreshold(i)
+            || a.getMaxThreshold(i) != b.getMaxThreshold(i)
+            || a.getTileModifier(i) != b.getTileModifier(i);
+    }
+
+    private static void setBit(long[] words, int i, boolean value) {
+        if (value)
+            words[i >>> 6] |= 1L << i;
+        else
+            words[i >>> 6] &= ~(1L << i);
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint.
+     *
+     * @param out   the destination stream
+     * @param value the value to write, interpreted as unsigned
+     */
+    static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint, advancing the buffer past it.
+     *
+     * @param in the source buffer
+     * @return the decoded value
+     */
+    static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed varint in frame delta");
+    }
+}
@@ -6,6 +6,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.ElementCollection;
@@ -17,10 +21,12 @@ import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.MapKeyColumn;
+import jakarta.persistence.NamedQuery;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.OneToOne;
-import jakarta.persistence.OrderColumn;
+import jakarta.persistence.OrderBy;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
 
 /**
  * Entity representing a Game of Life simulation instance.
@@ -30,9 +36,15 @@ import jakarta.persistence.Table;
  * as well as operations for evolving and querying game state.
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "games")
+@NamedQuery(name = Game.FIND_ALL, query = "SELECT g FROM Game g")
 public class Game {
 
+    /** Named query selecting every game, used by GenericExtGOLRepository.findAll. */
+    public static final String FIND_ALL = "Game.findAll";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -62,7 +74,8 @@ public class Game {
      * List of all generations in this game, including the initial.
      * 
      * All generations (including initial) in time order.  
-     * Uses an ORDER_COLUMN so the DB keeps the sequence.
+     * Ordered by step, which is unique per game, so appending a generation
+     * never rewrites the rows of the previous ones.
      */
     @OneToMany(
       mappedBy       = "game",
@@ -70,13 +83,29 @@ public class Game {
       orphanRemoval  = true,
       fetch          = FetchType.LAZY
     )
-    @OrderColumn(name = "generation_index")
+    @OrderBy("step ASC")
     private List<Generation> generations = new ArrayList<>();
     
     @ElementCollection
     @MapKeyColumn(name = "generation_id")
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     private Map<Integer, EventType> eventMapInternal = new HashMap<>();
 
+    /**
+     * Columnar time series of the generations' aggregates, recorded as the
+     * generations are snapped. Not persisted: the generation_summary table
+     * plays this role for stored games.
+     */
+    @Transient
+    private final GenerationSeries series = new GenerationSeries();
+
+    /**
+     * Step this game was resumed from while the stored generations after it
+     * are still in place; they are discarded by the next save or checkpoint.
+     */
+    @Transient
+    private Integer resumedStep;
+
     /** 
      * Default constructor for JPA.
      */
@@ -177,6 +206,7 @@ public class Game {
      */
     public void clearGenerations() {
         generations.clear();
+        series.clear();
     }
 
     /**
@@ -188,6 +218,81 @@ public class Game {
         return generations;
     }
 
+    /**
+     * Looks up the generation of the given step in this game's history.
+     *
+     * A generation's position in the history matches its step unless the
+     * game was resumed from a pruned history, where only keyframes remain
+     * before the resumed step; the history is then searched by step.
+     *
+     * @param step the generation step
+     * @return the Generation of that step, or null if the history has none
+     */
+    Generation findGeneration(int step) {
+        if (step >= 0 && step < generations.size() && generations.get(step).getStep() == step)
+            return generations.get(step);
+        int low = 0;
+        int high = generations.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midStep = generations.get(mid).getStep();
+            if (midStep < step)
+                low = mid + 1;
+            else if (midStep > step)
+                high = mid - 1;
+            else
+                return generations.get(mid);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the in-memory time series of the aggregates of this game's
+     * generations, in step order.
+     *
+     * @return the GenerationSeries of this game
+     */
+    public GenerationSeries getSeries() {
+        return series;
+    }
+
+    /**
+     * Sets the id of a game stored outside the database, e.g. by FileLogGameStore.
+     *
+     * @param id the id assigned by the store
+     */
+    void assignId(Long id) {
+        this.id = id;
+    }
+
+    /**
+     * Records that this game was rebuilt from the stored generation at step,
+     * so that the next save or checkpoint discards the stored generations
+     * after it before writing new ones.
+     *
+     * @param step the step the game was resumed from
+     */
+    void markResumedAt(int step) {
+        this.resumedStep = step;
+    }
+
+    /**
+     * Returns the step this game was resumed from, if the stored generations
+     * after it have not been discarded yet.
+     *
+     * @return the resumed step, or null if nothing is to be discarded
+     */
+    Integer getResumedStep() {
+        return resumedStep;
+    }
+
+    /**
+     * Records that the stored generations after the resumed step were discarded.
+     */
+    void clearResumedStep() {
+        this.resumedStep = null;
+    }
+
     /**
      * Returns the unique identifier for this Game.
      *
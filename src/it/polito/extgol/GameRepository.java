@@ -1,13 +1,32 @@
 package it.polito.extgol;
 
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.hibernate.Hibernate;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.jpa.HibernateHints;
+import org.hibernate.jpa.SpecHints;
+
+import jakarta.persistence.EntityGraph;
 import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityTransaction;
 import jakarta.persistence.NoResultException;
 import jakarta.persistence.TypedQuery;
 
 public class GameRepository  extends GenericExtGOLRepository<Game, Long> {
+
+    /** Rows the JDBC driver is asked to fetch per round trip while replaying. */
+    private static final int REPLAY_FETCH_SIZE = 256;
+
     public GameRepository()  { super(Game.class);  }
 
     public Optional<Game> load(Long id) {
@@ -19,6 +38,7 @@ public class GameRepository  extends GenericExtGOLRepository<Game, Long> {
             "WHERE g.id =: id", 
             Game.class);
         query.setParameter("id", id);
+        query.setHint(HibernateHints.HINT_CACHEABLE, true);
         
         try {
             return Optional.of(query.getSingleResult());
@@ -50,4 +70,312 @@ public class GameRepository  extends GenericExtGOLRepository<Game, Long> {
             em.close();
         } 
     }
-}
\ No newline at end of file
+
+    /**
+     * Persists only the progress made by the given game since its last checkpoint.
+     *
+     * A game that was never saved is persisted as a whole. A game returned by
+     * resume first has the stored generations after its resumed step
+     * deleted, in the same transaction. Otherwise the highest
+     * stored step is looked up through the (game_id, step) unique index, only the
+     * generations after it are inserted, the event schedule is synced if it
+     * changed, and only the cells and tiles changed in memory are merged back. The cost of a checkpoint is therefore proportional
+     * to the new work, not to the length of the game history.
+     *
+     * @param game the Game instance whose progress should be stored
+     * @throws RuntimeException if the transaction fails
+     */
+    public void checkpoint(Game game) {
+        Objects.requireNonNull(game);
+
+        EntityManager em = JPAUtil.getWritingEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            if (game.getId() == null) {
+                em.persist(game);
+            } else {
+                if (game.getResumedStep() != null)
+                    discardAfter(em, game.getId(), game.getResumedStep());
+                Integer lastStep = em.createQuery(
+                    "SELECT MAX(g.step) FROM Generation g WHERE g.game.id = :gameId",
+                    Integer.class)
+                    .setParameter("gameId", game.getId())
+                    .getSingleResult();
+
+                // the history is ordered by step, but a resumed pruned one has gaps
+                List<Generation> generations = game.getGenerations();
+                int firstNew = generations.size();
+                while (firstNew > 0 && (lastStep == null || generations.get(firstNew - 1).getStep() > lastStep))
+                    firstNew--;
+                for (Generation gen : generations.subList(firstNew, generations.size())) {
+                    em.persist(gen);
+                }
+
+                if (!game.getEventMapInternal().isEmpty()) {
+                    Game stored = em.find(Game.class, game.getId());
+                    if (!stored.getEventMapInternal().equals(game.getEventMapInternal())) {
+                        stored.getEventMapInternal().clear();
+                        stored.getEventMapInternal().putAll(game.getEventMapInternal());
+                    }
+                }
+
+                for (Tile tile : game.getBoard().getTiles()) {
+                    if (tile.isDirty())
+                        em.merge(tile);
+                    else if (tile.getCell().isDirty())
+                        em.merge(tile.getCell());
+                }
+            }
+            tx.commit();
+        } catch (RuntimeException ex) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw ex;
+        } finally {
+            em.close();
+        }
+
+        game.clearResumedStep();
+        for (Tile tile : game.getBoard().getTiles()) {
+            tile.clearDirty();
+            tile.getCell().clearDirty();
+        }
+    }
+
+    /**
+     * Deletes the stored generations of a game after the given step, and
+     * their summaries, as part of the caller's unit of work.
+     *
+     * @param em     the EntityManager of the caller's transaction
+     * @param gameId the id of the game
+     * @param step   the last step to keep
+     */
+    static void discardAfter(EntityManager em, Long gameId, int step) {
+        em.createQuery("DELETE FROM Generation g WHERE g.game.id = :gameId AND g.step > :step")
+            .setParameter("gameId", gameId)
+            .setParameter("step", step)
+            .executeUpdate();
+        em.createQuery("DELETE FROM GenerationSummary s WHERE s.game.id = :gameId AND s.step > :step")
+            .setParameter("gameId", gameId)
+            .setParameter("step", step)
+            .executeUpdate();
+    }
+
+    /**
+     * Deletes a game through deleteGame, as part of the caller's unit of work.
+     *
+     * Removing a game with entity cascades visits the whole graph row by row
+     * and trips over the cyclic game/cell foreign keys; the set-based deletion
+     * is used instead, so delete and deleteAll work for games too.
+     *
+     * @param game the game to remove
+     * @param em   the EntityManager of the caller's transaction
+     */
+    @Override
+    public void delete(Game game, EntityManager em) {
+        Objects.requireNonNull(game);
+        if (em.contains(game))
+            em.detach(game);
+        deleteGame(game.getId(), em, p -> {});
+    }
+
+    /**
+     * Deletes a stored game and everything that belongs to it in one transaction.
+     *
+     * @param gameId   the id of the game to delete
+     * @param progress receives a report after each delete statement
+     * @return the total number of deleted rows, 0 if the game does not exist
+     */
+    public long deleteGame(Long gameId, Consumer<DeletionProgress> progress) {
+        long deleted = JPAUtil.fromTransaction(em -> deleteGame(gameId, em, progress));
+        evictAll();
+        return deleted;
+    }
+
+    /**
+     * Deletes a stored game with set-based statements, in dependency order,
+     * as part of the caller's unit of work.
+     *
+     * The event schedule, which points at generations, goes first; then the
+     * generations and their summaries, in bounded step ranges so that very long
+     * histories report progress along the way; then the cells' interaction
+     * lists, tiles, cells, the game and finally its board. Entities of that game already managed by em are not updated.
+     *
+     * @param gameId   the id of the game to delete
+     * @param em       the EntityManager of the caller's transaction
+     * @param progress receives a report after each delete statement
+     * @return the total number of deleted rows, 0 if the game does not exist
+     */
+    public long deleteGame(Long gameId, EntityManager em, Consumer<DeletionProgress> progress) {
+        Objects.requireNonNull(gameId);
+        Objects.requireNonNull(em);
+        Objects.requireNonNull(progress);
+
+        // every generation has a summary with the same step, and pruning keeps
+        // summaries, so the last summary bounds both histories
+        List<Object[]> found = em.createQuery(
+            "SELECT g.board.id, (SELECT MAX(s.step) FROM GenerationSummary s WHERE s.game.id = g.id) " +
+            "FROM Game g WHERE g.id = :gameId",
+            Object[].class)
+            .setParameter("gameId", gameId)
+            .getResultList();
+        if (found.isEmpty())
+            return 0;
+        Object boardId = found.get(0)[0];
+        Integer lastStep = (Integer) found.get(0)[1];
+        int endStep = lastStep == null ? 0 : lastStep + 1;
+
+        long total = report(progress, "Game_eventMapInternal", 0L, em.createNativeQuery(
+            "DELETE FROM Game_eventMapInternal WHERE Game_id = :gameId")
+            .setParameter("gameId", gameId).executeUpdate());
+        total = GenerationRepository.deleteSteps(em,
+            "DELETE FROM Generation g WHERE g.game.id = :gameId AND g.step >= :fromStep AND g.step < :toStep",
+            "generation", gameId, endStep, total, progress);
+        total = GenerationRepository.deleteSteps(em,
+            "DELETE FROM GenerationSummary s WHERE s.game.id = :gameId AND s.step >= :fromStep AND s.step < :toStep",
+            "generation_summary", gameId, endStep, total, progress);
+
+        for (String table : List.of("Cell_vampBite", "Cell_healerGift")) {
+            total = report(progress, table, total, em.createNativeQuery(
+                "DELETE FROM " + table + " WHERE Cell_id IN (SELECT id FROM Cell WHERE board_id = :boardId)")
+                .setParameter("boardId", boardId).executeUpdate());
+        }
+        total = report(progress, "Tile", total, em.createQuery(
+            "DELETE FROM Tile t WHERE t.board.id = :boardId")
+            .setParameter("boardId", boardId).executeUpdate());
+        total = report(progress, "Cell", total, em.createQuery(
+            "DELETE FROM Cell c WHERE c.board.id = :boardId")
+            .setParameter("boardId", boardId).executeUpdate());
+        total = report(progress, "games", total, em.createQuery(
+            "DELETE FROM Game g WHERE g.id = :gameId")
+            .setParameter("gameId", gameId).executeUpdate());
+        total = report(progress, "Board", total, em.createQuery(
+            "DELETE FROM Board b WHERE b.id = :boardId")
+            .setParameter("boardId", boardId).executeUpdate());
+        return total;
+    }
+
+    private static long report(Consumer<DeletionProgress> progress, String table, long total, int rows) {
+        total += rows;
+        progress.accept(new DeletionProgress(table, rows, total));
+        return total;
+    }
+
+    /**
+     * Rebuilds a stored game as it was at the given generation.
+     *
+     * The game is loaded with its board, its event schedule and its history up
+     * to that step; the generation's frame is then written back onto the board,
+     * including the engine state a plain board load lacks (Highlander skipped
+     * generations, future moods, thresholds, super vampires, tile modifiers).
+     * Nothing is deleted here: the stored generations after the step stay
+     * until the next checkpoint of the returned game discards them, so
+     * resuming merely to inspect an earlier step loses no history.
+     *
+     * @param gameId the id of the stored game
+     * @param step   the stored generation to resume from
+     * @return the restored Game, or empty if no such game is stored
+     * @throws IllegalArgumentException if the game has no generation at that step
+     */
+    public Optional<Game> resume(Long gameId, int step) {
+        Objects.requireNonNull(gameId);
+
+        EntityManager em = JPAUtil.getEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        Game game;
+        Generation resumed;
+        try {
+            tx.begin();
+            game = em.find(Game.class, gameId);
+            if (game == null) {
+                tx.commit();
+                return Optional.empty();
+            }
+            new BoardRepository().load(game.getBoard().getId(), em).ifPresent(game::setBoard);
+            // frames are lazy: the graph loads them with the history rows,
+            // since the resumed game is used after the session is closed
+            EntityGraph<Generation> withFrames = em.createEntityGraph(Generation.class);
+            withFrames.addAttributeNodes("frame", "summary");
+            List<Generation> history = em.createQuery(
+                "SELECT g FROM Generation g " +
+                "WHERE g.game.id = :gameId AND g.step <= :step ORDER BY g.step",
+                Generation.class)
+                .setParameter("gameId", gameId)
+                .setParameter("step", step)
+                .setHint(SpecHints.HINT_SPEC_FETCH_GRAPH, withFrames)
+                .getResultList();
+            if (history.isEmpty() || history.get(history.size() - 1).getStep() != step) {
+                throw new IllegalArgumentException("No generation " + step + " stored for game " + gameId);
+            }
+            resumed = history.get(history.size() - 1);
+
+            Hibernate.initialize(game.getGenerations());
+            Hibernate.initialize(game.getEventMapInternal());
+            tx.commit();
+        } catch (RuntimeException ex) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw ex;
+        } finally {
+            em.close();
+        }
+
+        game.getGenerations().removeIf(g -> g.getStep() > step);
+        resumed.getFrame().restore(game.getBoard());
+        game.markResumedAt(step);
+        return Optional.of(game);
+    }
+
+    /**
+     * Streams the stored generations of a game ordered by step, in constant memory.
+     *
+     * Generations are read as StoredGeneration projections through a
+     * forward-only cursor. Projections are not managed entities, so the
+     * persistence context stays empty, and each row can be collected once the
+     * caller has consumed it. What stays in memory is the window of rows the
+     * driver fetches ahead, REPLAY_FETCH_SIZE at a time. The returned stream
+     * holds a database connection and must be closed, e.g. with
+     * try-with-resources.
+     *
+     * @param gameId the id of the game to replay
+     * @return a Stream of the game's generations in step order
+     */
+    public Stream<StoredGeneration> replay(Long gameId) {
+        Objects.requireNonNull(gameId);
+
+        EntityManager em = JPAUtil.getEntityManager();
+        try {
+            Session session = em.unwrap(Session.class);
+            ScrollableResults<StoredGeneration> results = session.createQuery(
+                "SELECT new it.polito.extgol.StoredGeneration(g.step, g.event, g.frame) " +
+                "FROM Generation g WHERE g.game.id = :gameId ORDER BY g.step",
+                StoredGeneration.class)
+                .setParameter("gameId", gameId)
+                .setFetchSize(REPLAY_FETCH_SIZE)
+                .setReadOnly(true)
+                .scroll(ScrollMode.FORWARD_ONLY);
+
+            Spliterator<StoredGeneration> frames = new Spliterators.AbstractSpliterator<>(
+                    Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE) {
+                @Override
+                public boolean tryAdvance(Consumer<? super StoredGeneration> action) {
+                    if (!results.next())
+                        return false;
+                    action.accept(results.get());
+                    return true;
+                }
+            };
+            return StreamSupport.stream(frames, false)
+                .onClose(() -> {
+                    results.close();
+                    em.close();
+                });
+        } catch (RuntimeException ex) {
+            em.close();
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package it.polito.extgol;
+
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Storage backend for games, used by the ExtendedGameOfLife facade.
+ *
+ * The default implementation, JpaGameStore, keeps games in the relational
+ * database configured in persistence.xml. FileLogGameStore keeps each game in
+ * an append-only binary log instead, which is much cheaper for high-volume
+ * simulation archives. The backend is chosen by configuration: the system
+ * property "extgol.store" takes "jpa" (the default), "file", or the name of a
+ * class implementing GameStore with a public no-argument constructor;
+ * "extgol.store.dir" sets the directory of the file backend.
+ */
+public interface GameStore {
+
+    /** System property selecting the backend. */
+    String STORE_PROPERTY = "extgol.store";
+
+    /** System property setting the directory of the file backend. */
+    String STORE_DIR_PROPERTY = "extgol.store.dir";
+
+    /** Directory of the file backend when none is configured. */
+    String DEFAULT_STORE_DIR = "data/games";
+
+    /**
+     * Stores a game with its whole generation history, assigning its id if it
+     * was never stored.
+     *
+     * @param game the Game to store
+     */
+    void save(Game game);
+
+    /**
+     * Stores the progress made by a game since it was last stored; a game
+     * that was never stored is saved as a whole.
+     *
+     * @param game the Game whose progress should be stored
+     */
+    void checkpoint(Game game);
+
+    /**
+     * Rebuilds a stored game exactly as it was at the given generation. The
+     * stored generations after it are kept until the next save or checkpoint
+     * of the returned game, which discards them.
+     *
+     * @param gameId the id of the stored game
+     * @param step   the stored generation to resume from
+     * @return the Game with its board restored to that generation, or empty if the game is not stored
+     * @throws IllegalArgumentException if the generation is not stored
+     */
+    Optional<Game> resume(Long gameId, int step);
+
+    /**
+     * Streams the stored generations of a game in step order. The stream may
+     * hold resources and must be closed, e.g. with try-with-resources.
+     *
+     * @param gameId the id of the game to replay
+     * @return a Stream of the game's generations, empty if the game is not stored
+     */
+    Stream<StoredGeneration> replay(Long gameId);
+
+    /**
+     * Deletes a stored game.
+     *
+     * @param gameId the id of the game to delete
+     * @return true if the game was stored
+     */
+    boolean delete(Long gameId);
+
+    /**
+     * Creates the backend selected by the "extgol.store" system property.
+     *
+     * @return a new GameStore
+     * @throws IllegalStateException if the configured backend cannot be created
+     */
+    static GameStore configured() {
+        String store = System.getProperty(STORE_PROPERTY, "jpa");
+        switch (store) {
+            case "jpa":
+                return new JpaGameStore();
+            case "file":
+                return new FileLogGameStore(Path.of(System.getProperty(STORE_DIR_PROPERTY, DEFAULT_STORE_DIR)));
+            default:
+                try {
+                    return Class.forName(store).asSubclass(GameStore.class).getConstructor().newInstance();
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    throw new IllegalStateException("Cannot create the game store " + store, e);
+                }
+        }
+    }
+}
@@ -1,25 +1,33 @@
 package it.polito.extgol;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import jakarta.persistence.CollectionTable;
+import org.hibernate.Hibernate;
+
+import jakarta.persistence.Basic;
+import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
-import jakarta.persistence.ElementCollection;
+import jakarta.persistence.Convert;
 import jakarta.persistence.Entity;
 import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
+import jakarta.persistence.Lob;
 import jakarta.persistence.ManyToOne;
-import jakarta.persistence.MapKeyJoinColumn;
+import jakarta.persistence.NamedQuery;
+import jakarta.persistence.OneToOne;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
 import jakarta.persistence.UniqueConstraint;
 
 /**
@@ -30,11 +38,19 @@ import jakarta.persistence.UniqueConstraint;
  * Use createInitial(...) to construct the initial state (step 0), and
  * createNextGeneration(...) to
  * advance from a previous generation.
+ *
+ * Generations are not kept in the second-level cache: every step inserts
+ * one, they are read back in ranges by query rather than by id, and caching
+ * their frames would crowd out the boards and cells that are reread.
  */
 @Entity
 @Table(name = "generation", uniqueConstraints = @UniqueConstraint(columnNames = { "game_id", "step" }))
+@NamedQuery(name = Generation.FIND_ALL, query = "SELECT g FROM Generation g")
 public class Generation {
 
+    /** Named query selecting every generation, used by GenericExtGOLRepository.findAll. */
+    public static final String FIND_ALL = "Generation.findAll";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -57,26 +73,34 @@ public class Generation {
     private EventType event;
 
     /**
-     * Persistent map of each Cell to its alive state at this generation.
-     * Keys are Cell entities; values are true for alive, false for dead.
-     */
-    @ElementCollection(fetch = FetchType.LAZY)
-    @CollectionTable(name = "generation_state", joinColumns = {
-            // This maps generation_state.generation_id → generation.id
-            @JoinColumn(name = "generation_id", referencedColumnName = "id"),
-            // These map generation_state.game_id → generation.game_id
-            // generation_state.board_id → generation.board_id
-            @JoinColumn(name = "game_id", referencedColumnName = "game_id"),
-            @JoinColumn(name = "board_id", referencedColumnName = "board_id")
-    })
-    @MapKeyJoinColumn(name = "cell_id")
-    @Column(name = "is_alive", nullable = false)
-    private Map<Cell, Boolean> cellAlivenessStates = new HashMap<>();
-    
-    @ElementCollection(fetch=FetchType.LAZY)
-    @MapKeyJoinColumn(name = "cell_id")
-    @Column(name = "cell_lifepoints", nullable = false)
-    private Map<Cell, Integer> cellLifePoints = new HashMap<>();
+     * Compact snapshot of every cell (aliveness, lifePoints, mood and type) at
+     * this generation, persisted as a single binary column so that a generation
+     * is read or written with one row regardless of the board size. Loaded on
+     * first access, so that listing generations does not read every frame.
+     * Only written through setFrameState and read through frameState.
+     */
+    @Convert(converter = GenerationFrameConverter.class)
+    @Basic(fetch = FetchType.LAZY)
+    @Lob
+    @Column(name = "frame", nullable = false)
+    private GenerationFrame frame;
+
+    /**
+     * Aggregate figures of this generation, written with it and refreshed
+     * whenever the frame or the event changes.
+     */
+    @OneToOne(cascade = CascadeType.ALL, fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "summary_id", nullable = false, unique = true)
+    private GenerationSummary summary;
+
+    /**
+     * The frame together with everything derived from it, published as one
+     * unit: a reader takes the holder once and never pairs a frame with the
+     * aggregates or indexes of another. Built from the mapped frame on first
+     * access for generations read back from storage.
+     */
+    @Transient
+    private volatile FrameState frameState;
 
     /**
      * Protected no-argument constructor required by JPA.
@@ -100,8 +124,20 @@ public class Generation {
         this.game = game;
         this.board = board;
         this.step = step;
+        setFrameState(new FrameState(GenerationFrame.capture(board), null));
+        refreshSummary();
+    }
 
-        cellLifePoints = board.getCellSet().stream().collect(Collectors.toMap(Function.identity(), Cell:: getLifePoints));  
+    /**
+     * Internal constructor for the generation following prev; it has no
+     * frame until captureAfter(prev) records the board.
+     *
+     * @param prev the previous Generation of the same game
+     */
+    private Generation(Generation prev) {
+        this.game = prev.getGame();
+        this.board = prev.getBoard();
+        this.step = prev.getStep() + 1;
     }
 
     /**
@@ -126,9 +162,11 @@ public class Generation {
      */
     public void setType(List<Coord> coords, CellType type) {
 
-        cellAlivenessStates.keySet().stream()
-            .filter( c -> coords.contains(c.getCoordinates()) )
-            .forEach( c -> c.setType(type) );
+        for (Coord c : coords) {
+            Tile tile = board.getTile(c);
+            if (tile != null)
+                tile.getCell().setType(type);
+        }
     }
 
     public EventType getEvent() {
@@ -137,6 +175,7 @@ public class Generation {
 
     public void setEvent(EventType event) {
         this.event = event;
+        refreshSummary();
     }
 
     /**
@@ -191,58 +230,139 @@ public class Generation {
     public static Generation createNextGeneration(Generation prev) {
         Objects.requireNonNull(prev, "Previous generation cannot be null");
 
-        Generation next = new Generation(prev.getGame(), prev.getBoard(), prev.getStep() + 1);
+        Generation next = follow(prev);
+        next.captureAfter(prev);
+        return next;
+    }
+
+    /**
+     * Starts the generation following prev and appends it to the game
+     * history, without capturing the board yet: the engine first applies the
+     * new cell states, then calls captureAfter(prev) once.
+     *
+     * @param prev the previous Generation to base the next upon
+     * @return the new Generation, with no frame yet
+     */
+    static Generation follow(Generation prev) {
+        Generation next = new Generation(prev);
         
         for (Tile tile : prev.getBoard().getTiles()) { //I'm resetting the Healers and Vampires interactions for the new gen
             Cell cell = tile.getCell();
                 cell.resetHVinteractions(); //I don't check if the cell is alive cause a dead cell can return alive so also its modifier needs to be resetted
         }
 
-        next.snapCells(); 
-        prev.getGame().addGeneration(next, prev.getStep() + 1);
+        // right after prev, whose position is not its step in a pruned history
+        Game game = prev.getGame();
+        List<Generation> history = game.getGenerations();
+        if (!history.isEmpty() && history.get(history.size() - 1) == prev)
+            game.addGeneration(next);
+        else
+            game.addGeneration(next, history.indexOf(prev) + 1);
         return next;
     }
 
+    /**
+     * Records the current state of the board as the frame of this
+     * generation, deriving its aggregates from those of prev instead of
+     * recomputing them.
+     *
+     * @param prev the generation this one follows
+     */
+    void captureAfter(Generation prev) {
+        FrameState previous = prev.frameState();
+        GenerationFrame captured = GenerationFrame.capture(board);
+        setFrameState(new FrameState(captured, previous.getAggregates().advance(previous.frame, captured)));
+        refreshSummary();
+    }
+
     /**
      * Captures the current state of every cell on the board
-     * into the persistent cellAlivenessStates map and returns an unmodifiable
-     * snapshot.
+     * into the persistent frame and returns an unmodifiable snapshot.
      *
      * Iterates over each Tile in the associated Board, validates that a Cell
-     * exists on the tile, and records its isAlive value. After clearing any
-     * previous state, it populates the map and returns an immutable copy.
+     * exists on the tile, and records its aliveness, lifePoints, mood and type.
+     * The per-cell maps are rebuilt from the new frame on demand.
      *
      * @return an unmodifiable Map of Cell to Boolean indicating each cell’s alive
      *         state
-     * @throws ExtendedGameOfLifeException if any Tile does not contain a Cell
+     * @throws IllegalStateException if any Tile does not contain a Cell
      */
     public Map<Cell, Boolean> snapCells() {
-        cellAlivenessStates.clear();
-        cellLifePoints.clear();
-        for (Tile tile : board.getTiles()) {
-            Cell cell = tile.getCell();
-            if (cell == null) {
-                throw new IllegalStateException("Each tile should hold a cell!");
-            }
-            cellLifePoints.put(cell, cell.getLifePoints());
-            cellAlivenessStates.put(cell, cell.isAlive());
-        }
-        return Map.copyOf(cellAlivenessStates);
+        replaceFrame(GenerationFrame.capture(board));
+        refreshSummary();
+        return Collections.unmodifiableMap(getCellAlivenessStates());
     }
 
     /**
      * Retrieves all cells that are marked as alive in this generation’s snapshot.
      *
-     * Iterates over the internal map of Cell to Boolean, filters for entries
-     * where the Boolean value is true, and collects the corresponding Cell keys.
+     * Scans the packed alive bits of the frame and resolves each alive position
+     * to the Cell hosted by the corresponding tile.
      *
      * @return a Set of Cell instances that are alive in this generation
      */
     public Set<Cell> getAliveCells() {
-        return cellAlivenessStates.entrySet().stream()
-                .filter(Map.Entry::getValue)
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toSet());
+        GenerationFrame snapshot = getFrame();
+        Set<Cell> alive = new HashSet<>();
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.isAlive(i))
+                alive.add(getCell(i));
+        }
+        return alive;
+    }
+
+    /**
+     * Returns an immutable view of the cell at the given position as recorded
+     * in this generation.
+     *
+     * @param c the coordinates of the cell
+     * @return the CellView of that cell, or null if c lies outside the board
+     */
+    public CellView getCellView(Coord c) {
+        GenerationFrame snapshot = getFrame();
+        int index = snapshot.indexOf(c);
+        return index < 0 ? null : new CellView(snapshot, index);
+    }
+
+    /**
+     * Returns an immutable view of the cell at a row-major index of the frame.
+     *
+     * @param index the cell index
+     * @return the CellView of that cell
+     */
+    public CellView getCellView(int index) {
+        GenerationFrame snapshot = getFrame();
+        if (index < 0 || index >= snapshot.size())
+            throw new IndexOutOfBoundsException("No cell " + index + " in a frame of " + snapshot.size());
+        return new CellView(snapshot, index);
+    }
+
+    /**
+     * Returns immutable views of the cells alive in this generation, in
+     * row-major order. The views read the generation's frame only, so they
+     * can be analyzed on any thread while the simulation goes on.
+     *
+     * @return a List of CellView, one per alive cell
+     */
+    public List<CellView> getAliveCellViews() {
+        GenerationFrame snapshot = getFrame();
+        List<CellView> views = new ArrayList<>(getAggregates().getPopulation());
+        for (int i = snapshot.nextAlive(0); i >= 0; i = snapshot.nextAlive(i + 1)) {
+            views.add(new CellView(snapshot, i));
+        }
+        return views;
+    }
+
+    /**
+     * Resolves a row-major index of the frame to the Cell hosted by the
+     * corresponding tile of the board.
+     *
+     * @param index the cell index in the frame
+     * @return the Cell at that position
+     */
+    Cell getCell(int index) {
+        int width = getFrame().getWidth();
+        return board.getTile(new Coord(index % width, index / width)).getCell();
     }
 
     /**
@@ -298,6 +418,8 @@ public class Generation {
      */
     public void setGame(Game game) {
         this.game = game;
+        if (summary != null)
+            summary.setGame(game);
     }
 
     /**
@@ -369,45 +491,369 @@ public class Generation {
     }
 
     /**
-     * Returns an immutable snapshot of each cell’s alive/dead state.
+     * Returns the snapshot of each cell’s alive/dead state.
      *
      * @return a Map from Cell to Boolean indicating aliveness (true = alive, false
      *         = dead)
      */
     public Map<Cell, Boolean> getCellAlivenessStates() {
-        return this.cellAlivenessStates;
+        FrameState current = frameState();
+        Map<Cell, Boolean> states = current.cellAlivenessStates;
+        if (states == null) {
+            GenerationFrame snapshot = current.frame;
+            states = new HashMap<>();
+            for (Tile tile : board.getTiles()) {
+                states.put(tile.getCell(), snapshot.isAlive(snapshot.indexOf(tile.getCoordinates())));
+            }
+            current.cellAlivenessStates = states;
+        }
+        return states;
     }
 
     /**
-     * Retrieves the current mood of each cell in this generation.
+     * Retrieves the mood of each cell at this generation.
      *
      * @return a Map from Cell to CellMood representing each cell’s interaction
-     *         style
-     * @throws UnsupportedOperationException until implemented
+     *         style when the generation was captured
      */
     public Map<Cell, CellMood> getMoodStates() {
-        return this.getCellAlivenessStates().keySet().stream()
-        .collect(Collectors.toMap(Function.identity(), Cell::getMood));
+        GenerationFrame snapshot = getFrame();
+        Map<Cell, CellMood> moods = new HashMap<>();
+        for (Tile tile : board.getTiles()) {
+            moods.put(tile.getCell(), snapshot.getMood(snapshot.indexOf(tile.getCoordinates())));
+        }
+        return moods;
     }
 
     /**
-     * Injects the persistent map of cell aliveness states loaded by Hibernate.
+     * Overrides the aliveness recorded for the given cells at this generation.
      *
      * @param cellAlivenessStates a Map from Cell to Boolean indicating each cell’s
      *                            alive/dead state
      */
-
     public void setCellAlivenessStates(Map<Cell, Boolean> cellAlivenessStates) {
-        this.cellAlivenessStates = cellAlivenessStates;
+        Objects.requireNonNull(cellAlivenessStates);
+
+        replaceFrame(getFrame().withAliveness(cellAlivenessStates));
+        refreshSummary();
     }
 
+    /**
+     * Returns the snapshot of each cell’s lifePoints.
+     *
+     * @return a Map from Cell to its lifePoints when the generation was captured
+     */
     public Map<Cell, Integer> getCellLifePoints() {
-        return cellLifePoints;
+        FrameState current = frameState();
+        Map<Cell, Integer> values = current.cellLifePoints;
+        if (values == null) {
+            GenerationFrame snapshot = current.frame;
+            values = new HashMap<>();
+            for (Tile tile : board.getTiles()) {
+                values.put(tile.getCell(), snapshot.getLifePoints(snapshot.indexOf(tile.getCoordinates())));
+            }
+            current.cellLifePoints = values;
+        }
+        return values;
     }
 
+    /**
+     * Overrides the lifePoints recorded for the given cells at this generation.
+     *
+     * @param cellLifePoints a Map from Cell to its lifePoints value
+     */
     public void setCellLifePoints(Map<Cell, Integer> cellLifePoints) {
         Objects.requireNonNull(cellLifePoints);
         
-        this.cellLifePoints = cellLifePoints;
+        replaceFrame(getFrame().withLifePoints(cellLifePoints));
+        refreshSummary();
+    }
+
+    /**
+     * Returns the compact snapshot of every cell recorded at this generation.
+     *
+     * @return the immutable GenerationFrame of this generation
+     */
+    public GenerationFrame getFrame() {
+        FrameState current = frameState();
+        return current == null ? null : current.frame;
+    }
+
+    /**
+     * Returns the population and energy aggregates of this generation,
+     * kept up to date as its frame changes.
+     *
+     * @return the GenerationAggregates of the alive cells at this generation
+     */
+    public GenerationAggregates getAggregates() {
+        return frameState().getAggregates();
+    }
+
+    /**
+     * Returns the alive cells of this generation bucketed by lifePoints,
+     * building the index on first use.
+     *
+     * @return the EnergyIndex of the alive cells at this generation
+     */
+    public EnergyIndex getEnergyIndex() {
+        return frameState().getEnergyIndex();
+    }
+
+    /**
+     * Returns the number of alive neighbors of every cell as recorded in this
+     * generation, building the counts on first use.
+     *
+     * @return the NeighborCounts of the frame of this generation
+     */
+    public NeighborCounts getNeighborCounts() {
+        return frameState().getNeighborCounts();
+    }
+
+    /**
+     * Computes the requested metrics of this generation from one frame and
+     * the aggregates of that same frame, read together from the holder, so a
+     * concurrent frame change cannot mix two frames in one result.
+     *
+     * @param metrics the metrics to compute
+     * @return the GenerationMetrics of this generation
+     */
+    GenerationMetrics measure(Set<AnalyticsMetric> metrics) {
+        FrameState current = frameState();
+        return GenerationMetrics.scan(step, current.frame, current.getAggregates(), metrics);
+    }
+
+    /**
+     * Returns the summed-area tables of this generation, building them on
+     * first use.
+     *
+     * @return the SummedAreaTable of the frame of this generation
+     */
+    public SummedAreaTable getSummedAreaTable() {
+        return frameState().getSummedAreaTable();
+    }
+
+    /**
+     * Returns the clusters of alive cells of this generation, analyzing the
+     * frame from scratch on first use.
+     *
+     * @return the ClusterAnalysis of the frame of this generation
+     */
+    public ClusterAnalysis getClusters() {
+        return getClusters(null);
+    }
+
+    /**
+     * Returns the clusters of alive cells of this generation. On first use,
+     * the analysis of the given previous generation is advanced to this
+     * frame, which only rescans the rows that changed.
+     *
+     * @param previous a generation of the same board, typically the preceding one, or null
+     * @return the ClusterAnalysis of the frame of this generation
+     */
+    public ClusterAnalysis getClusters(Generation previous) {
+        return frameState().getClusters(previous);
+    }
+
+    /**
+     * Returns the aggregate figures of this generation.
+     *
+     * @return the GenerationSummary kept in sync with this generation
+     */
+    public GenerationSummary getSummary() {
+        return summary;
+    }
+
+    /**
+     * Returns the events counted by the engine while evolving the previous
+     * generation into this one.
+     *
+     * @return the EngineCounters of this generation, or EngineCounters.NONE
+     *         if it was not produced by an evolution step
+     */
+    public EngineCounters getCounters() {
+        return summary == null ? EngineCounters.NONE : summary.getCounters();
+    }
+
+    /**
+     * Attaches the counters of the evolution step that produced this generation.
+     *
+     * @param counters the EngineCounters filled by the evolution loop
+     */
+    void setCounters(EngineCounters counters) {
+        summary.setCounters(Objects.requireNonNull(counters));
+    }
+
+    /**
+     * Rebuilds a generation from a frame read back from storage, e.g. by
+     * FileLogGameStore. The board is not touched.
+     *
+     * @param game  the Game the generation belongs to
+     * @param board the Board of the game
+     * @param step  the generation step
+     * @param frame the stored frame of the generation
+     * @param event the event applied at this step, or null
+     * @return the rebuilt Generation, not yet added to the game
+     */
+    static Generation restored(Game game, Board board, int step, GenerationFrame frame, EventType event) {
+        Generation generation = new Generation(game, step);
+        generation.board = board;
+        generation.setFrameState(new FrameState(frame, null));
+        generation.event = event;
+        generation.refreshSummary();
+        return generation;
+    }
+
+    /**
+     * Builds a detached generation to be inserted as is, e.g. by the
+     * GenerationWriter thread from a snapshot of a live generation. Its
+     * summary is filled from the given figures and nothing is recorded in the
+     * game's time series, so game and board may be uninitialized references.
+     *
+     * @param game       the stored Game the generation belongs to
+     * @param board      the stored Board of the game
+     * @param step       the generation step
+     * @param event      the event applied at this step, or null
+     * @param frame      the frame of the generation
+     * @param aggregates the aggregates of frame
+     * @param counters   the EngineCounters of the step that produced the generation
+     * @return the new Generation, not added to the game
+     */
+    static Generation forStorage(Game game, Board board, int step, EventType event, GenerationFrame frame,
+            GenerationAggregates aggregates, EngineCounters counters) {
+        Generation generation = new Generation(game, step);
+        generation.board = board;
+        generation.setFrameState(new FrameState(frame, aggregates));
+        generation.event = event;
+        generation.summary = new GenerationSummary(game, step, frame, aggregates, event);
+        generation.summary.setCounters(counters);
+        return generation;
+    }
+
+    /**
+     * Replaces the frame, carrying the aggregates over to it in one visit of
+     * the cells alive in either frame. Aggregates never computed stay lazy, while the
+     * other per-frame indexes are rebuilt on next use.
+     *
+     * @param next the new frame of this generation
+     */
+    private void replaceFrame(GenerationFrame next) {
+        FrameState current = frameState();
+        GenerationAggregates aggregates = current == null ? null : current.aggregates;
+        setFrameState(new FrameState(next,
+            aggregates == null ? null : aggregates.advance(current.frame, next)));
+    }
+
+    /**
+     * Publishes a new frame with its derived state, and records the frame in
+     * the mapped column.
+     *
+     * @param next the holder of the new frame
+     */
+    private void setFrameState(FrameState next) {
+        frame = next.frame;
+        frameState = next;
+    }
+
+    /**
+     * Returns the holder of the current frame, building it from the mapped
+     * column if the generation was read back from storage.
+     *
+     * @return the FrameState of this generation, or null if it has no frame yet
+     */
+    private FrameState frameState() {
+        FrameState current = frameState;
+        if (current == null) {
+            GenerationFrame stored = frame;
+            if (stored == null)
+                return null;
+            current = new FrameState(stored, null);
+            frameState = current;
+        }
+        return current;
+    }
+
+    /**
+     * Refreshes the summary from the current aggregates and event, creating
+     * it on first use, and records the aggregates in the game's time series
+     * if the game is in memory.
+     */
+    private void refreshSummary() {
+        FrameState state = frameState();
+        if (state == null)
+            return;
+        GenerationAggregates current = state.getAggregates();
+        if (summary == null)
+            summary = new GenerationSummary(game, step, state.frame, current, event);
+        else
+            summary.update(state.frame, current, event);
+        if (game != null && Hibernate.isInitialized(game))
+            game.getSeries().record(step, current);
+    }
+
+    /**
+     * A frame and the figures and indexes derived from it. The frame never
+     * changes; each derived value is computed from it on first use, so a
+     * value computed twice by racing readers is the same.
+     */
+    private static final class FrameState {
+
+        private final GenerationFrame frame;
+        private volatile GenerationAggregates aggregates;
+        private volatile EnergyIndex energyIndex;
+        private volatile NeighborCounts neighborCounts;
+        private volatile SummedAreaTable summedAreaTable;
+        private volatile ClusterAnalysis clusters;
+        private volatile Map<Cell, Boolean> cellAlivenessStates;
+        private volatile Map<Cell, Integer> cellLifePoints;
+
+        FrameState(GenerationFrame frame, GenerationAggregates aggregates) {
+            this.frame = frame;
+            this.aggregates = aggregates;
+        }
+
+        GenerationAggregates getAggregates() {
+            GenerationAggregates current = aggregates;
+            if (current == null) {
+                current = GenerationAggregates.of(frame);
+                aggregates = current;
+            }
+            return current;
+        }
+
+        EnergyIndex getEnergyIndex() {
+            EnergyIndex current = energyIndex;
+            if (current == null) {
+                current = EnergyIndex.of(frame, getAggregates());
+                energyIndex = current;
+            }
+            return current;
+        }
+
+        NeighborCounts getNeighborCounts() {
+            NeighborCounts current = neighborCounts;
+            if (current == null) {
+                current = NeighborCounts.of(frame);
+                neighborCounts = current;
+            }
+            return current;
+        }
+
+        SummedAreaTable getSummedAreaTable() {
+            SummedAreaTable current = summedAreaTable;
+            if (current == null) {
+                current = SummedAreaTable.of(frame);
+                summedAreaTable = current;
+            }
+            return current;
+        }
+
+        ClusterAnalysis getClusters(Generation previous) {
+            ClusterAnalysis current = clusters;
+            if (current == null) {
+                current = previous == null ? ClusterAnalysis.of(frame) : previous.getClusters().advance(frame);
+                clusters = current;
+            }
+            return current;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,300 @@
+package it.polito.extgol;
+
+import java.util.EnumMap;
+import java.util.IntSummaryStatistics;
+import java.util.Map;
+
+/**
+ * Running aggregates of the alive cells of one generation: the population,
+ * the number of alive cells of each CellType and CellMood, and the sum,
+ * minimum and maximum of their lifePoints.
+ *
+ * The aggregates of a new frame are derived from those of the frame it
+ * replaces, so the Board analytics built on them answer in O(1). Deriving
+ * them costs one visit per cell alive in either frame, a word of alive bits
+ * at a time, which is far fewer than the board's cells on a sparse board;
+ * only the cells whose state changed update the figures. Along with the minimum and maximum lifePoints, the number
+ * of alive cells holding each of them is kept; only when the last of those
+ * cells leaves an extreme are the alive cells of the new frame rescanned to
+ * find where it moved back to, so each instance takes constant space whatever
+ * the range of lifePoints.
+ *
+ * Instances are only modified while they are being derived and are never
+ * changed once a Generation publishes them.
+ */
+public final class GenerationAggregates {
+
+    private static final CellMood[] MOODS = CellMood.values();
+    private static final CellType[] TYPES = CellType.values();
+
+    private int population;
+    private long sumLifePoints;
+    private int minLifePoints;
+    private int maxLifePoints;
+    private final int[] typeCounts;
+    private final int[] moodCounts;
+
+    /** Alive cells whose lifePoints equal minLifePoints, and maxLifePoints. */
+    private int minCount;
+    private int maxCount;
+
+    /** Set while deriving when the last cell at an extreme left it. */
+    private boolean extremesLost;
+
+    private GenerationAggregates() {
+        typeCounts = new int[TYPES.length];
+        moodCounts = new int[MOODS.length];
+    }
+
+    private GenerationAggregates(GenerationAggregates other) {
+        population = other.population;
+        sumLifePoints = other.sumLifePoints;
+        minLifePoints = other.minLifePoints;
+        maxLifePoints = other.maxLifePoints;
+        typeCounts = other.typeCounts.clone();
+        moodCounts = other.moodCounts.clone();
+        minCount = other.minCount;
+        maxCount = other.maxCount;
+    }
+
+    /**
+     * Computes the aggregates of a frame from scratch, in one pass over its
+     * alive cells.
+     *
+     * @param frame the frame to aggregate
+     * @return the aggregates of the alive cells of frame
+     */
+    static GenerationAggregates of(GenerationFrame frame) {
+        GenerationAggregates aggregates = new GenerationAggregates();
+        long[] alive = frame.aliveWords();
+        int[] lifePoints = frame.lifePointsArray();
+        byte[] types = frame.typeOrdinals();
+        byte[] moods = frame.moodOrdinals();
+        for (int w = 0; w < alive.length; w++) {
+            for (long bits = alive[w]; bits != 0; bits &= bits - 1) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                aggregates.add(lifePoints[i], types[i], moods[i]);
+            }
+        }
+        return aggregates;
+    }
+
+    /**
+     * Derives the aggregates of a frame from these, which must be the
+     * aggregates of the frame it replaces. This takes O(cells alive in either
+     * frame): every such cell is compared, and only those whose aliveness,
+     * lifePoints, type or mood changed update the figures.
+     *
+     * @param from the frame these aggregates describe
+     * @param to   the frame to aggregate
+     * @return the aggregates of the alive cells of to
+     * @throws IllegalArgumentException if the frames have different sizes
+     */
+    GenerationAggregates advance(GenerationFrame from, GenerationFrame to) {
+        if (from == to)
+            return this;
+        if (from.getWidth() != to.getWidth() || from.getHeight() != to.getHeight()) {
+            throw new IllegalArgumentException("Aggregates cannot follow a frame of a different board");
+        }
+        GenerationAggregates next = new GenerationAggregates(this);
+        long[] wasAlive = from.aliveWords();
+        long[] isAlive = to.aliveWords();
+        int[] oldLifePoints = from.lifePointsArray();
+        int[] newLifePoints = to.lifePointsArray();
+        byte[] oldTypes = from.typeOrdinals();
+        byte[] newTypes = to.typeOrdinals();
+        byte[] oldMoods = from.moodOrdinals();
+        byte[] newMoods = to.moodOrdinals();
+
+        for (int w = 0; w < isAlive.length; w++) {
+            long before = wasAlive[w];
+            long after = isAlive[w];
+            for (long bits = before | after; bits != 0; bits &= bits - 1) {
+                long bit = bits & -bits;
+                int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                boolean was = (before & bit) != 0;
+                boolean is = (after & bit) != 0;
+                if (was && is && oldLifePoints[i] == newLifePoints[i]
+                        && oldTypes[i] == newTypes[i] && oldMoods[i] == newMoods[i])
+                    continue;
+                if (was)
+                    next.remove(oldLifePoints[i], oldTypes[i], oldMoods[i]);
+                if (is)
+                    next.add(newLifePoints[i], newTypes[i], newMoods[i]);
+            }
+        }
+        if (next.extremesLost)
+            next.rescanExtremes(to);
+        return next;
+    }
+
+    private void add(int lifePoints, int type, int mood) {
+        if (population == 0) {
+            minLifePoints = lifePoints;
+            maxLifePoints = lifePoints;
+            minCount = 1;
+            maxCount = 1;
+        } else {
+            if (lifePoints < minLifePoints) {
+                minLifePoints = lifePoints;
+                minCount = 1;
+            } else if (lifePoints == minLifePoints) {
+                minCount++;
+            }
+            if (lifePoints > maxLifePoints) {
+                maxLifePoints = lifePoints;
+                maxCount = 1;
+            } else if (lifePoints == maxLifePoints) {
+                maxCount++;
+            }
+        }
+        population++;
+        sumLifePoints += lifePoints;
+        typeCounts[type]++;
+        moodCounts[mood]++;
+    }
+
+    private void remove(int lifePoints, int type, int mood) {
+        population--;
+        sumLifePoints -= lifePoints;
+        typeCounts[type]--;
+        moodCounts[mood]--;
+        if (population == 0) {
+            minLifePoints = 0;
+            maxLifePoints = 0;
+            minCount = 0;
+            maxCount = 0;
+            extremesLost = false;
+            return;
+        }
+        if (lifePoints == minLifePoints && --minCount == 0)
+            extremesLost = true;
+        if (lifePoints == maxLifePoints && --maxCount == 0)
+            extremesLost = true;
+    }
+
+    /**
+     * Recomputes the minimum and maximum lifePoints, and how many alive cells
+     * hold them, from the alive cells of the given frame.
+     *
+     * @param frame the frame these aggregates describe
+     */
+    private void rescanExtremes(GenerationFrame frame) {
+        extremesLost = false;
+        minCount = 0;
+        maxCount = 0;
+        long[] alive = frame.aliveWords();
+        int[] lifePoints = frame.lifePointsArray();
+        for (int w = 0; w < alive.length; w++) {
+            for (long bits = alive[w]; bits != 0; bits &= bits - 1) {
+                int value = lifePoints[(w << 6) + Long.numberOfTrailingZeros(bits)];
+                if (minCount == 0 || value < minLifePoints) {
+                    minLifePoints = value;
+                    minCount = 1;
+                } else if (value == minLifePoints) {
+                    minCount++;
+                }
+                if (maxCount == 0 || value > maxLifePoints) {
+                    maxLifePoints = value;
+                    maxCount = 1;
+                } else if (value == maxLifePoints) {
+                    maxCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of alive cells.
+     *
+     * @return the population of the generation
+     */
+    public int getPopulation() {
+        return population;
+    }
+
+    /**
+     * Returns the sum of the lifePoints of the alive cells.
+     *
+     * @return the total energy of the generation
+     */
+    public long getSumLifePoints() {
+        return sumLifePoints;
+    }
+
+    /**
+     * Returns the lowest lifePoints among the alive cells.
+     *
+     * @return the minimum lifePoints, 0 if no cell is alive
+     */
+    public int getMinLifePoints() {
+        return minLifePoints;
+    }
+
+    /**
+     * Returns the highest lifePoints among the alive cells.
+     *
+     * @return the maximum lifePoints, 0 if no cell is alive
+     */
+    public int getMaxLifePoints() {
+        return maxLifePoints;
+    }
+
+    /**
+     * Builds the lifePoints statistics of the alive cells, as a stream over
+     * them would.
+     *
+     * @return an IntSummaryStatistics with count, min, max and sum of the alive cells' lifePoints
+     */
+    public IntSummaryStatistics getEnergyStatistics() {
+        return new IntSummaryStatistics(population, minLifePoints, maxLifePoints, sumLifePoints);
+    }
+
+    /**
+     * Returns the number of alive cells of the given type.
+     *
+     * @param type the CellType to count
+     * @return the number of alive cells of that type
+     */
+    public int count(CellType type) {
+        return typeCounts[type.ordinal()];
+    }
+
+    /**
+     * Returns the number of alive cells with the given mood.
+     *
+     * @param mood the CellMood to count
+     * @return the number of alive cells with that mood
+     */
+    public int count(CellMood mood) {
+        return moodCounts[mood.ordinal()];
+    }
+
+    /**
+     * Returns the number of alive cells per CellType; types with no alive cell are omitted.
+     *
+     * @return a Map from CellType to the count of alive cells of that type
+     */
+    public Map<CellType, Integer> getTypeCounts() {
+        Map<CellType, Integer> counts = new EnumMap<>(CellType.class);
+        for (int t = 0; t < typeCounts.length; t++) {
+            if (typeCounts[t] > 0)
+                counts.put(TYPES[t], typeCounts[t]);
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the number of alive cells per CellMood; moods with no alive cell are omitted.
+     *
+     * @return a Map from CellMood to the count of alive cells with that mood
+     */
+    public Map<CellMood, Integer> getMoodCounts() {
+        Map<CellMood, Integer> counts = new EnumMap<>(CellMood.class);
+        for (int m = 0; m < moodCounts.length; m++) {
+            if (moodCounts[m] > 0)
+                counts.put(MOODS[m], moodCounts[m]);
+        }
+        return counts;
+    }
+}
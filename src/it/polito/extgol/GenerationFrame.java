@@ -0,0 +1,593 @@
+package it.polito.extgol;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.IntSummaryStatistics;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Immutable, compact snapshot of every cell on a board at a given generation.
+ *
+ * Cells are addressed in row-major order (index = y * width + x). Aliveness is
+ * packed into 64-bit words, while lifePoints, moods and types are kept in
+ * primitive arrays. A frame is what a Generation persists, through the
+ * GenerationFrameConverter, as a single binary column; being immutable it is
+ * also shared as-is by the second-level cache.
+ *
+ * Besides what a generation shows, a frame records the engine state needed to
+ * continue a simulation from it: each cell's future mood, skipped generations,
+ * super-vampire flag and survival thresholds, and each tile's lifePoints
+ * modifier. restore() writes all of it back onto a board.
+ */
+public final class GenerationFrame implements Serializable {
+
+    private static final long serialVersionUID = 3L;
+
+    private static final CellMood[] MOODS = CellMood.values();
+    private static final CellType[] TYPES = CellType.values();
+
+    private final int width;
+    private final int height;
+    private final long[] alive;
+    private final int[] lifePoints;
+    private final byte[] moods;
+    private final byte[] types;
+    private final byte[] futureMoods;
+    private final byte[] skippedGens;
+    private final long[] superVampires;
+    private final int[] thresholds;
+    private final int[] tileModifiers;
+
+    /**
+     * Internal constructor; arrays are owned by the new frame and must not be
+     * modified afterwards.
+     *
+     * @param width         the number of columns of the board
+     * @param height        the number of rows of the board
+     * @param alive         the row-major alive bits, 64 cells per word
+     * @param lifePoints    the row-major lifePoints of each cell
+     * @param moods         the row-major CellMood ordinals of each cell
+     * @param types         the row-major CellType ordinals of each cell
+     * @param futureMoods   the row-major CellMood ordinals each cell will take on next
+     * @param skippedGens   the row-major count of generations each Highlander has survived
+     * @param superVampires the row-major super-vampire bits, 64 cells per word
+     * @param thresholds    the row-major survival thresholds, minimum then maximum of each cell
+     * @param tileModifiers the row-major lifePoints modifier of each tile
+     */
+    GenerationFrame(int width, int height, long[] alive, int[] lifePoints, byte[] moods, byte[] types,
+            byte[] futureMoods, byte[] skippedGens, long[] superVampires, int[] thresholds, int[] tileModifiers) {
+        int size = width * height;
+        if (width < 0 || height < 0 || alive.length != wordsFor(size) || lifePoints.length != size
+                || moods.length != size || types.length != size || futureMoods.length != size
+                || skippedGens.length != size || superVampires.length != alive.length
+                || thresholds.length != 2 * size || tileModifiers.length != size) {
+            throw new IllegalArgumentException("Inconsistent frame for a " + width + "x" + height + " board");
+        }
+        this.width = width;
+        this.height = height;
+        this.alive = alive;
+        this.lifePoints = lifePoints;
+        this.moods = moods;
+        this.types = types;
+        this.futureMoods = futureMoods;
+        this.skippedGens = skippedGens;
+        this.superVampires = superVampires;
+        this.thresholds = thresholds;
+        this.tileModifiers = tileModifiers;
+    }
+
+    /**
+     * Captures the current state of every cell on the given board.
+     *
+     * @param board the Board whose cells are recorded
+     * @return a new frame holding aliveness, lifePoints, mood and type of each cell
+     * @throws IllegalStateException if any Tile does not contain a Cell
+     */
+    public static GenerationFrame capture(Board board) {
+        Objects.requireNonNull(board);
+
+        int width = board.getWidth();
+        int height = board.getHeight();
+        int size = width * height;
+        long[] alive = new long[wordsFor(size)];
+        int[] lifePoints = new int[size];
+        byte[] moods = new byte[size];
+        byte[] types = new byte[size];
+        byte[] futureMoods = new byte[size];
+        byte[] skippedGens = new byte[size];
+        long[] superVampires = new long[alive.length];
+        int[] thresholds = new int[2 * size];
+        int[] tileModifiers = new int[size];
+
+        for (Tile tile : board.getTiles()) {
+            Cell cell = tile.getCell();
+            if (cell == null) {
+                throw new IllegalStateException("Each tile should hold a cell!");
+            }
+            int i = tile.getY() * width + tile.getX();
+            if (cell.isAlive()) {
+                alive[i >>> 6] |= 1L << i;
+            }
+            lifePoints[i] = cell.getLifePoints();
+            moods[i] = (byte) cell.getMood().ordinal();
+            types[i] = (byte) cell.getType().ordinal();
+            futureMoods[i] = (byte) cell.getFutureMood().ordinal();
+            skippedGens[i] = (byte) cell.getSkippedGenerations();
+            if (cell.isSuperVampire()) {
+                superVampires[i >>> 6] |= 1L << i;
+            }
+            thresholds[2 * i] = cell.getMinThreshold();
+            thresholds[2 * i + 1] = cell.getMaxThreshold();
+            tileModifiers[i] = tile.getLifePointModifier();
+        }
+        return new GenerationFrame(width, height, alive, lifePoints, moods, types,
+            futureMoods, skippedGens, superVampires, thresholds, tileModifiers);
+    }
+
+    /**
+     * Writes the state recorded in this frame back onto the given board, so
+     * that evolving the board continues exactly from this generation.
+     *
+     * @param board a Board with the same size as the captured one
+     * @throws IllegalArgumentException if the board size differs from the frame
+     */
+    void restore(Board board) {
+        if (board.getWidth() != width || board.getHeight() != height) {
+            throw new IllegalArgumentException("Frame of a " + width + "x" + height
+                + " board cannot be restored onto a " + board.getWidth() + "x" + board.getHeight() + " board");
+        }
+        for (Tile tile : board.getTiles()) {
+            int i = tile.getY() * width + tile.getX();
+            tile.getCell().restoreState(isAlive(i), lifePoints[i], getMood(i), getFutureMood(i), getType(i),
+                skippedGens[i], isSuperVampire(i), getMinThreshold(i), getMaxThreshold(i));
+            tile.restoreState(tileModifiers[i]);
+        }
+    }
+
+    /**
+     * Returns the number of 64-bit words needed to store the given number of bits.
+     *
+     * @param size the number of cells
+     * @return the length of the alive words array
+     */
+    static int wordsFor(int size) {
+        return (size + 63) >>> 6;
+    }
+
+    /**
+     * Reads 64 bits of a packed bit array starting at any bit position; bits
+     * past the end of the array read as 0.
+     *
+     * @param words the packed bits
+     * @param start the position of the first bit
+     * @return the bits [start, start + 64) in the low-to-high order of a word
+     */
+    static long bitsAt(long[] words, long start) {
+        int w = (int) (start >>> 6);
+        int offset = (int) (start & 63);
+        if (w >= words.length)
+            return 0;
+        long bits = words[w] >>> offset;
+        if (offset != 0 && w + 1 < words.length)
+            bits |= words[w + 1] << (64 - offset);
+        return bits;
+    }
+
+    /**
+     * Returns the number of columns of the captured board.
+     *
+     * @return the board width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the number of rows of the captured board.
+     *
+     * @return the board height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the number of cells recorded in this frame.
+     *
+     * @return width * height
+     */
+    public int size() {
+        return lifePoints.length;
+    }
+
+    /**
+     * Converts board coordinates into the row-major index used by this frame.
+     *
+     * @param c the coordinates to convert
+     * @return the index of the cell, or -1 if c lies outside the board
+     */
+    public int indexOf(Coord c) {
+        if (c.getX() < 0 || c.getX() >= width || c.getY() < 0 || c.getY() >= height)
+            return -1;
+        return c.getY() * width + c.getX();
+    }
+
+    /**
+     * Tells whether the cell at the given row-major index was alive.
+     *
+     * @param index the cell index
+     * @return true if the cell was alive in this frame
+     */
+    public boolean isAlive(int index) {
+        return (alive[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Finds the first alive cell at or after the given row-major index,
+     * skipping dead cells a word at a time.
+     *
+     * @param from the index to start from
+     * @return the index of the next alive cell, or -1 if there is none
+     */
+    public int nextAlive(int from) {
+        if (from < 0)
+            from = 0;
+        int w = from >>> 6;
+        if (w >= alive.length)
+            return -1;
+        long bits = alive[w] & (-1L << from);
+        while (bits == 0) {
+            if (++w == alive.length)
+                return -1;
+            bits = alive[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * Returns the lifePoints of the cell at the given row-major index.
+     *
+     * @param index the cell index
+     * @return the recorded lifePoints
+     */
+    public int getLifePoints(int index) {
+        return lifePoints[index];
+    }
+
+    /**
+     * Returns the mood of the cell at the given row-major index.
+     *
+     * @param index the cell index
+     * @return the recorded CellMood
+     */
+    public CellMood getMood(int index) {
+        return MOODS[moods[index]];
+    }
+
+    /**
+     * Returns the type of the cell at the given row-major index.
+     *
+     * @param index the cell index
+     * @return the recorded CellType
+     */
+    public CellType getType(int index) {
+        return TYPES[types[index]];
+    }
+
+    /**
+     * Returns the mood the cell at the given index was going to take on next.
+     *
+     * @param index the cell index
+     * @return the recorded future CellMood
+     */
+    public CellMood getFutureMood(int index) {
+        return MOODS[futureMoods[index]];
+    }
+
+    /**
+     * Returns how many generations the cell at the given index had survived as
+     * a Highlander beyond its thresholds, or -1 once its extra lives are spent.
+     *
+     * @param index the cell index
+     * @return the recorded skipped generations
+     */
+    public int getSkippedGenerations(int index) {
+        return skippedGens[index];
+    }
+
+    /**
+     * Tells whether the cell at the given index was a super vampire.
+     *
+     * @param index the cell index
+     * @return true if the cell was a super vampire in this frame
+     */
+    public boolean isSuperVampire(int index) {
+        return (superVampires[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Returns the minimum survival threshold of the cell at the given index.
+     *
+     * @param index the cell index
+     * @return the recorded minimum threshold
+     */
+    public int getMinThreshold(int index) {
+        return thresholds[2 * index];
+    }
+
+    /**
+     * Returns the maximum survival threshold of the cell at the given index.
+     *
+     * @param index the cell index
+     * @return the recorded maximum threshold
+     */
+    public int getMaxThreshold(int index) {
+        return thresholds[2 * index + 1];
+    }
+
+    /**
+     * Returns the lifePoints modifier of the tile at the given index.
+     *
+     * @param index the tile index
+     * @return the recorded tile modifier
+     */
+    public int getTileModifier(int index) {
+        return tileModifiers[index];
+    }
+
+    /**
+     * Counts the alive cells in this frame.
+     *
+     * @return the number of alive cells
+     */
+    public int countAlive() {
+        int count = 0;
+        for (long word : alive) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Counts alive cells per CellType.
+     *
+     * @return a Map from CellType to the count of alive cells of that type
+     */
+    public Map<CellType, Integer> countAliveByType() {
+        int[] counts = new int[TYPES.length];
+        for (int i = 0; i < size(); i++) {
+            if (isAlive(i))
+                counts[types[i]]++;
+        }
+        Map<CellType, Integer> result = new EnumMap<>(CellType.class);
+        for (int t = 0; t < counts.length; t++) {
+            if (counts[t] > 0)
+                result.put(TYPES[t], counts[t]);
+        }
+        return result;
+    }
+
+    /**
+     * Counts alive cells per CellMood.
+     *
+     * @return a Map from CellMood to the count of alive cells with that mood
+     */
+    public Map<CellMood, Integer> countAliveByMood() {
+        int[] counts = new int[MOODS.length];
+        for (int i = 0; i < size(); i++) {
+            if (isAlive(i))
+                counts[moods[i]]++;
+        }
+        Map<CellMood, Integer> result = new EnumMap<>(CellMood.class);
+        for (int m = 0; m < counts.length; m++) {
+            if (counts[m] > 0)
+                result.put(MOODS[m], counts[m]);
+        }
+        return result;
+    }
+
+    /**
+     * Computes summary statistics over the lifePoints of the alive cells.
+     *
+     * @return an IntSummaryStatistics with aggregated lifePoints metrics
+     */
+    public IntSummaryStatistics aliveEnergyStatistics() {
+        IntSummaryStatistics stats = new IntSummaryStatistics();
+        for (int i = 0; i < size(); i++) {
+            if (isAlive(i))
+                stats.accept(lifePoints[i]);
+        }
+        return stats;
+    }
+
+    /**
+     * Counts alive cells per lifePoints value.
+     *
+     * @return a Map from lifePoints value to the number of alive cells having it
+     */
+    public Map<Integer, Integer> aliveEnergyHistogram() {
+        Map<Integer, Integer> histogram = new TreeMap<>();
+        for (int i = 0; i < size(); i++) {
+            if (isAlive(i))
+                histogram.merge(lifePoints[i], 1, Integer::sum);
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the indices of the n alive cells with the most lifePoints, in
+     * descending order. Ties go to the cell closest to the top-left corner.
+     *
+     * @param n the maximum number of indices to return
+     * @return the row-major indices of the top-energy alive cells
+     */
+    public int[] topEnergyIndices(int n) {
+        if (n < 0)
+            throw new IllegalArgumentException("n must not be negative");
+        // min-heap on (lifePoints, -index): the root is the weakest candidate kept
+        PriorityQueue<Integer> heap = new PriorityQueue<>(
+            Comparator.<Integer>comparingInt(i -> lifePoints[i]).thenComparing(Comparator.reverseOrder()));
+        for (int i = 0; i < size() && n > 0; i++) {
+            if (!isAlive(i))
+                continue;
+            if (heap.size() < n) {
+                heap.add(i);
+            } else if (heap.comparator().compare(i, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(i);
+            }
+        }
+        int[] top = new int[heap.size()];
+        for (int k = top.length - 1; k >= 0; k--) {
+            top[k] = heap.poll();
+        }
+        return top;
+    }
+
+    /**
+     * Returns a copy of this frame where the aliveness of the given cells is replaced.
+     *
+     * @param states a Map from Cell to its alive state; cells not in the map keep their value
+     * @return a new frame reflecting the given states
+     */
+    GenerationFrame withAliveness(Map<Cell, Boolean> states) {
+        long[] copy = alive.clone();
+        for (Map.Entry<Cell, Boolean> e : states.entrySet()) {
+            int i = indexOf(e.getKey().getCoordinates());
+            if (i < 0)
+                continue;
+            if (e.getValue())
+                copy[i >>> 6] |= 1L << i;
+            else
+                copy[i >>> 6] &= ~(1L << i);
+        }
+        return new GenerationFrame(width, height, copy, lifePoints, moods, types,
+            futureMoods, skippedGens, superVampires, thresholds, tileModifiers);
+    }
+
+    /**
+     * Returns a copy of this frame where the lifePoints of the given cells are replaced.
+     *
+     * @param values a Map from Cell to its lifePoints; cells not in the map keep their value
+     * @return a new frame reflecting the given lifePoints
+     */
+    GenerationFrame withLifePoints(Map<Cell, Integer> values) {
+        int[] copy = lifePoints.clone();
+        for (Map.Entry<Cell, Integer> e : values.entrySet()) {
+            int i = indexOf(e.getKey().getCoordinates());
+            if (i >= 0)
+                copy[i] = e.getValue();
+        }
+        return new GenerationFrame(width, height, alive, copy, moods, types,
+            futureMoods, skippedGens, superVampires, thresholds, tileModifiers);
+    }
+
+    /**
+     * Internal accessor to the packed alive bits; callers must not modify the array.
+     *
+     * @return the row-major alive words
+     */
+    long[] aliveWords() {
+        return alive;
+    }
+
+    /**
+     * Internal accessor to the lifePoints array; callers must not modify it.
+     *
+     * @return the row-major lifePoints
+     */
+    int[] lifePointsArray() {
+        return lifePoints;
+    }
+
+    /**
+     * Internal accessor to the mood ordinals; callers must not modify the array.
+     *
+     * @return the row-major CellMood ordinals
+     */
+    byte[] moodOrdinals() {
+        return moods;
+    }
+
+    /**
+     * Internal accessor to the type ordinals; callers must not modify the array.
+     *
+     * @return the row-major CellType ordinals
+     */
+    byte[] typeOrdinals() {
+        return types;
+    }
+
+    /**
+     * Internal accessor to the future mood ordinals; callers must not modify the array.
+     *
+     * @return the row-major future CellMood ordinals
+     */
+    byte[] futureMoodOrdinals() {
+        return futureMoods;
+    }
+
+    /**
+     * Internal accessor to the skipped generations; callers must not modify the array.
+     *
+     * @return the row-major skipped generation counts
+     */
+    byte[] skippedGenerations() {
+        return skippedGens;
+    }
+
+    /**
+     * Internal accessor to the packed super-vampire bits; callers must not modify the array.
+     *
+     * @return the row-major super-vampire words
+     */
+    long[] superVampireWords() {
+        return superVampires;
+    }
+
+    /**
+     * Internal accessor to the thresholds; callers must not modify the array.
+     *
+     * @return the row-major thresholds, minimum then maximum of each cell
+     */
+    int[] thresholdArray() {
+        return thresholds;
+    }
+
+    /**
+     * Internal accessor to the tile modifiers; callers must not modify the array.
+     *
+     * @return the row-major tile modifiers
+     */
+    int[] tileModifierArray() {
+        return tileModifiers;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof GenerationFrame)) return false;
+        GenerationFrame f = (GenerationFrame) o;
+        return width == f.width && height == f.height
+            && Arrays.equals(alive, f.alive)
+            && Arrays.equals(lifePoints, f.lifePoints)
+            && Arrays.equals(moods, f.moods)
+            && Arrays.equals(types, f.types)
+            && Arrays.equals(futureMoods, f.futureMoods)
+            && Arrays.equals(skippedGens, f.skippedGens)
+            && Arrays.equals(superVampires, f.superVampires)
+            && Arrays.equals(thresholds, f.thresholds)
+            && Arrays.equals(tileModifiers, f.tileModifiers);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 31 * width + height;
+        h = 31 * h + Arrays.hashCode(alive);
+        return 31 * h + Arrays.hashCode(lifePoints);
+    }
+}
@@ -0,0 +1,219 @@
+package it.polito.extgol;
+
+import java.util.Arrays;
+
+import org.hibernate.annotations.Immutable;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+/**
+ * JPA converter storing a GenerationFrame as a single compact binary value.
+ *
+ * Layout:
+ *   - one format version byte;
+ *   - board width and height as unsigned varints;
+ *   - the alive bits, eight cells per byte in row-major order;
+ *   - each cell's lifePoints as a zig-zag varint (one byte for small values);
+ *   - each cell's type and mood packed in a nibble, two cells per byte;
+ *   - one engine byte per cell: future mood in bits 0-1, super-vampire flag in
+ *     bit 2, skipped generations + 1 in bits 3-5;
+ *   - one threshold format byte: 0 when every threshold of the frame is
+ *     between 0 and 15, followed by one byte per cell with the minimum and
+ *     maximum thresholds as nibbles; 1 otherwise, followed by each cell's
+ *     minimum and maximum thresholds as zig-zag varints;
+ *   - each tile's lifePoints modifier as a zig-zag varint.
+ *
+ * Frames are immutable, so Hibernate compares them by equality instead of
+ * taking deep copies for dirty checking.
+ */
+@Converter
+@Immutable
+public class GenerationFrameConverter implements AttributeConverter<GenerationFrame, byte[]> {
+
+    private static final byte FORMAT_VERSION = 2;
+
+    /** Threshold format byte: both thresholds of a cell as nibbles of one byte. */
+    private static final byte NIBBLE_THRESHOLDS = 0;
+
+    /** Threshold format byte: each threshold as a zig-zag varint. */
+    private static final byte VARINT_THRESHOLDS = 1;
+
+    @Override
+    public byte[] convertToDatabaseColumn(GenerationFrame frame) {
+        if (frame == null)
+            return null;
+
+        int size = frame.size();
+        // version + two varints + bits + worst-case varints + nibbles + engine bytes
+        // + threshold format + worst-case threshold varints + worst-case varints
+        byte[] out = new byte[1 + 10 + (size + 7) / 8 + 5 * size + (size + 1) / 2 + size
+            + 1 + 10 * size + 5 * size];
+        int pos = 0;
+        out[pos++] = FORMAT_VERSION;
+        pos = writeVarint(out, pos, frame.getWidth());
+        pos = writeVarint(out, pos, frame.getHeight());
+
+        long[] words = frame.aliveWords();
+        for (int i = 0; i < size; i += 8) {
+            out[pos++] = (byte) (words[i >>> 6] >>> (i & 63));
+        }
+
+        int[] lifePoints = frame.lifePointsArray();
+        for (int lp : lifePoints) {
+            pos = writeVarint(out, pos, (lp << 1) ^ (lp >> 31));
+        }
+
+        byte[] moods = frame.moodOrdinals();
+        byte[] types = frame.typeOrdinals();
+        for (int i = 0; i < size; i += 2) {
+            int low = types[i] << 2 | moods[i];
+            int high = i + 1 < size ? types[i + 1] << 2 | moods[i + 1] : 0;
+            out[pos++] = (byte) (high << 4 | low);
+        }
+
+        byte[] futureMoods = frame.futureMoodOrdinals();
+        byte[] skippedGens = frame.skippedGenerations();
+        for (int i = 0; i < size; i++) {
+            int superVampire = frame.isSuperVampire(i) ? 1 : 0;
+            out[pos++] = (byte) ((skippedGens[i] + 1) << 3 | superVampire << 2 | futureMoods[i]);
+        }
+
+        int[] thresholds = frame.thresholdArray();
+        if (fitNibbles(thresholds)) {
+            out[pos++] = NIBBLE_THRESHOLDS;
+            for (int i = 0; i < size; i++) {
+                out[pos++] = (byte) (thresholds[2 * i] << 4 | thresholds[2 * i + 1]);
+            }
+        } else {
+            out[pos++] = VARINT_THRESHOLDS;
+            for (int threshold : thresholds) {
+                pos = writeVarint(out, pos, (threshold << 1) ^ (threshold >> 31));
+            }
+        }
+
+        for (int modifier : frame.tileModifierArray()) {
+            pos = writeVarint(out, pos, (modifier << 1) ^ (modifier >> 31));
+        }
+        return Arrays.copyOf(out, pos);
+    }
+
+    @Override
+    public GenerationFrame convertToEntityAttribute(byte[] data) {
+        if (data == null)
+            return null;
+
+        try {
+            if (data[0] != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported generation frame format " + data[0]);
+            }
+            int[] pos = { 1 };
+            int width = readVarint(data, pos);
+            int height = readVarint(data, pos);
+            int size = width * height;
+
+            long[] alive = new long[GenerationFrame.wordsFor(size)];
+            for (int i = 0; i < size; i += 8) {
+                alive[i >>> 6] |= (data[pos[0]++] & 0xFFL) << (i & 63);
+            }
+
+            int[] lifePoints = new int[size];
+            for (int i = 0; i < size; i++) {
+                int zz = readVarint(data, pos);
+                lifePoints[i] = (zz >>> 1) ^ -(zz & 1);
+            }
+
+            byte[] moods = new byte[size];
+            byte[] types = new byte[size];
+            for (int i = 0; i < size; i += 2) {
+                int b = data[pos[0]++];
+                moods[i] = (byte) (b & 0x3);
+                types[i] = (byte) (b >> 2 & 0x3);
+                if (i + 1 < size) {
+                    moods[i + 1] = (byte) (b >> 4 & 0x3);
+                    types[i + 1] = (byte) (b >> 6 & 0x3);
+                }
+            }
+            byte[] futureMoods = new byte[size];
+            byte[] skippedGens = new byte[size];
+            long[] superVampires = new long[alive.length];
+            for (int i = 0; i < size; i++) {
+                int b = data[pos[0]++];
+                futureMoods[i] = (byte) (b & 0x3);
+                if ((b & 0x4) != 0)
+                    superVampires[i >>> 6] |= 1L << i;
+                skippedGens[i] = (byte) ((b >> 3 & 0x7) - 1);
+            }
+
+            int[] thresholds = new int[2 * size];
+            int thresholdFormat = data[pos[0]++];
+            if (thresholdFormat == NIBBLE_THRESHOLDS) {
+                for (int i = 0; i < size; i++) {
+                    int b = data[pos[0]++];
+                    thresholds[2 * i] = b >> 4 & 0xF;
+                    thresholds[2 * i + 1] = b & 0xF;
+                }
+            } else if (thresholdFormat == VARINT_THRESHOLDS) {
+                for (int t = 0; t < thresholds.length; t++) {
+                    int zz = readVarint(data, pos);
+                    thresholds[t] = (zz >>> 1) ^ -(zz & 1);
+                }
+            } else {
+                throw new IllegalArgumentException("Unsupported threshold format " + thresholdFormat);
+            }
+
+            int[] tileModifiers = new int[size];
+            for (int i = 0; i < size; i++) {
+                int zz = readVarint(data, pos);
+                tileModifiers[i] = (zz >>> 1) ^ -(zz & 1);
+            }
+            return new GenerationFrame(width, height, alive, lifePoints, moods, types,
+                futureMoods, skippedGens, superVampires, thresholds, tileModifiers);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated generation frame", e);
+        }
+    }
+
+    private static boolean fitNibbles(int[] thresholds) {
+        for (int threshold : thresholds) {
+            if ((threshold & ~0xF) != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint.
+     *
+     * @param out   the destination buffer
+     * @param pos   the position where writing starts
+     * @param value the value to write, interpreted as unsigned
+     * @return the position after the last written byte
+     */
+    static int writeVarint(byte[] out, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint.
+     *
+     * @param in  the source buffer
+     * @param pos a single-element holder of the read position, advanced past the varint
+     * @return the decoded value
+     */
+    static int readVarint(byte[] in, int[] pos) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed varint in generation frame");
+    }
+}
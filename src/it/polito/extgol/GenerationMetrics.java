@@ -0,0 +1,384 @@
+package it.polito.extgol;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IntSummaryStatistics;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Figures of one generation computed by Board.analyze.
+ *
+ * All figures describe one frame and the aggregates of that frame, taken
+ * together from the generation. Population, type counts and energy
+ * statistics are read from the aggregates in O(1). Energy levels and
+ * neighbor groups come from a single pass over the 64-bit words of the
+ * frame's alive bits:
+ * <ul>
+ * <li>the neighbor counts of a word are summed with a bit-sliced adder from
+ * the alive bits read one row above, at and below it, and the alive cells of
+ * each count are counted with one population count per word and count, so
+ * neighbor groups cost word operations only;</li>
+ * <li>the lifePoints of every alive cell of the word are counted in their
+ * bucket, which sizes the energy levels.</li>
+ * </ul>
+ * Every group is kept in row-major order. Groups are lists that create a
+ * CellView when an element is read, over the alive cells of the frame sorted
+ * into their groups when the first group of a metric is read. A report can then be built on worker threads, and read after
+ * the board has evolved.
+ *
+ * Instances are immutable; asking for a metric that was not requested throws
+ * an IllegalStateException.
+ */
+public final class GenerationMetrics {
+
+    /** Bits of a neighbor count: 8 needs four planes. */
+    private static final int PLANES = 4;
+
+    private final int step;
+    private final Set<AnalyticsMetric> metrics;
+    private final GenerationAggregates aggregates;
+    private final Map<Integer, List<CellView>> energyLevels;
+    private final Map<Integer, List<CellView>> neighborGroups;
+
+    private GenerationMetrics(int step, Set<AnalyticsMetric> metrics, GenerationAggregates aggregates,
+            Map<Integer, List<CellView>> energyLevels, Map<Integer, List<CellView>> neighborGroups) {
+        this.step = step;
+        this.metrics = metrics;
+        this.aggregates = aggregates;
+        this.energyLevels = energyLevels;
+        this.neighborGroups = neighborGroups;
+    }
+
+    /**
+     * Computes the requested metrics of a frame in one pass over its alive
+     * cells, skipping the pass when only aggregate figures are requested.
+     *
+     * @param step       the step of the analyzed generation
+     * @param frame      the frame to analyze
+     * @param aggregates the aggregates of frame
+     * @param metrics    the metrics to compute
+     * @return the GenerationMetrics of the frame
+     */
+    static GenerationMetrics scan(int step, GenerationFrame frame, GenerationAggregates aggregates,
+            Set<AnalyticsMetric> metrics) {
+        boolean byEnergy = metrics.contains(AnalyticsMetric.ENERGY_LEVELS);
+        boolean byNeighbors = metrics.contains(AnalyticsMetric.NEIGHBOR_GROUPS);
+        if (!byEnergy && !byNeighbors)
+            return new GenerationMetrics(step, metrics, aggregates, Map.of(), Map.of());
+
+        int width = frame.getWidth();
+        long[] alive = frame.aliveWords();
+        int[] lifePoints = frame.lifePointsArray();
+        int population = aggregates.getPopulation();
+
+        // an energy bucket is the offset from the lowest lifePoints, or the
+        // rank among the distinct values when they are too spread out
+        int min = aggregates.getMinLifePoints();
+        long span = population == 0 ? 0 : (long) aggregates.getMaxLifePoints() - min + 1;
+        int[] levels = byEnergy && !EnergyIndex.isDense(span, population) ? distinctLifePoints(frame, population) : null;
+
+        // every alive cell in row-major order, with its energy bucket and its neighbor count
+        int[] cells = new int[population];
+        int[] buckets = byEnergy ? new int[population] : null;
+        int[] neighbors = byNeighbors ? new int[population] : null;
+        int n = 0;
+
+        // the cells of each bucket and of each count, at the index after it
+        int[] levelBounds = byEnergy ? new int[(levels == null ? (int) span : levels.length) + 1] : null;
+        int[] countBounds = byNeighbors ? new int[NeighborCounts.MAX_NEIGHBORS + 2] : null;
+
+        // bit p of the neighbor counts of the current word at index p
+        long[] planes = new long[PLANES];
+
+        // column of the first cell of word w
+        int column = 0;
+        for (int w = 0; w < alive.length; w++) {
+            long bits = alive[w];
+            int wordColumn = column;
+            column += 64;
+            if (column >= width)
+                column = column < 2 * width ? column - width : column % width;
+            if (bits == 0)
+                continue;
+            long p0 = 0;
+            long p1 = 0;
+            long p2 = 0;
+            long p3 = 0;
+            if (byNeighbors) {
+                countNeighbors(alive, width, w, wordColumn, planes);
+                p0 = planes[0];
+                p1 = planes[1];
+                p2 = planes[2];
+                p3 = planes[3];
+
+                // counts 0..7 split on their two high bits, then on the low one; 8 is p3 alone
+                long low = bits & ~p3;
+                long upTo1 = low & ~p2 & ~p1;
+                long upTo3 = low & ~p2 & p1;
+                long upTo5 = low & p2 & ~p1;
+                long upTo7 = low & p2 & p1;
+                countBounds[1] += Long.bitCount(upTo1 & ~p0);
+                countBounds[2] += Long.bitCount(upTo1 & p0);
+                countBounds[3] += Long.bitCount(upTo3 & ~p0);
+                countBounds[4] += Long.bitCount(upTo3 & p0);
+                countBounds[5] += Long.bitCount(upTo5 & ~p0);
+                countBounds[6] += Long.bitCount(upTo5 & p0);
+                countBounds[7] += Long.bitCount(upTo7 & ~p0);
+                countBounds[8] += Long.bitCount(upTo7 & p0);
+                countBounds[9] += Long.bitCount(bits & p3);
+            }
+            for (; bits != 0; bits &= bits - 1) {
+                int bit = Long.numberOfTrailingZeros(bits);
+                int i = (w << 6) + bit;
+                if (byEnergy) {
+                    int lp = lifePoints[i];
+                    int bucket = levels == null ? lp - min : Arrays.binarySearch(levels, lp);
+                    buckets[n] = bucket;
+                    levelBounds[bucket + 1]++;
+                }
+                if (byNeighbors) {
+                    neighbors[n] = (int) (p0 >>> bit & 1) | (int) (p1 >>> bit & 1) << 1
+                        | (int) (p2 >>> bit & 1) << 2 | (int) (p3 >>> bit & 1) << 3;
+                }
+                cells[n++] = i;
+            }
+        }
+
+        Map<Integer, List<CellView>> byLevel = Map.of();
+        if (byEnergy) {
+            int[] sorted = sortByGroup(cells, n, buckets, levelBounds);
+            Map<Integer, List<CellView>> groups = new LinkedHashMap<>();
+            for (int j = 0; j + 1 < levelBounds.length; j++) {
+                if (levelBounds[j + 1] > levelBounds[j])
+                    groups.put(levels == null ? min + j : levels[j],
+                        new Group(frame, sorted, levelBounds[j], levelBounds[j + 1]));
+            }
+            byLevel = Collections.unmodifiableMap(groups);
+        }
+        Map<Integer, List<CellView>> byCount = Map.of();
+        if (byNeighbors) {
+            int[] sorted = sortByGroup(cells, n, neighbors, countBounds);
+            Map<Integer, List<CellView>> groups = new LinkedHashMap<>();
+            for (int c = 0; c + 1 < countBounds.length; c++) {
+                if (countBounds[c + 1] > countBounds[c])
+                    groups.put(c, new Group(frame, sorted, countBounds[c], countBounds[c + 1]));
+            }
+            byCount = Collections.unmodifiableMap(groups);
+        }
+        return new GenerationMetrics(step, metrics, aggregates, byLevel, byCount);
+    }
+
+    /**
+     * Sorts cells by group with a stable counting sort, so that every group
+     * keeps the row-major order of the pass.
+     *
+     * @param cells  the indices of the cells to sort
+     * @param n      the number of cells
+     * @param groups the group of each cell
+     * @param bounds the number of cells of group j at index j + 1; replaced by
+     *               the start of group j at index j, followed by the end of the last group
+     * @return the cell indices sorted by group
+     */
+    private static int[] sortByGroup(int[] cells, int n, int[] groups, int[] bounds) {
+        for (int j = 1; j < bounds.length; j++) {
+            bounds[j] += bounds[j - 1];
+        }
+        int[] next = Arrays.copyOf(bounds, bounds.length - 1);
+        int[] sorted = new int[n];
+        for (int m = 0; m < n; m++) {
+            sorted[next[groups[m]]++] = cells[m];
+        }
+        return sorted;
+    }
+
+    /**
+     * Sums the eight neighbors of each cell of one word of the alive bits
+     * into the bits of their counts. Each neighbor direction is the alive
+     * bits read at a fixed offset from the word, cleared on the cells of the
+     * first or last column that it would wrap around to; carry-save adders
+     * then sum the directions in threes into ones and twos, and the twos and
+     * the fours are added in turn.
+     *
+     * @param alive  the row-major alive bits of the frame
+     * @param width  the number of columns of the board
+     * @param w      the index of the word
+     * @param column the column of the first cell of the word
+     * @param planes receives bit p of the count of each cell of the word at index p
+     */
+    private static void countNeighbors(long[] alive, int width, int w, int column, long[] planes) {
+        long first = 0;
+        long last = 0;
+        for (int j = column == 0 ? 0 : width - column; j < 64; j += width) {
+            first |= 1L << j;
+        }
+        for (int j = width - 1 - column; j < 64; j += width) {
+            last |= 1L << j;
+        }
+        long start = (long) w << 6;
+        long aw = bitsAt(alive, start - width - 1) & ~first;
+        long an = bitsAt(alive, start - width);
+        long ae = bitsAt(alive, start - width + 1) & ~last;
+        long rw = bitsAt(alive, start - 1) & ~first;
+        long re = bitsAt(alive, start + 1) & ~last;
+        long bw = bitsAt(alive, start + width - 1) & ~first;
+        long bn = bitsAt(alive, start + width);
+        long be = bitsAt(alive, start + width + 1) & ~last;
+
+        long s1 = aw ^ ae ^ an;
+        long c1 = (aw & ae) | (an & (aw ^ ae));
+        long s2 = rw ^ re ^ bn;
+        long c2 = (rw & re) | (bn & (rw ^ re));
+        long s3 = bw ^ be;
+        long c3 = bw & be;
+        long k1 = (s1 & s2) | (s3 & (s1 ^ s2));
+        long t1 = c1 ^ c2;
+        long t2 = c3 ^ k1;
+        long u1 = c1 & c2;
+        long u2 = c3 & k1;
+        long v = t1 & t2;
+        planes[0] = s1 ^ s2 ^ s3;
+        planes[1] = t1 ^ t2;
+        planes[2] = u1 ^ u2 ^ v;
+        planes[3] = (u1 & u2) | (v & (u1 ^ u2));
+    }
+
+    /**
+     * Reads 64 alive bits starting at any position, the positions before the
+     * first cell reading as dead.
+     */
+    private static long bitsAt(long[] alive, long start) {
+        if (start >= 0)
+            return GenerationFrame.bitsAt(alive, start);
+        return start > -64 ? alive[0] << -start : 0;
+    }
+
+    /**
+     * Returns the distinct lifePoints of the alive cells in ascending order,
+     * for the frames whose values are too spread out to be bucketed by offset.
+     */
+    private static int[] distinctLifePoints(GenerationFrame frame, int population) {
+        long[] alive = frame.aliveWords();
+        int[] lifePoints = frame.lifePointsArray();
+        int[] values = new int[population];
+        int n = 0;
+        for (int w = 0; w < alive.length; w++) {
+            for (long bits = alive[w]; bits != 0; bits &= bits - 1) {
+                values[n++] = lifePoints[(w << 6) + Long.numberOfTrailingZeros(bits)];
+            }
+        }
+        Arrays.sort(values, 0, n);
+        int distinct = 0;
+        for (int k = 0; k < n; k++) {
+            if (distinct == 0 || values[k] != values[distinct - 1])
+                values[distinct++] = values[k];
+        }
+        return Arrays.copyOf(values, distinct);
+    }
+
+    /**
+     * The views of the cells of one group, created from the sorted cell
+     * indices as they are read.
+     */
+    private static final class Group extends AbstractList<CellView> implements RandomAccess {
+
+        private final GenerationFrame frame;
+        private final int[] sorted;
+        private final int from;
+        private final int to;
+
+        Group(GenerationFrame frame, int[] sorted, int from, int to) {
+            this.frame = frame;
+            this.sorted = sorted;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public CellView get(int index) {
+            Objects.checkIndex(index, to - from);
+            return new CellView(frame, sorted[from + index]);
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+
+    private void require(AnalyticsMetric metric) {
+        if (!metrics.contains(metric))
+            throw new IllegalStateException(metric + " was not requested for this report");
+    }
+
+    /**
+     * Returns the step of the analyzed generation.
+     *
+     * @return the generation step
+     */
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * Returns the number of alive cells.
+     *
+     * @return the population of the generation
+     * @throws IllegalStateException if POPULATION was not requested
+     */
+    public int getPopulation() {
+        require(AnalyticsMetric.POPULATION);
+        return aggregates.getPopulation();
+    }
+
+    /**
+     * Returns the number of alive cells per CellType; types with no alive cell are omitted.
+     *
+     * @return a Map from CellType to the count of alive cells of that type
+     * @throws IllegalStateException if TYPE_COUNTS was not requested
+     */
+    public Map<CellType, Integer> getTypeCounts() {
+        require(AnalyticsMetric.TYPE_COUNTS);
+        return aggregates.getTypeCounts();
+    }
+
+    /**
+     * Returns the statistics of the lifePoints of the alive cells.
+     *
+     * @return a copy of the IntSummaryStatistics of the generation
+     * @throws IllegalStateException if ENERGY_STATISTICS was not requested
+     */
+    public IntSummaryStatistics getEnergyStatistics() {
+        require(AnalyticsMetric.ENERGY_STATISTICS);
+        return aggregates.getEnergyStatistics();
+    }
+
+    /**
+     * Returns the views of the alive cells grouped by lifePoints, each group
+     * in row-major order.
+     *
+     * @return an unmodifiable Map, sorted by lifePoints, from lifePoints value to the views having that energy
+     * @throws IllegalStateException if ENERGY_LEVELS was not requested
+     */
+    public Map<Integer, List<CellView>> getViewsByEnergyLevel() {
+        require(AnalyticsMetric.ENERGY_LEVELS);
+        return energyLevels;
+    }
+
+    /**
+     * Returns the views of the alive cells grouped by their number of alive
+     * neighbors, each group in row-major order.
+     *
+     * @return an unmodifiable Map, sorted by count, from neighbor count to the views having that many alive neighbors
+     * @throws IllegalStateException if NEIGHBOR_GROUPS was not requested
+     */
+    public Map<Integer, List<CellView>> getViewsByAliveNeighborCount() {
+        require(AnalyticsMetric.NEIGHBOR_GROUPS);
+        return neighborGroups;
+    }
+}
@@ -0,0 +1,292 @@
+package it.polito.extgol;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IntSummaryStatistics;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import org.hibernate.jpa.HibernateHints;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+
+/**
+ * Repository for stored generations, including analytics over persisted games.
+ *
+ * The analytic queries mirror those of Board but never hydrate the Board, its
+ * tiles or its cells. Counts, energy statistics and the energy histogram are
+ * aggregated when a generation is stored and read back from its
+ * generation_summary row, so they also cover pruned steps; only the
+ * top-energy cells need the frame column of the requested generation, to
+ * find where each cell was at that step. Both are looked up through their
+ * (game_id, step) unique index, and both reflect the state of each cell at
+ * that generation.
+ */
+public class GenerationRepository  extends GenericExtGOLRepository<Generation, Long> {
+
+    /** Generation steps covered by one delete statement in bulk deletions. */
+    static final int DELETE_CHUNK_STEPS = 1024;
+
+    public GenerationRepository() {
+        super(Generation.class);
+    }
+
+    /**
+     * Loads only the cell snapshot of a stored generation.
+     *
+     * @param gameId the id of the game
+     * @param step   the generation step
+     * @return the frame of the generation, or empty if no such generation is stored
+     */
+    public Optional<GenerationFrame> loadFrame(Long gameId, int step) {
+        Objects.requireNonNull(gameId);
+
+        EntityManager em = JPAUtil.getEntityManager();
+        try {
+            return em.createQuery(
+                "SELECT g.frame FROM Generation g WHERE g.game.id = :gameId AND g.step = :step",
+                GenerationFrame.class)
+                .setParameter("gameId", gameId)
+                .setParameter("step", step)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .getResultStream()
+                .findFirst();
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Counts alive cells per CellType in a stored generation.
+     *
+     * @param gameId the id of the game
+     * @param step   the generation step
+     * @return a Map from CellType to the count of alive cells of that type
+     * @throws IllegalArgumentException if the generation is not stored
+     */
+    public Map<CellType, Integer> countCellsByType(Long gameId, int step) {
+        return requireSummary(gameId, step).getTypeCounts();
+    }
+
+    /**
+     * Computes summary statistics over the alive cells' lifePoints in a stored generation.
+     *
+     * @param gameId the id of the game
+     * @param step   the generation step
+     * @return an IntSummaryStatistics with aggregated lifePoints metrics
+     * @throws IllegalArgumentException if the generation is not stored
+     */
+    public IntSummaryStatistics energyStatistics(Long gameId, int step) {
+        return requireSummary(gameId, step).getEnergyStatistics();
+    }
+
+    /**
+     * Counts the alive cells of a stored generation per lifePoints value.
+     *
+     * @param gameId the id of the game
+     * @param step   the generation step
+     * @return a Map, sorted by lifePoints, from lifePoints value to the number of alive cells
+     * @throws IllegalArgumentException if the generation is not stored
+     */
+    public Map<Integer, Integer> energyHistogram(Long gameId, int step) {
+        Objects.requireNonNull(gameId);
+
+        EntityManager em = JPAUtil.getEntityManager();
+        try {
+            return em.createQuery(
+                "SELECT s.energyHistogram FROM GenerationSummary s WHERE s.game.id = :gameId AND s.step = :step",
+                EnergyHistogram.class)
+                .setParameter("gameId", gameId)
+                .setParameter("step", step)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .getResultStream()
+                .findFirst()
+                .orElseThrow(() ->
+                    new IllegalArgumentException("No generation " + step + " stored for game " + gameId))
+                .toMap();
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Returns the top n alive cells of a stored generation sorted by descending
+     * lifePoints at that step; ties go to the cell closest to the top-left corner.
+     * Only the selected cells are loaded, with a named query whose IN list
+     * Hibernate pads to a power of two, so that any n shares a few statements.
+     *
+     * @param gameId the id of the game
+     * @param step   the generation step
+     * @param n      the number of top-energy cells to return
+     * @return a List of the top n Cells by lifePoints, in descending order
+     * @throws IllegalArgumentException if the generation is not stored
+     */
+    public List<Cell> topEnergyCells(Long gameId, int step, int n) {
+        GenerationFrame frame = requireFrame(gameId, step);
+        int[] top = frame.topEnergyIndices(n);
+        if (top.length == 0)
+            return new ArrayList<>();
+
+        Map<Integer, Integer> rank = new HashMap<>();
+        List<Integer> indices = new ArrayList<>(top.length);
+        for (int k = 0; k < top.length; k++) {
+            rank.put(top[k], k);
+            indices.add(top[k]);
+        }
+
+        EntityManager em = JPAUtil.getEntityManager();
+        try {
+            List<Cell> cells = em.createNamedQuery(Cell.BY_GAME_AND_INDICES, Cell.class)
+                .setParameter("gameId", gameId)
+                .setParameter("width", frame.getWidth())
+                .setParameter("indices", indices)
+                .getResultList();
+            cells.sort(Comparator.comparingInt(c -> rank.get(frame.indexOf(c.getCoordinates()))));
+            return cells;
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Loads the stored summaries of a game for the steps in [fromStep, toStep],
+     * ordered by step, with a single range scan of the (game_id, step) index.
+     *
+     * @param gameId   the id of the game
+     * @param fromStep the starting generation index (inclusive)
+     * @param toStep   the ending generation index (inclusive)
+     * @return the List of GenerationSummary rows in step order
+     */
+    public List<GenerationSummary> loadSummaries(Long gameId, int fromStep, int toStep) {
+        Objects.requireNonNull(gameId);
+
+        EntityManager em = JPAUtil.getEntityManager();
+        try {
+            return em.createQuery(
+                "SELECT s FROM GenerationSummary s " +
+                "WHERE s.game.id = :gameId AND s.step BETWEEN :fromStep AND :toStep " +
+                "ORDER BY s.step",
+                GenerationSummary.class)
+                .setParameter("gameId", gameId)
+                .setParameter("fromStep", fromStep)
+                .setParameter("toStep", toStep)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .getResultList();
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Returns a time series of energy statistics for each stored step in
+     * [fromStep, toStep], answered from the summary table alone.
+     *
+     * @param gameId   the id of the game
+     * @param fromStep the starting generation index (inclusive)
+     * @param toStep   the ending generation index (inclusive)
+     * @return a Map from generation step index to its IntSummaryStatistics
+     */
+    public Map<Integer, IntSummaryStatistics> getTimeSeriesStats(Long gameId, int fromStep, int toStep) {
+        Map<Integer, IntSummaryStatistics> series = new TreeMap<>();
+        for (GenerationSummary summary : loadSummaries(gameId, fromStep, toStep)) {
+            series.put(summary.getStep(), summary.getEnergyStatistics());
+        }
+        return series;
+    }
+
+    /**
+     * Deletes the stored generations of a game older than the given step,
+     * keeping one keyframe every keyframeInterval steps, in a single transaction.
+     *
+     * Generations are removed with set-based statements over bounded step
+     * ranges, reporting progress after each one. Step 0 is always a keyframe.
+     * Summaries are kept, so time-series queries still cover pruned steps;
+     * resuming is only possible from the generations that remain.
+     *
+     * @param gameId           the id of the game to prune
+     * @param beforeStep       generations at this step and later are kept
+     * @param keyframeInterval the distance between two kept generations
+     * @param progress         receives a report after each statement
+     * @return the number of deleted generations
+     * @throws IllegalArgumentException if keyframeInterval is not positive
+     */
+    public long prune(Long gameId, int beforeStep, int keyframeInterval, Consumer<DeletionProgress> progress) {
+        Objects.requireNonNull(gameId);
+        Objects.requireNonNull(progress);
+        if (keyframeInterval <= 0) {
+            throw new IllegalArgumentException("Keyframe interval must be positive");
+        }
+
+        long deleted = JPAUtil.fromTransaction(em -> deleteSteps(em,
+            "DELETE FROM Generation g WHERE g.game.id = :gameId " +
+            "AND g.step >= :fromStep AND g.step < :toStep AND MOD(g.step, :keyframeInterval) <> 0",
+            "generation", gameId, beforeStep, Map.of("keyframeInterval", keyframeInterval), 0L, progress));
+        evictAll();
+        return deleted;
+    }
+
+    /**
+     * Runs a set-based delete over the steps [0, endStep) of a game, one
+     * DELETE_CHUNK_STEPS range per statement, reporting after each statement.
+     *
+     * @param em       the EntityManager of the running transaction
+     * @param jpql     a DELETE statement with gameId, fromStep and toStep parameters
+     * @param table    the table name used in progress reports
+     * @param gameId   the id of the game
+     * @param endStep  the first step not to delete
+     * @param total    the rows deleted so far by the enclosing operation
+     * @param progress receives a report after each statement
+     * @return the updated total of deleted rows
+     */
+    static long deleteSteps(EntityManager em, String jpql, String table, Long gameId, int endStep,
+            long total, Consumer<DeletionProgress> progress) {
+        return deleteSteps(em, jpql, table, gameId, endStep, Map.of(), total, progress);
+    }
+
+    /**
+     * Runs a set-based delete like deleteSteps, binding the given extra
+     * parameters on every statement, so that they do not change the query plan.
+     *
+     * @param em       the EntityManager of the running transaction
+     * @param jpql     a DELETE statement with gameId, fromStep, toStep and the extra parameters
+     * @param table    the table name used in progress reports
+     * @param gameId   the id of the game
+     * @param endStep  the first step not to delete
+     * @param extra    the values of the other parameters of jpql, by name
+     * @param total    the rows deleted so far by the enclosing operation
+     * @param progress receives a report after each statement
+     * @return the updated total of deleted rows
+     */
+    static long deleteSteps(EntityManager em, String jpql, String table, Long gameId, int endStep,
+            Map<String, ?> extra, long total, Consumer<DeletionProgress> progress) {
+        for (int from = 0; from < endStep; from += DELETE_CHUNK_STEPS) {
+            Query delete = em.createQuery(jpql)
+                .setParameter("gameId", gameId)
+                .setParameter("fromStep", from)
+                .setParameter("toStep", Math.min(endStep, from + DELETE_CHUNK_STEPS));
+            extra.forEach(delete::setParameter);
+            int rows = delete.executeUpdate();
+            total += rows;
+            progress.accept(new DeletionProgress(table, rows, total));
+        }
+        return total;
+    }
+
+    private GenerationSummary requireSummary(Long gameId, int step) {
+        List<GenerationSummary> summary = loadSummaries(gameId, step, step);
+        if (summary.isEmpty())
+            throw new IllegalArgumentException("No generation " + step + " stored for game " + gameId);
+        return summary.get(0);
+    }
+
+    private GenerationFrame requireFrame(Long gameId, int step) {
+        return loadFrame(gameId, step).orElseThrow(() ->
+            new IllegalArgumentException("No generation " + step + " stored for game " + gameId));
+    }
+}
@@ -0,0 +1,239 @@
+package it.polito.extgol;
+
+import java.util.Arrays;
+import java.util.IntSummaryStatistics;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Columnar, in-memory time series of the aggregates of a game's generations.
+ *
+ * Each metric (population, min/max/sum lifePoints, alive cells per CellType
+ * and per CellMood) is a primitive array indexed by step - firstStep, filled
+ * from the generations' aggregates as the engine snaps them. Range queries
+ * are array slices: they never touch a Generation or a cell, so they keep
+ * working when the generations are no longer in memory.
+ *
+ * The series covers one contiguous range of steps. Recording a step already
+ * covered replaces its row; recording a step that does not follow the last
+ * one starts the series over from it, as happens when a game is resumed.
+ */
+public final class GenerationSeries {
+
+    private static final CellMood[] MOODS = CellMood.values();
+    private static final CellType[] TYPES = CellType.values();
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int firstStep;
+    private int size;
+
+    private int[] population = new int[INITIAL_CAPACITY];
+    private int[] minLifePoints = new int[INITIAL_CAPACITY];
+    private int[] maxLifePoints = new int[INITIAL_CAPACITY];
+    private long[] sumLifePoints = new long[INITIAL_CAPACITY];
+    private final int[][] typeCounts = new int[TYPES.length][INITIAL_CAPACITY];
+    private final int[][] moodCounts = new int[MOODS.length][INITIAL_CAPACITY];
+
+    /**
+     * Records the aggregates of a generation.
+     *
+     * @param step       the step of the generation
+     * @param aggregates the aggregates of its frame
+     */
+    void record(int step, GenerationAggregates aggregates) {
+        if (size == 0 || step < firstStep || step > firstStep + size) {
+            firstStep = step;
+            size = 0;
+        }
+        int row = step - firstStep;
+        if (row == size) {
+            if (size == population.length)
+                grow();
+            size++;
+        }
+        population[row] = aggregates.getPopulation();
+        minLifePoints[row] = aggregates.getMinLifePoints();
+        maxLifePoints[row] = aggregates.getMaxLifePoints();
+        sumLifePoints[row] = aggregates.getSumLifePoints();
+        for (CellType type : TYPES) {
+            typeCounts[type.ordinal()][row] = aggregates.count(type);
+        }
+        for (CellMood mood : MOODS) {
+            moodCounts[mood.ordinal()][row] = aggregates.count(mood);
+        }
+    }
+
+    /**
+     * Drops every recorded step.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    private void grow() {
+        int capacity = population.length * 2;
+        population = Arrays.copyOf(population, capacity);
+        minLifePoints = Arrays.copyOf(minLifePoints, capacity);
+        maxLifePoints = Arrays.copyOf(maxLifePoints, capacity);
+        sumLifePoints = Arrays.copyOf(sumLifePoints, capacity);
+        for (int t = 0; t < typeCounts.length; t++) {
+            typeCounts[t] = Arrays.copyOf(typeCounts[t], capacity);
+        }
+        for (int m = 0; m < moodCounts.length; m++) {
+            moodCounts[m] = Arrays.copyOf(moodCounts[m], capacity);
+        }
+    }
+
+    /**
+     * Returns the first recorded step.
+     *
+     * @return the step of the first row, meaningless if the series is empty
+     */
+    public int getFirstStep() {
+        return firstStep;
+    }
+
+    /**
+     * Returns the number of recorded steps.
+     *
+     * @return the length of every column
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Tells whether a step is recorded.
+     *
+     * @param step the generation step
+     * @return true if the series holds the aggregates of that step
+     */
+    public boolean covers(int step) {
+        return size > 0 && step >= firstStep && step < firstStep + size;
+    }
+
+    /**
+     * Builds the lifePoints statistics of the alive cells at a recorded step.
+     *
+     * @param step the generation step
+     * @return an IntSummaryStatistics with count, min, max and sum of the alive cells' lifePoints
+     * @throws IllegalArgumentException if the step is not recorded
+     */
+    public IntSummaryStatistics energyStatistics(int step) {
+        int row = row(step);
+        return new IntSummaryStatistics(population[row], minLifePoints[row], maxLifePoints[row], sumLifePoints[row]);
+    }
+
+    /**
+     * Builds the lifePoints statistics of every recorded step in [fromStep, toStep].
+     *
+     * @param fromStep the starting generation step (inclusive)
+     * @param toStep   the ending generation step (inclusive)
+     * @return a Map, sorted by step, from step to its IntSummaryStatistics
+     * @throws IllegalArgumentException if a step of the range is not recorded
+     */
+    public Map<Integer, IntSummaryStatistics> energyStatistics(int fromStep, int toStep) {
+        int from = row(fromStep);
+        int to = row(toStep);
+        Map<Integer, IntSummaryStatistics> series = new TreeMap<>();
+        for (int row = from; row <= to; row++) {
+            series.put(firstStep + row, new IntSummaryStatistics(
+                population[row], minLifePoints[row], maxLifePoints[row], sumLifePoints[row]));
+        }
+        return series;
+    }
+
+    /**
+     * Returns the population of each step in [fromStep, toStep].
+     *
+     * @param fromStep the starting generation step (inclusive)
+     * @param toStep   the ending generation step (inclusive)
+     * @return the alive cells of each step, element 0 being fromStep
+     * @throws IllegalArgumentException if a step of the range is not recorded
+     */
+    public int[] population(int fromStep, int toStep) {
+        return slice(population, fromStep, toStep);
+    }
+
+    /**
+     * Returns the lowest lifePoints among alive cells of each step in [fromStep, toStep].
+     *
+     * @param fromStep the starting generation step (inclusive)
+     * @param toStep   the ending generation step (inclusive)
+     * @return the minimum lifePoints of each step, 0 where no cell is alive
+     * @throws IllegalArgumentException if a step of the range is not recorded
+     */
+    public int[] minLifePoints(int fromStep, int toStep) {
+        return slice(minLifePoints, fromStep, toStep);
+    }
+
+    /**
+     * Returns the highest lifePoints among alive cells of each step in [fromStep, toStep].
+     *
+     * @param fromStep the starting generation step (inclusive)
+     * @param toStep   the ending generation step (inclusive)
+     * @return the maximum lifePoints of each step, 0 where no cell is alive
+     * @throws IllegalArgumentException if a step of the range is not recorded
+     */
+    public int[] maxLifePoints(int fromStep, int toStep) {
+        return slice(maxLifePoints, fromStep, toStep);
+    }
+
+    /**
+     * Returns the total lifePoints of the alive cells of each step in [fromStep, toStep].
+     *
+     * @param fromStep the starting generation step (inclusive)
+     * @param toStep   the ending generation step (inclusive)
+     * @return the sum of lifePoints of each step
+     * @throws IllegalArgumentException if a step of the range is not recorded
+     */
+    public long[] sumLifePoints(int fromStep, int toStep) {
+        checkRange(fromStep, toStep);
+        return Arrays.copyOfRange(sumLifePoints, fromStep - firstStep, toStep - firstStep + 1);
+    }
+
+    /**
+     * Returns the alive cells of a type at each step in [fromStep, toStep].
+     *
+     * @param type     the CellType to count
+     * @param fromStep the starting generation step (inclusive)
+     * @param toStep   the ending generation step (inclusive)
+     * @return the count of alive cells of that type at each step
+     * @throws IllegalArgumentException if a step of the range is not recorded
+     */
+    public int[] count(CellType type, int fromStep, int toStep) {
+        return slice(typeCounts[type.ordinal()], fromStep, toStep);
+    }
+
+    /**
+     * Returns the alive cells with a mood at each step in [fromStep, toStep].
+     *
+     * @param mood     the CellMood to count
+     * @param fromStep the starting generation step (inclusive)
+     * @param toStep   the ending generation step (inclusive)
+     * @return the count of alive cells with that mood at each step
+     * @throws IllegalArgumentException if a step of the range is not recorded
+     */
+    public int[] count(CellMood mood, int fromStep, int toStep) {
+        return slice(moodCounts[mood.ordinal()], fromStep, toStep);
+    }
+
+    private int[] slice(int[] column, int fromStep, int toStep) {
+        checkRange(fromStep, toStep);
+        return Arrays.copyOfRange(column, fromStep - firstStep, toStep - firstStep + 1);
+    }
+
+    private void checkRange(int fromStep, int toStep) {
+        row(fromStep);
+        row(toStep);
+        if (fromStep > toStep)
+            throw new IllegalArgumentException("Empty step range " + fromStep + ".." + toStep);
+    }
+
+    private int row(int step) {
+        if (!covers(step))
+            throw new IllegalArgumentException("Step " + step + " is not recorded in the series");
+        return step - firstStep;
+    }
+}
@@ -0,0 +1,262 @@
+package it.polito.extgol;
+
+import java.util.EnumMap;
+import java.util.IntSummaryStatistics;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jakarta.persistence.Basic;
+import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
+import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.Lob;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+
+/**
+ * Entity holding the aggregate figures of one generation.
+ *
+ * A summary is written together with its Generation and kept in sync with the
+ * generation's frame and event. It records the population, the min/max/sum
+ * lifePoints of the alive cells and how many alive cells there are of each
+ * CellType and CellMood, along with the EngineCounters of the evolution
+ * step that produced the generation. The histogram of the alive cells'
+ * lifePoints is kept in a lazy column, read only by histogram queries. Rows
+ * are few and narrow and are indexed by
+ * (game_id, step), so time-series queries over a stored game read a single
+ * index range instead of every cell of every generation.
+ */
+@Entity
+@Table(name = "generation_summary", uniqueConstraints = @UniqueConstraint(columnNames = { "game_id", "step" }))
+public class GenerationSummary {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /** Owning Game instance. */
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "game_id", nullable = false)
+    private Game game;
+
+    /** Step of the summarized generation. */
+    @Column(nullable = false)
+    private Integer step;
+
+    /** Event applied at the summarized generation, if any. */
+    private EventType event;
+
+    /** Number of alive cells. */
+    private int population;
+
+    /** Lowest lifePoints among alive cells, 0 if none is alive. */
+    private int minLifePoints;
+
+    /** Highest lifePoints among alive cells, 0 if none is alive. */
+    private int maxLifePoints;
+
+    /** Sum of the lifePoints of alive cells. */
+    private long sumLifePoints;
+
+    /** Alive cells per lifePoints value, loaded on first access. */
+    @Convert(converter = EnergyHistogramConverter.class)
+    @Basic(fetch = FetchType.LAZY)
+    @Lob
+    @Column(name = "energy_histogram")
+    private EnergyHistogram energyHistogram;
+
+    /** Alive cells per CellType. */
+    private int basicCount;
+    private int highlanderCount;
+    private int lonerCount;
+    private int socialCount;
+
+    /** Alive cells per CellMood. */
+    private int naiveCount;
+    private int healerCount;
+    private int vampireCount;
+
+    /** Events counted by the engine while producing the generation. */
+    private int births;
+    private int deaths;
+    private int extraLives;
+    private int bites;
+    private int gifts;
+    private int moodTransitions;
+    private int turnedVampire;
+
+    /**
+     * Protected no-argument constructor required by JPA.
+     */
+    protected GenerationSummary() {
+    }
+
+    /**
+     * Creates the summary of the given generation state.
+     *
+     * @param game  the Game the generation belongs to
+     * @param step  the generation step
+     * @param frame      the frame of the generation
+     * @param aggregates the aggregates of frame
+     * @param event      the event applied at this step, or null
+     */
+    GenerationSummary(Game game, int step, GenerationFrame frame, GenerationAggregates aggregates,
+            EventType event) {
+        this.game = game;
+        this.step = step;
+        update(frame, aggregates, event);
+    }
+
+    /**
+     * Copies every figure from the aggregates of the generation, and takes
+     * the histogram of its frame.
+     *
+     * @param frame      the frame of the generation
+     * @param aggregates the aggregates of frame
+     * @param event      the event applied at this step, or null
+     */
+    void update(GenerationFrame frame, GenerationAggregates aggregates, EventType event) {
+        this.event = event;
+        energyHistogram = EnergyHistogram.of(frame);
+
+        population = aggregates.getPopulation();
+        minLifePoints = aggregates.getMinLifePoints();
+        maxLifePoints = aggregates.getMaxLifePoints();
+        sumLifePoints = aggregates.getSumLifePoints();
+
+        basicCount = aggregates.count(CellType.BASIC);
+        highlanderCount = aggregates.count(CellType.HIGHLANDER);
+        lonerCount = aggregates.count(CellType.LONER);
+        socialCount = aggregates.count(CellType.SOCIAL);
+
+        naiveCount = aggregates.count(CellMood.NAIVE);
+        healerCount = aggregates.count(CellMood.HEALER);
+        vampireCount = aggregates.count(CellMood.VAMPIRE);
+    }
+
+    /**
+     * Returns the unique database identifier for this summary.
+     *
+     * @return the primary key of this GenerationSummary entity
+     */
+    public Long getId() {
+        return id;
+    }
+
+    /**
+     * Moves this summary to the given game, following its Generation.
+     *
+     * @param game the new owning Game
+     */
+    void setGame(Game game) {
+        this.game = game;
+    }
+
+    /**
+     * Returns the step of the summarized generation.
+     *
+     * @return the generation step
+     */
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * Returns the event applied at the summarized generation.
+     *
+     * @return the EventType, or null if no event was applied
+     */
+    public EventType getEvent() {
+        return event;
+    }
+
+    /**
+     * Returns the number of alive cells.
+     *
+     * @return the population of the generation
+     */
+    public int getPopulation() {
+        return population;
+    }
+
+    /**
+     * Rebuilds the lifePoints statistics of the alive cells, as Board.energyStatistics would.
+     *
+     * @return an IntSummaryStatistics with aggregated lifePoints metrics
+     */
+    public IntSummaryStatistics getEnergyStatistics() {
+        return new IntSummaryStatistics(population, minLifePoints, maxLifePoints, sumLifePoints);
+    }
+
+    /**
+     * Returns the number of alive cells per lifePoints value.
+     *
+     * @return a Map, sorted by lifePoints, from lifePoints value to the number of alive cells
+     */
+    public Map<Integer, Integer> getEnergyHistogram() {
+        return energyHistogram == null ? new TreeMap<>() : energyHistogram.toMap();
+    }
+
+    /**
+     * Returns the number of alive cells per CellType; types with no alive cell are omitted.
+     *
+     * @return a Map from CellType to the count of alive cells of that type
+     */
+    public Map<CellType, Integer> getTypeCounts() {
+        Map<CellType, Integer> counts = new EnumMap<>(CellType.class);
+        putIfPositive(counts, CellType.BASIC, basicCount);
+        putIfPositive(counts, CellType.HIGHLANDER, highlanderCount);
+        putIfPositive(counts, CellType.LONER, lonerCount);
+        putIfPositive(counts, CellType.SOCIAL, socialCount);
+        return counts;
+    }
+
+    /**
+     * Returns the number of alive cells per CellMood; moods with no alive cell are omitted.
+     *
+     * @return a Map from CellMood to the count of alive cells with that mood
+     */
+    public Map<CellMood, Integer> getMoodCounts() {
+        Map<CellMood, Integer> counts = new EnumMap<>(CellMood.class);
+        putIfPositive(counts, CellMood.NAIVE, naiveCount);
+        putIfPositive(counts, CellMood.HEALER, healerCount);
+        putIfPositive(counts, CellMood.VAMPIRE, vampireCount);
+        return counts;
+    }
+
+    /**
+     * Returns the events counted by the engine while producing the generation.
+     *
+     * @return the EngineCounters of the generation, all zero if it was not
+     *         produced by an evolution step
+     */
+    public EngineCounters getCounters() {
+        return new EngineCounters(births, deaths, extraLives, bites, gifts, moodTransitions, turnedVampire);
+    }
+
+    /**
+     * Records the events counted by the engine while producing the generation.
+     *
+     * @param counters the EngineCounters of the evolution step
+     */
+    void setCounters(EngineCounters counters) {
+        births = counters.births();
+        deaths = counters.deaths();
+        extraLives = counters.extraLives();
+        bites = counters.bites();
+        gifts = counters.gifts();
+        moodTransitions = counters.moodTransitions();
+        turnedVampire = counters.turnedVampire();
+    }
+
+    private static <K> void putIfPositive(Map<K, Integer> counts, K key, int value) {
+        if (value > 0)
+            counts.put(key, value);
+    }
+}
@@ -0,0 +1,289 @@
+package it.polito.extgol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.hibernate.Hibernate;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityTransaction;
+
+/**
+ * Write-behind persister for the generations of a running simulation.
+ *
+ * The evolution loop hands each completed Generation to submit(), which only
+ * enqueues an immutable snapshot of it (step, event, frame, aggregates and
+ * engine counters); a background thread drains the queue, builds a fresh
+ * Generation entity from each snapshot and inserts them in batches, one
+ * transaction per batch. The live generations are never touched by the
+ * background thread, so the simulation keeps evolving them freely; they are
+ * not linked to the rows written here, so later progress of the same game
+ * should be stored with checkpoint rather than saveGame. The queue is
+ * bounded, so when the writer lags behind submit() blocks until room is
+ * available.
+ *
+ * Call flush() at durability points: it returns once everything submitted so
+ * far is committed. A write failure is rethrown by the next submit(), flush()
+ * or close() call, after which the writer accepts no more generations.
+ *
+ * The owning Game must already be persisted (e.g. with saveGame or
+ * checkpoint) before its generations are submitted.
+ */
+public class GenerationWriter implements AutoCloseable {
+
+    /** Default number of generations that can wait in the queue. */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /** Default number of generations written per transaction. */
+    public static final int DEFAULT_BATCH_SIZE = 32;
+
+    private final BlockingQueue<Snapshot> queue;
+    private final int batchSize;
+    private final Thread worker;
+
+    /** Guards the counters below and signals progress to flush(). */
+    private final Object progress = new Object();
+    private long submitted = 0;
+    private long written = 0;
+    private long batches = 0;
+    private long totalWriteNanos = 0;
+    private long maxWriteNanos = 0;
+    private RuntimeException failure = null;
+    private boolean closed = false;
+
+    /**
+     * Creates a writer with the default capacity and batch size.
+     */
+    public GenerationWriter() {
+        this(DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a writer and starts its background thread.
+     *
+     * @param capacity  the maximum number of generations waiting to be written
+     * @param batchSize the maximum number of generations written per transaction
+     * @throws IllegalArgumentException if capacity or batchSize is not positive
+     */
+    public GenerationWriter(int capacity, int batchSize) {
+        if (capacity <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("Capacity and batch size must be positive");
+        }
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.worker = new Thread(this::drain, "extgol-generation-writer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Enqueues a snapshot of a completed generation for writing, blocking
+     * while the queue is full. The generation itself is not retained.
+     *
+     * @param generation the Generation to persist; its Game must already be stored
+     * @throws IllegalStateException if the writer is closed or a previous write failed
+     */
+    public void submit(Generation generation) {
+        Objects.requireNonNull(generation);
+        Snapshot snapshot = Snapshot.of(generation);
+        synchronized (progress) {
+            checkUsable();
+            submitted++;
+        }
+        try {
+            queue.put(snapshot);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the generation writer", e);
+        }
+    }
+
+    /**
+     * Waits until every generation submitted so far has been committed.
+     *
+     * @throws IllegalStateException if a write failed, with the failure as cause
+     */
+    public void flush() {
+        synchronized (progress) {
+            long target = submitted;
+            while (written < target && failure == null) {
+                try {
+                    progress.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while flushing the generation writer", e);
+                }
+            }
+            if (failure != null) {
+                throw new IllegalStateException("Write-behind persistence failed", failure);
+            }
+        }
+    }
+
+    /**
+     * Flushes pending generations and stops the background thread.
+     *
+     * @throws IllegalStateException if a write failed
+     */
+    @Override
+    public void close() {
+        try {
+            flush();
+        } finally {
+            synchronized (progress) {
+                closed = true;
+            }
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of generations currently waiting to be written.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the number of generations committed so far.
+     *
+     * @return the count of written generations
+     */
+    public long getWrittenCount() {
+        synchronized (progress) {
+            return written;
+        }
+    }
+
+    /**
+     * Returns the average time spent writing one batch, transaction included.
+     *
+     * @return the mean batch write latency in nanoseconds, or 0 if nothing was written
+     */
+    public long getAverageWriteLatencyNanos() {
+        synchronized (progress) {
+            return batches == 0 ? 0 : totalWriteNanos / batches;
+        }
+    }
+
+    /**
+     * Returns the longest time spent writing one batch, transaction included.
+     *
+     * @return the maximum batch write latency in nanoseconds
+     */
+    public long getMaxWriteLatencyNanos() {
+        synchronized (progress) {
+            return maxWriteNanos;
+        }
+    }
+
+    private void checkUsable() {
+        if (failure != null) {
+            throw new IllegalStateException("Write-behind persistence failed", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Generation writer is closed");
+        }
+    }
+
+    /**
+     * Background loop: takes the next snapshot, drains up to a batch and
+     * writes it in a single transaction.
+     */
+    private void drain() {
+        List<Snapshot> batch = new ArrayList<>(batchSize);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, batchSize - 1);
+
+            long start = System.nanoTime();
+            RuntimeException error = null;
+            try {
+                write(batch);
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            long elapsed = System.nanoTime() - start;
+
+            synchronized (progress) {
+                if (error != null) {
+                    failure = error;
+                } else {
+                    written += batch.size();
+                    batches++;
+                    totalWriteNanos += elapsed;
+                    maxWriteNanos = Math.max(maxWriteNanos, elapsed);
+                }
+                progress.notifyAll();
+            }
+            batch.clear();
+            if (error != null) {
+                queue.clear();
+                return;
+            }
+        }
+    }
+
+    private static void write(List<Snapshot> batch) {
+        EntityManager em = JPAUtil.getWritingEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            for (Snapshot snapshot : batch) {
+                if (snapshot.gameId() == null || snapshot.boardId() == null) {
+                    throw new IllegalStateException("Game of generation " + snapshot.step() + " is not persisted");
+                }
+                em.persist(Generation.forStorage(
+                    em.getReference(Game.class, snapshot.gameId()),
+                    em.getReference(Board.class, snapshot.boardId()),
+                    snapshot.step(), snapshot.event(), snapshot.frame(),
+                    snapshot.aggregates(), snapshot.counters()));
+            }
+            tx.commit();
+        } catch (RuntimeException ex) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw ex;
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Everything needed to store a generation, captured on the simulation
+     * thread. The frame, aggregates and counters are immutable once a
+     * Generation publishes them, and the queue hands the snapshot over to the
+     * background thread safely.
+     */
+    private record Snapshot(Long gameId, Integer boardId, int step, EventType event,
+            GenerationFrame frame, GenerationAggregates aggregates, EngineCounters counters) {
+
+        static Snapshot of(Generation generation) {
+            Long gameId = generation.getGame().getId();
+            Board board = generation.getBoard();
+            return new Snapshot(gameId, boardId(board),
+                generation.getStep(), generation.getEvent(), generation.getFrame(),
+                generation.getAggregates(), generation.getCounters());
+        }
+
+        /**
+         * The id of the board, or null while it is not persisted; an
+         * uninitialized proxy always carries its id and is not loaded for it.
+         */
+        private static Integer boardId(Board board) {
+            if (board == null)
+                return null;
+            return Hibernate.isInitialized(board) ? board.getStoredId() : Integer.valueOf(board.getId());
+        }
+    }
+}
@@ -1,25 +1,39 @@
 package it.polito.extgol;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 
+import org.hibernate.SessionFactory;
+
 import jakarta.persistence.Entity;
 import jakarta.persistence.EntityManager;
-import jakarta.persistence.EntityTransaction;
+import jakarta.persistence.EntityManagerFactory;
 
 /**
  * A generic JPA repository providing basic operations for any
  * entity type annotated with @Entity. Subclasses must supply the
  * specific entity class to enable runtime operations.
  *
+ * findAll runs the named query "<entity name>.findAll", which every entity
+ * served by a repository declares, so that its statement is parsed once when
+ * the persistence unit starts rather than built from a string on each call.
+ *
  * @param <E> the type of the JPA entity
  * @param <I> the type of the entity’s identifier
  */
 public class GenericExtGOLRepository<E, I> {
 
+    /**
+     * Number of entities processed by the bulk operations before the
+     * persistence context is flushed and cleared; matches the JDBC batch size.
+     */
+    protected static final int BATCH_SIZE = 50;
+
     private final Class<E> entityClass;
     protected final String entityName;
+    private final String findAllQuery;
 
     /**
      * Constructs a repository for the given entity class.
@@ -32,6 +46,7 @@ public class GenericExtGOLRepository<E, I> {
         Objects.requireNonNull(entityClass, "Entity class must not be null");
         this.entityClass = entityClass;
         this.entityName = getEntityName(entityClass);
+        this.findAllQuery = entityName + ".findAll";
     }
 
     /**
@@ -60,22 +75,34 @@ public class GenericExtGOLRepository<E, I> {
     public Optional<E> findById(I id) {
         EntityManager em = JPAUtil.getEntityManager();
         try {
-            E entity = em.find(entityClass, id);
-            return Optional.ofNullable(entity);
+            return findById(id, em);
         } finally {
             em.close();
         }
     }
 
+    /**
+     * Finds an entity instance by its identifier within the caller's persistence context.
+     *
+     * @param id the primary key of the entity to retrieve
+     * @param em the EntityManager of the caller's unit of work
+     * @return an Optional containing the managed entity, or empty if not found
+     */
+    public Optional<E> findById(I id, EntityManager em) {
+        Objects.requireNonNull(em);
+        return Optional.ofNullable(em.find(entityClass, id));
+    }
+
     /**
      * Retrieves all instances of the entity type from the database.
      *
      * @return a List containing all persisted entities of this type
+     * @throws IllegalArgumentException if the entity declares no findAll named query
      */
     public List<E> findAll() {
         EntityManager em = JPAUtil.getEntityManager();
         try {
-            return em.createQuery("SELECT e FROM " + entityName + " e", entityClass)
+            return em.createNamedQuery(findAllQuery, entityClass)
                      .getResultList();
         } finally {
             em.close();
@@ -89,20 +116,38 @@ public class GenericExtGOLRepository<E, I> {
      * @throws RuntimeException if the transaction fails
      */
     public void create(E entity) {
-        EntityManager em = JPAUtil.getEntityManager();
-        EntityTransaction tx = em.getTransaction();
-        try {
-            tx.begin();
-            em.persist(entity);
-            tx.commit();
-        } catch (RuntimeException ex) {
-            if (tx.isActive()) {
-                tx.rollback();
+        JPAUtil.inTransaction(em -> create(entity, em));
+    }
+
+    /**
+     * Persists a new entity instance as part of the caller's unit of work.
+     *
+     * @param entity the entity to be created and managed
+     * @param em     the EntityManager of the caller's transaction
+     */
+    public void create(E entity, EntityManager em) {
+        Objects.requireNonNull(em);
+        em.persist(entity);
+    }
+
+    /**
+     * Persists all the given entities in a single transaction.
+     *
+     * The persistence context is flushed and cleared every BATCH_SIZE entities,
+     * so memory stays bounded and inserts are sent in JDBC batches.
+     *
+     * @param entities the entities to be created
+     * @throws RuntimeException if the transaction fails; no entity is stored in that case
+     */
+    public void createAll(Collection<? extends E> entities) {
+        Objects.requireNonNull(entities);
+        JPAUtil.inTransaction(em -> {
+            int count = 0;
+            for (E entity : entities) {
+                em.persist(entity);
+                flushPeriodically(em, ++count);
             }
-            throw ex;
-        } finally {
-            em.close();
-        }
+        });
     }
 
     /**
@@ -112,20 +157,40 @@ public class GenericExtGOLRepository<E, I> {
      * @throws RuntimeException if the transaction fails
      */
     public void update(E entity) {
-        EntityManager em = JPAUtil.getEntityManager();
-        EntityTransaction tx = em.getTransaction();
-        try {
-            tx.begin();
-            em.merge(entity);
-            tx.commit();
-        } catch (RuntimeException ex) {
-            if (tx.isActive()) {
-                tx.rollback();
+        JPAUtil.inTransaction(em -> update(entity, em));
+        evict(entity);
+    }
+
+    /**
+     * Merges changes of a detached entity as part of the caller's unit of work.
+     *
+     * @param entity the modified entity to synchronize with the database
+     * @param em     the EntityManager of the caller's transaction
+     * @return the managed instance holding the merged state
+     */
+    public E update(E entity, EntityManager em) {
+        Objects.requireNonNull(em);
+        return em.merge(entity);
+    }
+
+    /**
+     * Merges all the given detached entities in a single transaction.
+     *
+     * The persistence context is flushed and cleared every BATCH_SIZE entities.
+     *
+     * @param entities the modified entities to synchronize with the database
+     * @throws RuntimeException if the transaction fails; no change is stored in that case
+     */
+    public void updateAll(Collection<? extends E> entities) {
+        Objects.requireNonNull(entities);
+        JPAUtil.inTransaction(em -> {
+            int count = 0;
+            for (E entity : entities) {
+                em.merge(entity);
+                flushPeriodically(em, ++count);
             }
-            throw ex;
-        } finally {
-            em.close();
-        }
+        });
+        evictAll();
     }
 
     /**
@@ -135,20 +200,79 @@ public class GenericExtGOLRepository<E, I> {
      * @throws RuntimeException if the transaction fails
      */
     public void delete(E entity) {
-        EntityManager em = JPAUtil.getEntityManager();
-        EntityTransaction tx = em.getTransaction();
-        try {
-            tx.begin();
-            E managed = em.contains(entity) ? entity : em.merge(entity);
-            em.remove(managed);
-            tx.commit();
-        } catch (RuntimeException ex) {
-            if (tx.isActive()) {
-                tx.rollback();
+        JPAUtil.inTransaction(em -> delete(entity, em));
+        evict(entity);
+    }
+
+    /**
+     * Deletes an entity instance as part of the caller's unit of work.
+     *
+     * @param entity the entity to remove, managed or detached
+     * @param em     the EntityManager of the caller's transaction
+     */
+    public void delete(E entity, EntityManager em) {
+        Objects.requireNonNull(em);
+        E managed = em.contains(entity) ? entity : em.merge(entity);
+        em.remove(managed);
+    }
+
+    /**
+     * Deletes all the given entities in a single transaction.
+     *
+     * The persistence context is flushed and cleared every BATCH_SIZE entities.
+     *
+     * @param entities the entities to remove
+     * @throws RuntimeException if the transaction fails; nothing is deleted in that case
+     */
+    public void deleteAll(Collection<? extends E> entities) {
+        Objects.requireNonNull(entities);
+        JPAUtil.inTransaction(em -> {
+            int count = 0;
+            for (E entity : entities) {
+                delete(entity, em);
+                flushPeriodically(em, ++count);
             }
-            throw ex;
-        } finally {
-            em.close();
+        });
+        evictAll();
+    }
+
+    /**
+     * Flushes pending changes and detaches all managed entities once every
+     * BATCH_SIZE processed entities.
+     *
+     * @param em    the EntityManager of the running bulk operation
+     * @param count the number of entities processed so far
+     */
+    protected void flushPeriodically(EntityManager em, int count) {
+        if (count % BATCH_SIZE == 0) {
+            em.flush();
+            em.clear();
+        }
+    }
+
+    /**
+     * Removes the given entity and every cached query result from the
+     * second-level cache, so that readers never observe a stale copy after
+     * an update or a delete.
+     *
+     * @param entity the entity that was changed
+     */
+    protected void evict(E entity) {
+        EntityManagerFactory emf = JPAUtil.getEntityManagerFactory();
+        Object id = emf.getPersistenceUnitUtil().getIdentifier(entity);
+        if (id != null) {
+            emf.getCache().evict(entityClass, id);
         }
+        emf.unwrap(SessionFactory.class).getCache().evictQueryRegions();
+    }
+
+    /**
+     * Removes every instance of this entity type and every cached query result
+     * from the second-level cache, after a bulk change.
+     */
+    protected void evictAll() {
+        EntityManagerFactory emf = JPAUtil.getEntityManagerFactory();
+        emf.getCache().evict(entityClass);
+        emf.unwrap(SessionFactory.class).getCache().evictQueryRegions();
     }
-}
\ No newline at end of file
+}
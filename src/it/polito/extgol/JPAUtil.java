@@ -1,40 +1,95 @@
 package it.polito.extgol;
 
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.jpa.SpecHints;
+import org.hibernate.stat.Statistics;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import jakarta.persistence.CacheStoreMode;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.EntityTransaction;
 import jakarta.persistence.Persistence;
 
 /**
- * Utility class for managing the JPA EntityManagerFactory and
+ * Utility class for managing the JPA EntityManagerFactory instances and
  * providing EntityManager instances for database operations.
  *
- * Uses a singleton EntityManagerFactory tied to the persistence unit
- * "game-of-life-pu" to create short-lived EntityManager instances.
+ * Keeps one EntityManagerFactory per persistence unit, created at most once even
+ * when many threads ask for it at the same time, and hands out short-lived
+ * EntityManager instances. The default unit is "game-of-life-pu"; setting the
+ * system property "extgol.persistence.unit" selects another one, e.g.
+ * "game-of-life-file-pu" to keep games in a file that survives restarts. Other
+ * units (one per tenant or shard) are addressed by name. Each unit draws its
+ * connections from a bounded HikariCP pool, whose figures are available through
+ * getPoolMetrics and as JMX MBeans.
  */
 public class JPAUtil {
 
-    /** The singleton EntityManagerFactory. */
-    private static EntityManagerFactory emf;
+    /** The EntityManagerFactory of each persistence unit, possibly still being built. */
+    private static final ConcurrentMap<String, CompletableFuture<EntityManagerFactory>> FACTORIES =
+        new ConcurrentHashMap<>();
 
-    /** The name of the persistence unit defined in persistence.xml. */
+    /** Builds factories on a daemon thread, so warming up never blocks the caller or the JVM exit. */
+    private static final Executor WARM_UP = work -> {
+        Thread thread = new Thread(work, "extgol-jpa-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    };
+
+    /** The name of the default persistence unit defined in persistence.xml. */
     private static final String PU_NAME = "game-of-life-pu";
 
+    /** System property overriding the persistence unit to use. */
+    public static final String PU_PROPERTY = "extgol.persistence.unit";
+
     private JPAUtil() {} // utility class need not to be instantiated
-    
+
     /**
-     * Lazily initializes (if necessary) and returns the shared EntityManagerFactory.
+     * Returns the name of the persistence unit used when none is given.
      *
-     * @return the open EntityManagerFactory for the configured persistence unit
+     * @return the value of the "extgol.persistence.unit" property, or "game-of-life-pu"
      */
-    private static EntityManagerFactory getCurrentFactory() {
-        if (emf == null || !emf.isOpen()) {
-            emf = Persistence.createEntityManagerFactory(PU_NAME);
-        }
-        return emf;
+    public static String getDefaultUnit() {
+        return System.getProperty(PU_PROPERTY, PU_NAME);
     }
 
     /**
-     * Creates and returns a new EntityManager from the shared factory.
+     * Starts building the factory of the default persistence unit in the background.
+     *
+     * @return a future completed with the factory once it is ready
+     */
+    public static CompletableFuture<EntityManagerFactory> warmUp() {
+        return warmUp(getDefaultUnit());
+    }
+
+    /**
+     * Starts building the factory of the given persistence unit in the background,
+     * unless it is already open or being built. Callers asking for the factory
+     * meanwhile wait for this build instead of starting their own.
+     *
+     * @param unit the name of the persistence unit
+     * @return a future completed with the factory once it is ready
+     */
+    public static CompletableFuture<EntityManagerFactory> warmUp(String unit) {
+        return factory(unit, WARM_UP);
+    }
+
+    /**
+     * Creates and returns a new EntityManager from the factory of the default unit.
      *
      * Clients should obtain an EntityManager using this method, use it for
      * transactions or queries, and then close it when done.
@@ -42,17 +97,205 @@ public class JPAUtil {
      * @return a new EntityManager instance
      */
     public static EntityManager getEntityManager() {
-        return getCurrentFactory().createEntityManager();
+        return getEntityManagerFactory().createEntityManager();
+    }
+
+    /**
+     * Creates a new EntityManager of the default unit for storing the progress
+     * of a running game. It still reads through the second-level cache, but
+     * what it writes only invalidates the cached copies instead of replacing
+     * them: a running game rewrites most of its cells at every checkpoint,
+     * and caching each version would cost more than the reads it saves.
+     *
+     * @return a new EntityManager that does not store into the second-level cache
+     */
+    static EntityManager getWritingEntityManager() {
+        EntityManager em = getEntityManager();
+        em.setProperty(SpecHints.HINT_SPEC_CACHE_STORE_MODE, CacheStoreMode.BYPASS);
+        return em;
+    }
+
+    /**
+     * Creates and returns a new EntityManager of the given persistence unit.
+     *
+     * @param unit the name of the persistence unit
+     * @return a new EntityManager instance
+     */
+    public static EntityManager getEntityManager(String unit) {
+        return getEntityManagerFactory(unit).createEntityManager();
+    }
+
+    /**
+     * Returns the factory of the default persistence unit, creating it if necessary.
+     *
+     * @return the open EntityManagerFactory for the configured persistence unit
+     */
+    public static EntityManagerFactory getEntityManagerFactory() {
+        return getEntityManagerFactory(getDefaultUnit());
+    }
+
+    /**
+     * Returns the factory of the given persistence unit, creating it on the
+     * calling thread if nobody else is already doing so.
+     *
+     * @param unit the name of the persistence unit
+     * @return the open EntityManagerFactory for that persistence unit
+     * @throws RuntimeException if the factory cannot be created
+     */
+    public static EntityManagerFactory getEntityManagerFactory(String unit) {
+        try {
+            return factory(unit, Runnable::run).join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException cause)
+                throw cause;
+            throw new IllegalStateException("Cannot create the persistence unit " + unit, ex.getCause());
+        }
+    }
+
+    /**
+     * Returns the pending or open factory of a unit, registering a new build
+     * when there is none. Only the thread that registers the build runs it, on
+     * the given executor; a failed build is unregistered so the next call retries.
+     */
+    private static CompletableFuture<EntityManagerFactory> factory(String unit, Executor executor) {
+        Objects.requireNonNull(unit);
+
+        CompletableFuture<EntityManagerFactory> created = new CompletableFuture<>();
+        CompletableFuture<EntityManagerFactory> current =
+            FACTORIES.compute(unit, (name, existing) -> isUsable(existing) ? existing : created);
+        if (current == created) {
+            executor.execute(() -> {
+                try {
+                    created.complete(Persistence.createEntityManagerFactory(unit));
+                } catch (RuntimeException | Error ex) {
+                    FACTORIES.remove(unit, created);
+                    created.completeExceptionally(ex);
+                }
+            });
+        }
+        return current;
+    }
+
+    private static boolean isUsable(CompletableFuture<EntityManagerFactory> factory) {
+        if (factory == null || factory.isCompletedExceptionally())
+            return false;
+        return !factory.isDone() || factory.join().isOpen();
+    }
+
+    /**
+     * Runs the given work inside a single transaction on a new EntityManager.
+     *
+     * This is the unit of work through which callers combine several repository
+     * operations (the overloads taking an EntityManager) atomically: the
+     * transaction is committed when the work completes, rolled back if it throws,
+     * and the EntityManager is always closed.
+     *
+     * @param work the operations to perform with the transactional EntityManager
+     * @throws RuntimeException if the work or the commit fails
+     */
+    public static void inTransaction(Consumer<EntityManager> work) {
+        fromTransaction(em -> {
+            work.accept(em);
+            return null;
+        });
+    }
+
+    /**
+     * Runs the given work inside a single transaction and returns its result.
+     *
+     * @param <R>  the type of the result
+     * @param work the operations to perform with the transactional EntityManager
+     * @return the value produced by the work
+     * @throws RuntimeException if the work or the commit fails
+     */
+    public static <R> R fromTransaction(Function<EntityManager, R> work) {
+        Objects.requireNonNull(work);
+
+        EntityManager em = getEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            R result = work.apply(em);
+            tx.commit();
+            return result;
+        } catch (RuntimeException ex) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw ex;
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Returns the Hibernate statistics of the default unit, including
+     * second-level and query cache hit, miss and put counts. The persistence
+     * units do not collect them: call setStatisticsEnabled(true) on the
+     * result before measuring, and disable them again afterwards.
+     *
+     * @return the live Statistics of the configured persistence unit
+     */
+    public static Statistics getStatistics() {
+        return getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
     }
 
     /**
-     * Closes the shared EntityManagerFactory if it is open.
+     * Returns the current figures of the connection pool of the default unit.
+     *
+     * @return a snapshot of the pool of the configured persistence unit
+     */
+    public static PoolMetrics getPoolMetrics() {
+        return getPoolMetrics(getDefaultUnit());
+    }
+
+    /**
+     * Returns the current figures of the connection pool of the given unit.
+     *
+     * @param unit the name of the persistence unit
+     * @return a snapshot of the pool of that persistence unit
+     * @throws IllegalStateException if the unit is not configured with a HikariCP pool
+     */
+    public static PoolMetrics getPoolMetrics(String unit) {
+        ConnectionProvider provider = getEntityManagerFactory(unit).unwrap(SessionFactoryImplementor.class)
+            .getServiceRegistry().requireService(ConnectionProvider.class);
+        if (!provider.isUnwrappableAs(HikariDataSource.class))
+            throw new IllegalStateException("Persistence unit " + unit + " does not use a HikariCP pool");
+
+        HikariDataSource pool = provider.unwrap(HikariDataSource.class);
+        HikariPoolMXBean figures = pool.getHikariPoolMXBean();
+        return new PoolMetrics(unit, figures.getActiveConnections(), figures.getIdleConnections(),
+            figures.getTotalConnections(), figures.getThreadsAwaitingConnection(), pool.getMaximumPoolSize());
+    }
+
+    /**
+     * Closes the factories of all persistence units, waiting for pending builds.
      *
      * Should be invoked during application shutdown to release resources.
      */
     public static void close() {
-        if (emf != null && emf.isOpen()) {
-            emf.close();
+        for (String unit : FACTORIES.keySet()) {
+            close(unit);
+        }
+    }
+
+    /**
+     * Closes the factory of the given persistence unit, and with it its
+     * connection pool; the next request for that unit builds a new one.
+     *
+     * @param unit the name of the persistence unit
+     */
+    public static void close(String unit) {
+        CompletableFuture<EntityManagerFactory> factory = FACTORIES.remove(unit);
+        if (factory == null)
+            return;
+        try {
+            EntityManagerFactory emf = factory.join();
+            if (emf.isOpen()) {
+                emf.close();
+            }
+        } catch (CompletionException ex) {
+            // the build failed, there is nothing to close
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,71 @@
+package it.polito.extgol;
+
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityTransaction;
+
+/**
+ * Default GameStore, keeping games in the relational database of the
+ * configured persistence unit through JPA.
+ *
+ * Creating the store does not touch the database: the persistence unit is
+ * built by the first operation that needs it. Applications that want the
+ * first save to find it ready can call JPAUtil.warmUp() at startup, which
+ * builds it in the background while the first simulations run.
+ */
+public class JpaGameStore implements GameStore {
+
+    private final GameRepository games = new GameRepository();
+
+    /**
+     * Persists the game if it is new, or merges its whole graph otherwise;
+     * a resumed game first has the stored generations after its resumed step
+     * deleted.
+     */
+    @Override
+    public void save(Game game) {
+        EntityManager em = JPAUtil.getWritingEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            if (game.getId() == null) {
+                em.persist(game);
+            } else {
+                if (game.getResumedStep() != null)
+                    GameRepository.discardAfter(em, game.getId(), game.getResumedStep());
+                em.merge(game);
+            }
+            tx.commit();
+            game.clearResumedStep();
+        } catch (RuntimeException e) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    @Override
+    public void checkpoint(Game game) {
+        games.checkpoint(game);
+    }
+
+    @Override
+    public Optional<Game> resume(Long gameId, int step) {
+        return games.resume(gameId, step);
+    }
+
+    @Override
+    public Stream<StoredGeneration> replay(Long gameId) {
+        return games.replay(gameId);
+    }
+
+    @Override
+    public boolean delete(Long gameId) {
+        return games.deleteGame(gameId, progress -> {}) > 0;
+    }
+}
@@ -0,0 +1,179 @@
+package it.polito.extgol;
+
+/**
+ * Number of alive neighbors of every cell of one generation, computed from
+ * the generation's frame rather than from the live cells.
+ *
+ * The counts are the convolution of the alive bits with the 8-cell
+ * neighborhood used by the simulation, borders excluded. Each board row is
+ * realigned to whole 64-bit words, and the eight shifted neighbor rows are
+ * summed with a bit-sliced adder into four bit planes, so building the
+ * counts of a board costs O(cells/64) word operations. Reading a cell's
+ * count combines one bit of each plane.
+ *
+ * Instances are immutable; Generation builds them on first use and drops
+ * them whenever its frame changes.
+ */
+public final class NeighborCounts {
+
+    /** Highest number of alive neighbors a cell can have. */
+    public static final int MAX_NEIGHBORS = 8;
+
+    /** Bits of a count: 8 needs four planes. */
+    private static final int PLANES = 4;
+
+    private final int width;
+    private final int height;
+
+    /** Number of 64-bit words of each realigned row. */
+    private final int rowWords;
+
+    /** Realigned alive bits, row y in words [y * rowWords, (y + 1) * rowWords). */
+    private final long[] aliveRows;
+
+    /** Bit p of each cell's count, realigned like aliveRows. */
+    private final long[][] planes;
+
+    private NeighborCounts(int width, int height, int rowWords, long[] aliveRows, long[][] planes) {
+        this.width = width;
+        this.height = height;
+        this.rowWords = rowWords;
+        this.aliveRows = aliveRows;
+        this.planes = planes;
+    }
+
+    /**
+     * Computes the neighbor counts of a frame.
+     *
+     * @param frame the frame whose alive bits are convolved
+     * @return the NeighborCounts of every cell of frame
+     */
+    static NeighborCounts of(GenerationFrame frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int rowWords = (width + 63) >>> 6;
+        long lastMask = (width & 63) == 0 ? -1L : (1L << width) - 1;
+        long[] alive = frame.aliveWords();
+
+        long[] rows = new long[height * rowWords];
+        for (int y = 0; y < height; y++) {
+            long start = (long) y * width;
+            for (int k = 0; k < rowWords; k++) {
+                rows[y * rowWords + k] = GenerationFrame.bitsAt(alive, start + ((long) k << 6));
+            }
+            rows[y * rowWords + rowWords - 1] &= lastMask;
+        }
+
+        long[][] planes = new long[PLANES][rows.length];
+        long[] west = new long[rowWords];
+        long[] east = new long[rowWords];
+        for (int y = 0; y < height; y++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                int ny = y + dy;
+                if (ny < 0 || ny >= height)
+                    continue;
+                int base = ny * rowWords;
+                for (int k = 0; k < rowWords; k++) {
+                    long row = rows[base + k];
+                    // the neighbor at x - 1 lands on x, and the one at x + 1 as well
+                    west[k] = row << 1 | (k > 0 ? rows[base + k - 1] >>> 63 : 0);
+                    east[k] = row >>> 1 | (k + 1 < rowWords ? rows[base + k + 1] << 63 : 0);
+                }
+                west[rowWords - 1] &= lastMask;
+                int target = y * rowWords;
+                for (int k = 0; k < rowWords; k++) {
+                    add(planes, target + k, west[k]);
+                    add(planes, target + k, east[k]);
+                    if (dy != 0)
+                        add(planes, target + k, rows[base + k]);
+                }
+            }
+        }
+        return new NeighborCounts(width, height, rowWords, rows, planes);
+    }
+
+    /**
+     * Adds one bit to the count of each cell of a word, propagating the
+     * carries through the planes.
+     *
+     * @param planes the bit planes of the counts
+     * @param w      the index of the word
+     * @param bits   the cells of the word whose count grows by one
+     */
+    private static void add(long[][] planes, int w, long bits) {
+        for (int p = 0; p < PLANES && bits != 0; p++) {
+            long carry = planes[p][w] & bits;
+            planes[p][w] ^= bits;
+            bits = carry;
+        }
+    }
+
+    /**
+     * Returns the number of columns of the board.
+     *
+     * @return the board width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the number of rows of the board.
+     *
+     * @return the board height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the number of alive neighbors of the cell at a row-major index.
+     *
+     * @param index the cell index
+     * @return the alive neighbors of that cell, between 0 and MAX_NEIGHBORS
+     */
+    public int count(int index) {
+        return count(index % width, index / width);
+    }
+
+    /**
+     * Returns the number of alive neighbors of the cell at the given position.
+     *
+     * @param x the column of the cell
+     * @param y the row of the cell
+     * @return the alive neighbors of that cell, between 0 and MAX_NEIGHBORS
+     */
+    public int count(int x, int y) {
+        int w = y * rowWords + (x >>> 6);
+        long bit = 1L << x;
+        int count = 0;
+        for (int p = 0; p < PLANES; p++) {
+            if ((planes[p][w] & bit) != 0)
+                count |= 1 << p;
+        }
+        return count;
+    }
+
+    /**
+     * Counts the alive cells by their number of alive neighbors, with a
+     * population count per word and count value instead of a pass per cell.
+     *
+     * @return an array where element c is the number of alive cells with c alive neighbors
+     */
+    public int[] aliveHistogram() {
+        int[] histogram = new int[MAX_NEIGHBORS + 1];
+        for (int w = 0; w < aliveRows.length; w++) {
+            long alive = aliveRows[w];
+            if (alive == 0)
+                continue;
+            for (int c = 0; c <= MAX_NEIGHBORS; c++) {
+                long match = alive;
+                for (int p = 0; p < PLANES; p++) {
+                    match &= (c >> p & 1) != 0 ? planes[p][w] : ~planes[p][w];
+                }
+                histogram[c] += Long.bitCount(match);
+            }
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,10 @@
+package it.polito.extgol;
+
+/**
+ * Object recognized by a PatternRecognizer in a generation.
+ *
+ * @param name    the name of the catalog or user pattern the object matches
+ * @param cluster the cluster of alive cells forming the object
+ */
+public record PatternMatch(String name, Cluster cluster) {
+}
@@ -0,0 +1,393 @@
+package it.polito.extgol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Recognizes well-known objects (still lifes, oscillators and spaceships)
+ * among the clusters of alive cells of a generation.
+ *
+ * Each 8-connected cluster small enough to be in the catalog is cut out of
+ * its bounding box and brought to a canonical form, the smallest of its
+ * eight rotations and reflections, whose hash is looked up among the known
+ * shapes. Every phase of the built-in oscillators and spaceships is in the
+ * catalog, derived from one phase with Conway's rules. Shapes already seen
+ * are cached in the orientation they were met, so an object recurring on
+ * later generations is recognized without canonicalizing it again.
+ *
+ * Recognition only reads immutable frames, and the catalog and cache are
+ * concurrent maps, so a recognizer can be shared and run on background
+ * threads while the simulation goes on, e.g. with recognizeAsync. Shapes
+ * are matched by their cells alone: types, moods and lifePoints are ignored.
+ */
+public class PatternRecognizer {
+
+    /** Shapes remembered by the cache before it is cleared. */
+    static final int MAX_CACHED_SHAPES = 4096;
+
+    /** Built-in catalog: name and one phase, 'O' for alive cells. */
+    private static final Object[][] CATALOG = {
+        { "block", new String[] { "OO", "OO" } },
+        { "beehive", new String[] { ".OO.", "O..O", ".OO." } },
+        { "loaf", new String[] { ".OO.", "O..O", ".O.O", "..O." } },
+        { "boat", new String[] { "OO.", "O.O", ".O." } },
+        { "tub", new String[] { ".O.", "O.O", ".O." } },
+        { "pond", new String[] { ".OO.", "O..O", "O..O", ".OO." } },
+        { "ship", new String[] { "OO.", "O.O", ".OO" } },
+        { "blinker", new String[] { "OOO" } },
+        { "toad", new String[] { ".OOO", "OOO." } },
+        { "beacon", new String[] { "OO..", "OO..", "..OO", "..OO" } },
+        { "glider", new String[] { ".O.", "..O", "OOO" } },
+        { "lightweight spaceship", new String[] { ".O..O", "O....", "O...O", "OOOO." } },
+    };
+
+    /** Longest period followed when deriving the phases of a catalog entry. */
+    private static final int MAX_PERIOD = 4;
+
+    /** Canonical shapes of every known phase, by name. */
+    private final ConcurrentMap<Shape, String> catalog = new ConcurrentHashMap<>();
+
+    /** Outcome for shapes already met, in the orientation they were met. */
+    private final ConcurrentMap<Shape, Optional<String>> cache = new ConcurrentHashMap<>();
+
+    /** Cells of the largest known shape; bigger clusters are skipped at once. */
+    private volatile int maxCells;
+
+    /**
+     * Creates a recognizer knowing the built-in catalog.
+     */
+    public PatternRecognizer() {
+        for (Object[] entry : CATALOG) {
+            registerPhases((String) entry[0], Shape.parse((String[]) entry[1]));
+        }
+    }
+
+    /**
+     * Adds a user pattern. The pattern is recognized in any rotation or
+     * reflection; for oscillators and spaceships, every phase to be
+     * recognized must be registered, possibly under the same name.
+     *
+     * @param name the name reported for objects matching the pattern
+     * @param rows the rows of the pattern, 'O' for alive cells and any other character for dead ones
+     * @throws IllegalArgumentException if the pattern has no alive cell or is not 8-connected
+     */
+    public void register(String name, String... rows) {
+        Objects.requireNonNull(name);
+        Shape shape = Shape.parse(rows);
+        if (!shape.isConnected()) {
+            throw new IllegalArgumentException("Pattern " + name + " is not a single connected object");
+        }
+        add(name, shape.canonical());
+    }
+
+    /**
+     * Recognizes the known objects of a generation, using its cached cluster
+     * analysis.
+     *
+     * @param gen the Generation to analyze
+     * @return the recognized objects, in cluster label order
+     */
+    public List<PatternMatch> recognize(Generation gen) {
+        Objects.requireNonNull(gen);
+        return recognize(gen.getClusters());
+    }
+
+    /**
+     * Recognizes the known objects of a frame.
+     *
+     * @param frame the frame to analyze
+     * @return the recognized objects, in cluster label order
+     */
+    public List<PatternMatch> recognize(GenerationFrame frame) {
+        Objects.requireNonNull(frame);
+        return recognize(ClusterAnalysis.of(frame));
+    }
+
+    /**
+     * Recognizes the known objects of a generation on the given executor.
+     * The generation's frame is taken when the method is called, so the
+     * result describes that generation even if the simulation goes on.
+     *
+     * @param gen      the Generation to analyze
+     * @param executor the Executor running the recognition
+     * @return a future completed with the recognized objects
+     */
+    public CompletableFuture<List<PatternMatch>> recognizeAsync(Generation gen, Executor executor) {
+        GenerationFrame frame = gen.getFrame();
+        return CompletableFuture.supplyAsync(() -> recognize(frame), executor);
+    }
+
+    /**
+     * Counts the recognized objects of a generation by name.
+     *
+     * @param gen the Generation to analyze
+     * @return a Map, sorted by name, from pattern name to the number of such objects
+     */
+    public Map<String, Integer> census(Generation gen) {
+        Map<String, Integer> census = new TreeMap<>();
+        for (PatternMatch match : recognize(gen)) {
+            census.merge(match.name(), 1, Integer::sum);
+        }
+        return census;
+    }
+
+    private List<PatternMatch> recognize(ClusterAnalysis clusters) {
+        List<PatternMatch> matches = new ArrayList<>();
+        int limit = maxCells;
+        for (Cluster cluster : clusters.getClusters()) {
+            if (cluster.size() > limit)
+                continue;
+            Shape shape = Shape.of(clusters, cluster);
+            Optional<String> name = cache.get(shape);
+            if (name == null) {
+                name = Optional.ofNullable(catalog.get(shape.canonical()));
+                if (cache.size() >= MAX_CACHED_SHAPES)
+                    cache.clear();
+                cache.put(shape, name);
+            }
+            name.ifPresent(n -> matches.add(new PatternMatch(n, cluster)));
+        }
+        return matches;
+    }
+
+    /**
+     * Registers a catalog entry with every phase it goes through under
+     * Conway's rules, up to MAX_PERIOD generations.
+     */
+    private void registerPhases(String name, Shape first) {
+        Shape start = first.canonical();
+        Shape phase = first;
+        for (int g = 0; g < MAX_PERIOD; g++) {
+            add(name, phase.canonical());
+            phase = phase.next();
+            if (phase.canonical().equals(start))
+                break;
+        }
+    }
+
+    private void add(String name, Shape canonical) {
+        catalog.put(canonical, name);
+        cache.clear();
+        maxCells = Math.max(maxCells, canonical.cells());
+    }
+
+    /**
+     * Alive cells of an object inside its bounding box, row-major, 64 per word.
+     */
+    private static final class Shape implements Comparable<Shape> {
+
+        private final int width;
+        private final int height;
+        private final long[] bits;
+        private final int hash;
+
+        private Shape(int width, int height, long[] bits) {
+            this.width = width;
+            this.height = height;
+            this.bits = bits;
+            this.hash = 31 * (31 * width + height) + Arrays.hashCode(bits);
+        }
+
+        static Shape parse(String[] rows) {
+            int height = rows.length;
+            int width = Arrays.stream(rows).mapToInt(String::length).max().orElse(0);
+            List<int[]> cells = new ArrayList<>();
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < rows[y].length(); x++) {
+                    if (rows[y].charAt(x) == 'O')
+                        cells.add(new int[] { x, y });
+                }
+            }
+            if (cells.isEmpty() || width == 0)
+                throw new IllegalArgumentException("A pattern needs at least one alive cell");
+            return fromCells(cells);
+        }
+
+        static Shape of(ClusterAnalysis clusters, Cluster cluster) {
+            int width = cluster.width();
+            int height = cluster.height();
+            long[] bits = new long[(width * height + 63) >>> 6];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (clusters.label(cluster.minX() + x, cluster.minY() + y) == cluster.label()) {
+                        int i = y * width + x;
+                        bits[i >>> 6] |= 1L << i;
+                    }
+                }
+            }
+            return new Shape(width, height, bits);
+        }
+
+        /** Builds the shape of a set of cells, translated to the origin. */
+        static Shape fromCells(List<int[]> cells) {
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+            for (int[] c : cells) {
+                minX = Math.min(minX, c[0]);
+                minY = Math.min(minY, c[1]);
+                maxX = Math.max(maxX, c[0]);
+                maxY = Math.max(maxY, c[1]);
+            }
+            int width = maxX - minX + 1;
+            int height = maxY - minY + 1;
+            long[] bits = new long[(width * height + 63) >>> 6];
+            for (int[] c : cells) {
+                int i = (c[1] - minY) * width + (c[0] - minX);
+                bits[i >>> 6] |= 1L << i;
+            }
+            return new Shape(width, height, bits);
+        }
+
+        boolean get(int x, int y) {
+            int i = y * width + x;
+            return (bits[i >>> 6] & (1L << i)) != 0;
+        }
+
+        int cells() {
+            int count = 0;
+            for (long word : bits) {
+                count += Long.bitCount(word);
+            }
+            return count;
+        }
+
+        /**
+         * Returns the smallest of the eight rotations and reflections.
+         */
+        Shape canonical() {
+            Shape best = null;
+            for (int t = 0; t < 8; t++) {
+                Shape s = transform(t);
+                if (best == null || s.compareTo(best) < 0)
+                    best = s;
+            }
+            return best;
+        }
+
+        /**
+         * Applies one of the eight symmetries of the square: t & 4 transposes,
+         * t & 1 mirrors horizontally and t & 2 vertically.
+         */
+        private Shape transform(int t) {
+            boolean transpose = (t & 4) != 0;
+            int w = transpose ? height : width;
+            int h = transpose ? width : height;
+            long[] out = new long[bits.length];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (!get(x, y))
+                        continue;
+                    int nx = transpose ? y : x;
+                    int ny = transpose ? x : y;
+                    if ((t & 1) != 0)
+                        nx = w - 1 - nx;
+                    if ((t & 2) != 0)
+                        ny = h - 1 - ny;
+                    int i = ny * w + nx;
+                    out[i >>> 6] |= 1L << i;
+                }
+            }
+            return new Shape(w, h, out);
+        }
+
+        /**
+         * Returns the shape one generation later under Conway's rules (B3/S23)
+         * on an unbounded grid.
+         */
+        Shape next() {
+            Map<Long, Integer> neighbors = new HashMap<>();
+            Set<Long> alive = new HashSet<>();
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (!get(x, y))
+                        continue;
+                    alive.add(key(x, y));
+                    for (int dy = -1; dy <= 1; dy++) {
+                        for (int dx = -1; dx <= 1; dx++) {
+                            if (dx != 0 || dy != 0)
+                                neighbors.merge(key(x + dx, y + dy), 1, Integer::sum);
+                        }
+                    }
+                }
+            }
+            List<int[]> next = new ArrayList<>();
+            for (Map.Entry<Long, Integer> e : neighbors.entrySet()) {
+                int n = e.getValue();
+                if (n == 3 || (n == 2 && alive.contains(e.getKey())))
+                    next.add(new int[] { (int) (e.getKey() >> 32), (int) (long) e.getKey() });
+            }
+            if (next.isEmpty())
+                return this;
+            return fromCells(next);
+        }
+
+        private static long key(int x, int y) {
+            return (long) x << 32 | (y & 0xFFFFFFFFL);
+        }
+
+        /** Tells whether the alive cells form a single 8-connected group. */
+        boolean isConnected() {
+            int total = cells();
+            int start = -1;
+            for (int i = 0; i < width * height && start < 0; i++) {
+                if (get(i % width, i / width))
+                    start = i;
+            }
+            boolean[] seen = new boolean[width * height];
+            int[] stack = new int[width * height];
+            int top = 0, reached = 0;
+            stack[top++] = start;
+            seen[start] = true;
+            while (top > 0) {
+                int i = stack[--top];
+                reached++;
+                int x = i % width, y = i / width;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int nx = x + dx, ny = y + dy;
+                        if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                            continue;
+                        int n = ny * width + nx;
+                        if (!seen[n] && get(nx, ny)) {
+                            seen[n] = true;
+                            stack[top++] = n;
+                        }
+                    }
+                }
+            }
+            return reached == total;
+        }
+
+        @Override
+        public int compareTo(Shape o) {
+            if (width != o.width)
+                return Integer.compare(width, o.width);
+            if (height != o.height)
+                return Integer.compare(height, o.height);
+            return Arrays.compareUnsigned(bits, o.bits);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Shape)) return false;
+            Shape s = (Shape) o;
+            return width == s.width && height == s.height && Arrays.equals(bits, s.bits);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
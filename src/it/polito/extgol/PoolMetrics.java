@@ -0,0 +1,14 @@
+package it.polito.extgol;
+
+/**
+ * Snapshot of the JDBC connection pool of a persistence unit.
+ *
+ * @param unit              the name of the persistence unit
+ * @param active            connections currently lent out
+ * @param idle              connections ready in the pool
+ * @param total             connections currently open, active or idle
+ * @param awaiting          threads blocked waiting for a connection
+ * @param maximumPoolSize   the upper bound on open connections
+ */
+public record PoolMetrics(String unit, int active, int idle, int total, int awaiting, int maximumPoolSize) {
+}
@@ -0,0 +1,14 @@
+package it.polito.extgol;
+
+/**
+ * Lightweight, detached view of a persisted board: its size and owning game,
+ * without tiles or cells.
+ *
+ * @param id         the primary key of the board
+ * @param width      the number of columns
+ * @param height     the number of rows
+ * @param gameId     the id of the owning game
+ * @param aliveCells the number of cells stored as alive
+ */
+public record StoredBoard(Integer id, int width, int height, Long gameId, long aliveCells) {
+}
@@ -0,0 +1,26 @@
+package it.polito.extgol;
+
+/**
+ * Lightweight, detached view of a persisted cell, as returned by projection
+ * queries: its coordinates and the state stored with its row. No entity, proxy
+ * or coordinate list is hydrated to build it.
+ *
+ * @param id         the primary key of the cell
+ * @param x          the column of the cell on its board
+ * @param y          the row of the cell on its board
+ * @param alive      whether the cell is stored as alive
+ * @param lifePoints the stored lifePoints of the cell
+ * @param type       the CellType of the cell
+ * @param mood       the CellMood of the cell
+ */
+public record StoredCell(Long id, int x, int y, boolean alive, int lifePoints, CellType type, CellMood mood) {
+
+    /**
+     * Returns the coordinates of the cell.
+     *
+     * @return a new Coord for (x, y)
+     */
+    public Coord coord() {
+        return new Coord(x, y);
+    }
+}
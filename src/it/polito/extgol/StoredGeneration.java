@@ -0,0 +1,13 @@
+package it.polito.extgol;
+
+/**
+ * Lightweight, detached view of a persisted generation, as returned by replay
+ * queries: the step, the event applied at that step and the frame of cell
+ * states. No entity is hydrated to build it.
+ *
+ * @param step  the zero-based index of the generation in its game
+ * @param event the EventType scheduled for this generation, or null
+ * @param frame the compact snapshot of every cell at this generation
+ */
+public record StoredGeneration(int step, EventType event, GenerationFrame frame) {
+}
@@ -0,0 +1,190 @@
+package it.polito.extgol;
+
+/**
+ * Summed-area tables (integral images) of the alive cells of one generation
+ * and of their lifePoints.
+ *
+ * Entry (x, y) of each table holds the total over the rectangle from the
+ * top-left corner of the board to column x - 1 and row y - 1, so the total of
+ * any rectangle is read from four entries in O(1), and a downsampled heatmap
+ * costs O(1) per output cell whatever the size of the board. Both tables are
+ * filled in a single row-major pass over the frame.
+ *
+ * Tables are immutable; Generation builds them on first use and drops them
+ * whenever its frame changes. They take 12 bytes per cell, so they are only
+ * built for generations that are actually queried.
+ */
+public final class SummedAreaTable {
+
+    private final int width;
+    private final int height;
+
+    /** Alive cells above and to the left of each corner, (width + 1) * (height + 1) entries. */
+    private final int[] alive;
+
+    /** lifePoints of the alive cells above and to the left of each corner. */
+    private final long[] energy;
+
+    private SummedAreaTable(int width, int height, int[] alive, long[] energy) {
+        this.width = width;
+        this.height = height;
+        this.alive = alive;
+        this.energy = energy;
+    }
+
+    /**
+     * Builds the tables of a frame.
+     *
+     * @param frame the frame to integrate
+     * @return the SummedAreaTable of the alive cells of frame
+     */
+    static SummedAreaTable of(GenerationFrame frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int stride = width + 1;
+        int[] alive = new int[stride * (height + 1)];
+        long[] energy = new long[alive.length];
+        int[] lifePoints = frame.lifePointsArray();
+
+        for (int y = 0; y < height; y++) {
+            int rowAlive = 0;
+            long rowEnergy = 0;
+            int above = y * stride;
+            int here = above + stride;
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                if (frame.isAlive(i)) {
+                    rowAlive++;
+                    rowEnergy += lifePoints[i];
+                }
+                alive[here + x + 1] = alive[above + x + 1] + rowAlive;
+                energy[here + x + 1] = energy[above + x + 1] + rowEnergy;
+            }
+        }
+        return new SummedAreaTable(width, height, alive, energy);
+    }
+
+    /**
+     * Returns the number of columns of the board.
+     *
+     * @return the board width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the number of rows of the board.
+     *
+     * @return the board height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Counts the alive cells of a rectangle; the parts outside the board are
+     * ignored.
+     *
+     * @param x      the column of the left edge
+     * @param y      the row of the top edge
+     * @param width  the number of columns of the rectangle
+     * @param height the number of rows of the rectangle
+     * @return the alive cells inside the rectangle
+     * @throws IllegalArgumentException if width or height is negative
+     */
+    public int countAlive(int x, int y, int width, int height) {
+        checkSize(width, height);
+        int x0 = clamp(x, this.width), x1 = clamp((long) x + width, this.width);
+        int y0 = clamp(y, this.height), y1 = clamp((long) y + height, this.height);
+        if (x0 >= x1 || y0 >= y1)
+            return 0;
+        int stride = this.width + 1;
+        return alive[y1 * stride + x1] - alive[y0 * stride + x1] - alive[y1 * stride + x0] + alive[y0 * stride + x0];
+    }
+
+    /**
+     * Sums the lifePoints of the alive cells of a rectangle; the parts
+     * outside the board are ignored.
+     *
+     * @param x      the column of the left edge
+     * @param y      the row of the top edge
+     * @param width  the number of columns of the rectangle
+     * @param height the number of rows of the rectangle
+     * @return the total lifePoints of the alive cells inside the rectangle
+     * @throws IllegalArgumentException if width or height is negative
+     */
+    public long sumLifePoints(int x, int y, int width, int height) {
+        checkSize(width, height);
+        int x0 = clamp(x, this.width), x1 = clamp((long) x + width, this.width);
+        int y0 = clamp(y, this.height), y1 = clamp((long) y + height, this.height);
+        if (x0 >= x1 || y0 >= y1)
+            return 0;
+        int stride = this.width + 1;
+        return energy[y1 * stride + x1] - energy[y0 * stride + x1] - energy[y1 * stride + x0] + energy[y0 * stride + x0];
+    }
+
+    /**
+     * Downsamples the board to a grid of columns x rows blocks and returns
+     * the fraction of alive cells of each block. Block edges are spread
+     * evenly, so blocks differ in size by at most one cell per side.
+     *
+     * @param columns the number of blocks per row, at most the board width
+     * @param rows    the number of blocks per column, at most the board height
+     * @return the density of each block, indexed [row][column]
+     * @throws IllegalArgumentException if the grid is empty or finer than the board
+     */
+    public double[][] densityHeatmap(int columns, int rows) {
+        checkGrid(columns, rows);
+        double[][] heatmap = new double[rows][columns];
+        for (int r = 0; r < rows; r++) {
+            int y0 = edge(r, rows, height), y1 = edge(r + 1, rows, height);
+            for (int c = 0; c < columns; c++) {
+                int x0 = edge(c, columns, width), x1 = edge(c + 1, columns, width);
+                heatmap[r][c] = (double) countAlive(x0, y0, x1 - x0, y1 - y0) / ((x1 - x0) * (y1 - y0));
+            }
+        }
+        return heatmap;
+    }
+
+    /**
+     * Downsamples the board to a grid of columns x rows blocks and returns
+     * the total lifePoints of the alive cells of each block.
+     *
+     * @param columns the number of blocks per row, at most the board width
+     * @param rows    the number of blocks per column, at most the board height
+     * @return the energy of each block, indexed [row][column]
+     * @throws IllegalArgumentException if the grid is empty or finer than the board
+     */
+    public long[][] energyHeatmap(int columns, int rows) {
+        checkGrid(columns, rows);
+        long[][] heatmap = new long[rows][columns];
+        for (int r = 0; r < rows; r++) {
+            int y0 = edge(r, rows, height), y1 = edge(r + 1, rows, height);
+            for (int c = 0; c < columns; c++) {
+                int x0 = edge(c, columns, width), x1 = edge(c + 1, columns, width);
+                heatmap[r][c] = sumLifePoints(x0, y0, x1 - x0, y1 - y0);
+            }
+        }
+        return heatmap;
+    }
+
+    private static int edge(int block, int blocks, int size) {
+        return (int) ((long) block * size / blocks);
+    }
+
+    private static int clamp(long value, int size) {
+        return (int) Math.max(0, Math.min(size, value));
+    }
+
+    private static void checkSize(int width, int height) {
+        if (width < 0 || height < 0)
+            throw new IllegalArgumentException("Rectangle size must not be negative");
+    }
+
+    private void checkGrid(int columns, int rows) {
+        if (columns <= 0 || rows <= 0 || columns > width || rows > height)
+            throw new IllegalArgumentException("A " + width + "x" + height
+                + " board cannot be shown as a " + columns + "x" + rows + " heatmap");
+    }
+}
@@ -1,11 +1,14 @@
 package it.polito.extgol;
 
-import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import jakarta.persistence.AttributeOverride;
 import jakarta.persistence.AttributeOverrides;
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.Embedded;
@@ -15,15 +18,17 @@ import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
-import jakarta.persistence.ManyToMany;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToOne;
+import jakarta.persistence.Transient;
 
 /**
  * Entity representing a single square on the Game of Life board.
  * Holds coordinate position, occupying Cell, and link back to its Board.
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Tile implements Interactable{
 
     @Id
@@ -61,13 +66,20 @@ public class Tile implements Interactable{
     @JoinColumn(name = "cell_id", nullable = false, unique = true)
     private Cell cell;
 
-    /** Neighboring tiles for interactions. Not persisted. */
-    @ManyToMany
-    private Set<Tile> neighbors = new HashSet<Tile>();
+    /**
+     * Neighboring tiles for interactions. Not persisted: adjacency is derived
+     * from the coordinates, and recomputed on first access after a load.
+     */
+    @Transient
+    private Set<Tile> neighbors;
 
     private int lifePointModifier = 0;
     private boolean enableSuperVampire = false;
 
+    /** Whether the persisted row is behind the in-memory state since the last checkpoint. */
+    @Transient
+    private boolean dirty = false;
+
     /**
      * Default constructor required by JPA.
      */
@@ -120,6 +132,8 @@ public class Tile implements Interactable{
      * @param cell the Cell to assign to this tile, or null to clear it
      */
     public void setCell(Cell cell) {
+        if (this.cell != cell)
+            this.dirty = true;
         this.cell = cell;
     }
 
@@ -144,9 +158,14 @@ public class Tile implements Interactable{
     /**
      * Provides the set of neighboring tiles around this tile.
      *
+     * For tiles loaded from the database the adjacency is computed from the
+     * board coordinates the first time it is requested.
+     *
      * @return a Set of adjacent Tile instances
      */
     public Set<Tile> getNeighbors() {
+        if (this.neighbors == null)
+            this.neighbors = board.getAdjacentTiles(this);
         return this.neighbors;
     }
 
@@ -197,7 +216,8 @@ public class Tile implements Interactable{
      */
     public void setLifePointModifier(Integer lifePointsModifier) {
         Objects.requireNonNull(lifePointsModifier);
-        
+        if (lifePointsModifier != 0)
+            this.dirty = true;
         this.lifePointModifier += lifePointsModifier;
         
     }
@@ -260,7 +280,36 @@ public class Tile implements Interactable{
     }
 
     public void setEnableSuperVampire(boolean status) {
+        if (this.enableSuperVampire != status)
+            this.dirty = true;
         this.enableSuperVampire = status;
     }
 
+    /**
+     * Overwrites the engine state of this tile, as recorded in a GenerationFrame.
+     *
+     * @param lifePointModifier the lifePoints modifier the tile applies
+     */
+    void restoreState(int lifePointModifier) {
+        this.lifePointModifier = lifePointModifier;
+        this.enableSuperVampire = false;
+        this.dirty = true;
+    }
+
+    /**
+     * Tells whether this tile changed since it was last written to the database.
+     *
+     * @return true if the tile must be included in the next checkpoint
+     */
+    boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Marks this tile as in sync with its persisted row.
+     */
+    void clearDirty() {
+        this.dirty = false;
+    }
+
 }
@@ -0,0 +1,110 @@
+package it.polito.extgol.test;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import it.polito.extgol.AnalyticsMetric;
+import it.polito.extgol.AnalyticsReport;
+import it.polito.extgol.Board;
+import it.polito.extgol.CellView;
+import it.polito.extgol.ExtendedGameOfLife;
+import it.polito.extgol.Game;
+import it.polito.extgol.Generation;
+import it.polito.extgol.GenerationMetrics;
+
+/**
+ * Manual benchmark comparing Board.analyze, computing every AnalyticsMetric
+ * of a step range at once, with calling the corresponding Board methods one
+ * generation and one metric at a time.
+ *
+ * Each measurement runs on a fresh copy of the same game, so that neither
+ * side finds the per-generation indexes already built by the other. analyze
+ * runs on a single-thread pool, to compare the work rather than the cores.
+ *
+ * Not part of the test suite; run with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=it.polito.extgol.test.AnalyticsBenchmark -Dexec.args="200 200 50 10"}.
+ */
+public class AnalyticsBenchmark {
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int steps = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        Set<AnalyticsMetric> all = EnumSet.allOf(AnalyticsMetric.class);
+        ForkJoinPool pool = new ForkJoinPool(1);
+        long[] separateNanos = new long[rounds];
+        long[] fusedNanos = new long[rounds];
+        long checksum = 0;
+        try {
+            // as many rounds again warm up the JIT first; medians are reported
+            for (int round = -rounds; round < rounds; round++) {
+                Game separate = runGame(width, height, steps);
+                long t0 = System.nanoTime();
+                Board board = separate.getBoard();
+                List<Generation> generations = separate.getGenerations();
+                for (Generation gen : generations) {
+                    checksum += board.countCells(gen);
+                    checksum += board.countCellsByType(gen).size();
+                    checksum += board.energyStatistics(gen).getSum();
+                    checksum += firstViews(board.getViewsByEnergyLevel(gen));
+                    checksum += firstViews(board.groupViewsByAliveNeighborCount(gen));
+                }
+                long t1 = System.nanoTime();
+
+                Game fused = runGame(width, height, steps);
+                long t2 = System.nanoTime();
+                AnalyticsReport report = fused.getBoard().analyze(all, 0, steps, pool);
+                for (GenerationMetrics metrics : report.getGenerations()) {
+                    checksum += metrics.getPopulation();
+                    checksum += metrics.getTypeCounts().size();
+                    checksum += metrics.getEnergyStatistics().getSum();
+                    checksum += firstViews(metrics.getViewsByEnergyLevel());
+                    checksum += firstViews(metrics.getViewsByAliveNeighborCount());
+                }
+                long t3 = System.nanoTime();
+
+                if (round >= 0) {
+                    separateNanos[round] = t1 - t0;
+                    fusedNanos[round] = t3 - t2;
+                }
+            }
+            long separate = median(separateNanos);
+            long fused = median(fusedNanos);
+            System.out.printf("%dx%d board, %d generations: separate calls %.1f ms, analyze %.1f ms (%.1fx) [%d]%n",
+                width, height, steps + 1, separate / 1e6, fused / 1e6, (double) separate / fused, checksum);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Reads the first view of every group, so that neither side can leave
+     * the order of its groups unbuilt.
+     */
+    private static long firstViews(Map<Integer, List<CellView>> groups) {
+        long sum = 0;
+        for (List<CellView> views : groups.values()) {
+            sum += views.get(0).getIndex();
+        }
+        return sum;
+    }
+
+    private static long median(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static Game runGame(int width, int height, int steps) {
+        Game game = PersistenceBenchmark.randomGame("AnalyticsBenchmark", width, height, 42);
+        new ExtendedGameOfLife().run(game, steps);
+        return game;
+    }
+}
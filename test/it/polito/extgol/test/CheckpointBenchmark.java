@@ -0,0 +1,54 @@
+package it.polito.extgol.test;
+
+import org.hibernate.stat.Statistics;
+
+import it.polito.extgol.ExtendedGameOfLife;
+import it.polito.extgol.Game;
+import it.polito.extgol.JPAUtil;
+
+/**
+ * Manual benchmark measuring the checkpoint of a running game after every
+ * step, together with the second-level cache puts and the statements each
+ * checkpoint costs.
+ *
+ * Not part of the test suite; run with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=it.polito.extgol.test.CheckpointBenchmark -Dexec.args="100 100 50"}.
+ */
+public class CheckpointBenchmark {
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int steps = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+        try {
+            Game game = PersistenceBenchmark.randomGame("CheckpointBenchmark", width, height, 42);
+            ExtendedGameOfLife facade = new ExtendedGameOfLife();
+            facade.checkpoint(game);
+            // the first checkpoints warm up the persisters, they are not measured
+            for (int i = 0; i < 5; i++) {
+                facade.continueRun(game, 1);
+                facade.checkpoint(game);
+            }
+
+            Statistics stats = JPAUtil.getStatistics();
+            stats.setStatisticsEnabled(true);
+            stats.clear();
+            long total = 0;
+            for (int i = 0; i < steps; i++) {
+                facade.continueRun(game, 1);
+                long t0 = System.nanoTime();
+                facade.checkpoint(game);
+                total += System.nanoTime() - t0;
+            }
+
+            System.out.printf("%dx%d board, %d checkpoints: average %.2f ms, %.1f cache puts, %.1f statements each%n",
+                width, height, steps, total / 1_000_000.0 / steps,
+                (double) stats.getSecondLevelCachePutCount() / steps,
+                (double) stats.getPrepareStatementCount() / steps);
+        } finally {
+            JPAUtil.close();
+        }
+    }
+}
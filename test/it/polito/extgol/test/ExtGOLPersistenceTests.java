@@ -0,0 +1,684 @@
+package it.polito.extgol.test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.IntSummaryStatistics;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.hibernate.stat.Statistics;
+
+import it.polito.extgol.AnalyticsMetric;
+import it.polito.extgol.Board;
+import it.polito.extgol.BoardRepository;
+import it.polito.extgol.Cell;
+import it.polito.extgol.CellMood;
+import it.polito.extgol.CellRepository;
+import it.polito.extgol.CellType;
+import it.polito.extgol.Coord;
+import it.polito.extgol.DeletionProgress;
+import it.polito.extgol.EventType;
+import it.polito.extgol.ExtendedGameOfLife;
+import it.polito.extgol.FileLogGameStore;
+import it.polito.extgol.Game;
+import it.polito.extgol.GameRepository;
+import it.polito.extgol.GenerationRepository;
+import it.polito.extgol.GenerationSummary;
+import it.polito.extgol.GenerationWriter;
+import it.polito.extgol.Generation;
+import it.polito.extgol.JPAUtil;
+import it.polito.extgol.PoolMetrics;
+import it.polito.extgol.StoredBoard;
+import it.polito.extgol.StoredCell;
+import it.polito.extgol.StoredGeneration;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+import static it.polito.extgol.test.TestBranchUtils.assumeBranch;
+
+/**
+ * JUnit test suite for storing and reloading running games.
+ */
+public class ExtGOLPersistenceTests {
+    private ExtendedGameOfLife facade;
+    private Game game;
+    private Board board;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Close JPA after all tests.
+     */
+    @AfterClass
+    public static void closeDB() {
+        JPAUtil.close();
+    }
+
+    /**
+     * Turn statistics back off after the tests that measured with them.
+     */
+    @After
+    public void stopStatistics() {
+        JPAUtil.getStatistics().setStatisticsEnabled(false);
+    }
+
+    /**
+     * Prepare a clean database and new game before each test.
+     */
+    @Before
+    public void setUp() {
+        TestDatabaseUtil.clearDatabase();
+        facade = new ExtendedGameOfLife();
+        game  = Game.createExtended("PersistedGame", 5, 5);
+        board = game.getBoard();
+    }
+
+    @Test
+    public void testR3CheckpointAppendsNewGenerations() {
+        assumeBranch("R3");
+        // Blinker oscillating between a horizontal and a vertical bar
+        Generation.createInitial(game, board,
+            List.of(new Coord(1, 2), new Coord(2, 2), new Coord(3, 2)));
+        facade.checkpoint(game);
+
+        facade.run(game, 2);
+        facade.checkpoint(game);
+
+        Generation current = game.getGenerations().get(2);
+        for (int i = 0; i < 3; i++) {
+            current = facade.evolve(current);
+        }
+        facade.checkpoint(game);
+
+        EntityManager em = JPAUtil.getEntityManager();
+        try {
+            List<Integer> steps = em.createQuery(
+                "SELECT g.step FROM Generation g WHERE g.game.id = :id ORDER BY g.step", Integer.class)
+                .setParameter("id", game.getId())
+                .getResultList();
+            assertEquals(List.of(0, 1, 2, 3, 4, 5), steps);
+
+            Cell side = board.getTile(new Coord(1, 2)).getCell();
+            Cell stored = em.find(Cell.class, side.getId());
+            assertEquals(side.isAlive(), stored.isAlive());
+            assertEquals(side.getLifePoints(), stored.getLifePoints());
+        } finally {
+            em.close();
+        }
+    }
+
+    @Test
+    public void testR3CheckpointStoresBitesAndGifts() {
+        assumeBranch("R3");
+        Generation.createInitial(game, board, List.of(new Coord(1, 1), new Coord(2, 1)));
+        facade.checkpoint(game);
+
+        // a bite is the only change of this cell since the last checkpoint
+        Cell bitten = board.getTile(new Coord(1, 1)).getCell();
+        bitten.addBite(new Coord(2, 1));
+        facade.checkpoint(game);
+
+        EntityManager em = JPAUtil.getEntityManager();
+        try {
+            Cell stored = em.find(Cell.class, bitten.getId());
+            assertEquals(List.of(new Coord(-1, -1), new Coord(2, 1)), new ArrayList<>(stored.getBiteList()));
+        } finally {
+            em.close();
+        }
+    }
+
+    @Test
+    public void testR3GenerationFrameRoundTrip() {
+        assumeBranch("R3");
+        Generation.createInitial(game, board,
+            List.of(new Coord(1, 1), new Coord(2, 1), new Coord(1, 2), new Coord(3, 3)));
+        game.setMoods(CellMood.VAMPIRE, List.of(new Coord(2, 1)));
+        board.getTile(new Coord(1, 1)).getCell().setLifePoints(300);
+        game.getStart().snapCells();
+        facade.run(game, 3);
+        facade.checkpoint(game);
+
+        EntityManager em = JPAUtil.getEntityManager();
+        try {
+            for (Generation expected : game.getGenerations()) {
+                Generation stored = em.find(Generation.class, expected.getId());
+                assertEquals(expected.getFrame(), stored.getFrame());
+            }
+        } finally {
+            em.close();
+        }
+    }
+
+    @Test
+    public void testR3ReplayStreamsGenerationsInOrder() {
+        assumeBranch("R3");
+        Generation.createInitial(game, board,
+            List.of(new Coord(1, 2), new Coord(2, 2), new Coord(3, 2)));
+        facade.run(game, 4, Map.of(1, EventType.BLOOM));
+        facade.checkpoint(game);
+
+        GameRepository repository = new GameRepository();
+        try (Stream<StoredGeneration> replay = repository.replay(game.getId())) {
+            List<StoredGeneration> frames = replay.collect(Collectors.toList());
+            assertEquals(5, frames.size());
+            for (StoredGeneration stored : frames) {
+                Generation expected = game.getGenerations().get(stored.step());
+                assertEquals(expected.getEvent(), stored.event());
+                assertEquals(expected.getFrame(), stored.frame());
+            }
+        }
+    }
+
+    @Test
+    public void testR3BoardLoadsInBoundedQueries() {
+        assumeBranch("R3");
+        Game large = Game.createExtended("LargeGame", 20, 15);
+        facade.saveGame(large);
+
+        Statistics stats = startStatistics();
+        JPAUtil.getEntityManager().getEntityManagerFactory().getCache().evictAll();
+        Board loaded = new BoardRepository().load(large.getBoard().getId()).orElseThrow();
+
+        assertTrue("Board load should need at most two queries but used " + stats.getPrepareStatementCount(),
+            stats.getPrepareStatementCount() <= 2);
+        assertEquals(300, loaded.getTiles().size());
+        // adjacency is rebuilt from coordinates rather than loaded
+        assertEquals(3, loaded.getTile(new Coord(0, 0)).getNeighbors().size());
+        assertEquals(8, loaded.getTile(new Coord(5, 5)).getNeighbors().size());
+
+    }
+
+    @Test
+    public void testR3ProjectionsPageThroughStoredCells() {
+        assumeBranch("R3");
+        Generation.createInitial(game, board,
+            List.of(new Coord(1, 1), new Coord(2, 1), new Coord(4, 3)));
+        game.setMoods(CellMood.HEALER, List.of(new Coord(4, 3)));
+        board.getTile(new Coord(2, 1)).getCell().setLifePoints(7);
+        facade.saveGame(game);
+
+        StoredBoard stored = new BoardRepository().findBoardState(board.getId()).orElseThrow();
+        assertEquals(5, stored.width());
+        assertEquals(game.getId(), stored.gameId());
+        assertEquals(3, stored.aliveCells());
+
+        CellRepository cells = new CellRepository();
+        List<StoredCell> all = cells.findCellStates(board.getId());
+        assertEquals(25, all.size());
+        List<StoredCell> paged = new ArrayList<>();
+        Coord after = null;
+        List<StoredCell> page;
+        while (!(page = cells.findCellStates(board.getId(), after, 10)).isEmpty()) {
+            paged.addAll(page);
+            after = page.get(page.size() - 1).coord();
+        }
+        assertEquals(all, paged);
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(new Coord(i % 5, i / 5), all.get(i).coord());
+        }
+
+        List<StoredCell> alive = cells.findAliveCellStates(board.getId());
+        assertEquals(List.of(new Coord(1, 1), new Coord(2, 1), new Coord(4, 3)),
+            alive.stream().map(StoredCell::coord).collect(Collectors.toList()));
+        assertEquals(7, alive.get(1).lifePoints());
+        assertEquals(CellMood.HEALER, alive.get(2).mood());
+        assertTrue(alive.stream().allMatch(StoredCell::alive));
+    }
+
+    @Test
+    public void testR3WriteBehindPersistsGenerations() {
+        assumeBranch("R3");
+        Generation.createInitial(game, board,
+            List.of(new Coord(1, 2), new Coord(2, 2), new Coord(3, 2)));
+        facade.saveGame(game);
+
+        try (GenerationWriter writer = new GenerationWriter(2, 2)) {
+            facade.run(game, 6, Map.of(), writer);
+            writer.flush();
+            assertEquals(6, writer.getWrittenCount());
+            assertEquals(0, writer.getQueueDepth());
+        }
+
+        EntityManager em = JPAUtil.getEntityManager();
+        try {
+            Long stored = em.createQuery(
+                "SELECT COUNT(g) FROM Generation g WHERE g.game.id = :id", Long.class)
+                .setParameter("id", game.getId())
+                .getSingleResult();
+            assertEquals(Long.valueOf(7), stored);
+        } finally {
+            em.close();
+        }
+    }
+
+    @Test
+    public void testR3WriteBehindPropagatesFailures() {
+        assumeBranch("R3");
+        // the game is never saved, so its generations cannot be written
+        GenerationWriter writer = new GenerationWriter();
+        facade.run(game, 1, Map.of(), writer);
+        assertThrows(IllegalStateException.class, writer::flush);
+        assertThrows(IllegalStateException.class, () -> writer.submit(game.getStart()));
+    }
+
+    @Test
+    public void testR3RepeatedReadsHitTheCache() {
+        assumeBranch("R3");
+        facade.saveGame(game);
+        GameRepository games = new GameRepository();
+        BoardRepository boards = new BoardRepository();
+
+        games.load(game.getId());
+        boards.load(board.getId());
+        Statistics stats = startStatistics();
+
+        games.load(game.getId());
+        boards.load(board.getId());
+        assertEquals(0, stats.getPrepareStatementCount());
+        assertTrue(stats.getQueryCacheHitCount() >= 2);
+
+        game.setName("RenamedGame");
+        games.update(game);
+        assertEquals("RenamedGame", games.load(game.getId()).orElseThrow().getName());
+    }
+
+    @Test
+    public void testR3StoredAnalyticsMatchBoard() {
+        assumeBranch("R3");
+        Generation.createInitial(game, board,
+            List.of(new Coord(1, 1), new Coord(2, 1), new Coord(1, 2), new Coord(2, 2),
+                    new Coord(3, 3), new Coord(4, 3), new Coord(3, 4)));
+        game.setMoods(CellMood.HEALER, List.of(new Coord(1, 1), new Coord(3, 3)));
+        game.getStart().snapCells();
+        facade.run(game, 4);
+        facade.checkpoint(game);
+
+        GenerationRepository generations = new GenerationRepository();
+        Generation last = game.getGenerations().get(4);
+        assertEquals(board.countCellsByType(last), generations.countCellsByType(game.getId(), 4));
+        assertEquals(board.energyStatistics(last).toString(),
+            generations.energyStatistics(game.getId(), 4).toString());
+
+        List<Coord> expectedTop = board.topEnergyCells(last, 3).stream()
+            .map(Cell::getCoordinates).collect(Collectors.toList());
+        List<Coord> storedTop = generations.topEnergyCells(game.getId(), 4, 3).stream()
+            .map(Cell::getCoordinates).collect(Collectors.toList());
+        assertEquals(expectedTop, storedTop);
+
+        Map<Integer, Integer> histogram = generations.energyHistogram(game.getId(), 4);
+        board.getCellsByEnergyLevel(last).forEach((lp, cells) ->
+            assertEquals(Integer.valueOf(cells.size()), histogram.get(lp)));
+
+        Map<Integer, IntSummaryStatistics> series = generations.getTimeSeriesStats(game.getId(), 1, 3);
+        assertEquals(List.of(1, 2, 3), new ArrayList<>(series.keySet()));
+        assertEquals(board.getTimeSeriesStats(1, 3).toString(), series.toString());
+    }
+
+    @Test
+    public void testR3SummariesAreStoredWithGenerations() {
+        assumeBranch("R3");
+        Generation.createInitial(game, board,
+            List.of(new Coord(1, 1), new Coord(2, 1), new Coord(1, 2), new Coord(2, 2), new Coord(3, 3)));
+        game.setMoods(CellMood.VAMPIRE, List.of(new Coord(1, 1)));
+        game.getStart().snapCells();
+        facade.saveGame(game);
+
+        try (GenerationWriter writer = new GenerationWriter()) {
+            facade.run(game, 5, Map.of(2, EventType.BLOOM), writer);
+        }
+
+        List<GenerationSummary> summaries = new GenerationRepository().loadSummaries(game.getId(), 0, 5);
+        assertEquals(6, summaries.size());
+        for (GenerationSummary summary : summaries) {
+            Generation expected = game.getGenerations().get(summary.getStep());
+            assertEquals(expected.getEvent(), summary.getEvent());
+            assertEquals(expected.getAliveCells().size(), summary.getPopulation());
+            assertEquals(expected.getFrame().countAliveByType(), summary.getTypeCounts());
+            assertEquals(expected.getFrame().countAliveByMood(), summary.getMoodCounts());
+            assertEquals(board.energyStatistics(expected).toString(), summary.getEnergyStatistics().toString());
+        }
+        assertEquals(Integer.valueOf(1), summaries.get(0).getMoodCounts().get(CellMood.VAMPIRE));
+    }
+
+    @Test
+    public void testR3ResumeContinuesLikeAnUninterruptedRun() {
+        assumeBranch("R3");
+        Map<Integer, EventType> events = Map.of(1, EventType.BLOOD_MOON, 2, EventType.BLOOM, 5, EventType.FAMINE);
+        Game reference = seededGame("Reference");
+        facade.run(reference, 8, events);
+        // running with events does not schedule them on the game
+        assertTrue(reference.getEventMapInternal().isEmpty());
+
+        Game interrupted = seededGame("Interrupted");
+        interrupted.getEventMapInternal().putAll(events);
+        facade.run(interrupted, 4, events);
+        facade.checkpoint(interrupted);
+        // progress made after the checkpoint we resume from is thrown away
+        facade.continueRun(interrupted, 3);
+        facade.checkpoint(interrupted);
+
+        // resuming only to inspect an earlier step keeps the later history
+        GenerationRepository generations = new GenerationRepository();
+        assertEquals(3, facade.resume(interrupted.getId(), 2).getGenerations().size());
+        assertEquals(8, generations.loadSummaries(interrupted.getId(), 0, 100).size());
+
+        Game resumed = facade.resume(interrupted.getId(), 4);
+        assertEquals(5, resumed.getGenerations().size());
+        assertEquals(events, resumed.getEventMapInternal());
+        facade.continueRun(resumed, 4);
+        facade.checkpoint(resumed);
+
+        for (int step = 0; step <= 8; step++) {
+            assertEquals("frame at step " + step,
+                reference.getGenerations().get(step).getFrame(), resumed.getGenerations().get(step).getFrame());
+        }
+        assertEquals(reference.getGenerations().get(8).getFrame(),
+            generations.loadFrame(resumed.getId(), 8).orElseThrow());
+        assertEquals(9, generations.loadSummaries(resumed.getId(), 0, 100).size());
+    }
+
+    @Test
+    public void testR3ThresholdsBeyondANeighborCountAreStored() {
+        assumeBranch("R3");
+        Game wide = seededGame("WideThresholds");
+        Cell cell = wide.getBoard().getTile(new Coord(1, 1)).getCell();
+        cell.setMinThreshold(-1);
+        cell.setMaxThreshold(20);
+        wide.getStart().snapCells();
+        facade.run(wide, 2);
+        facade.checkpoint(wide);
+        ExtendedGameOfLife files = new ExtendedGameOfLife(new FileLogGameStore(folder.getRoot().toPath()));
+        Game logged = seededGame("WideThresholdsLog");
+        logged.getBoard().getTile(new Coord(1, 1)).getCell().setMaxThreshold(20);
+        logged.getStart().snapCells();
+        files.run(logged, 2);
+        files.checkpoint(logged);
+
+        // both the stored frames and the deltas of the file log keep them whole
+        Cell restored = facade.resume(wide.getId(), 2).getBoard().getTile(new Coord(1, 1)).getCell();
+        assertEquals(-1, restored.getMinThreshold());
+        assertEquals(20, restored.getMaxThreshold());
+        Cell replayed = files.resume(logged.getId(), 2).getBoard().getTile(new Coord(1, 1)).getCell();
+        assertEquals(20, replayed.getMaxThreshold());
+    }
+
+    @Test
+    public void testR3ResumeAfterPruneContinuesPastTheGaps() {
+        assumeBranch("R3");
+        Map<Integer, EventType> events = Map.of(2, EventType.BLOOM, 11, EventType.FAMINE);
+        Game reference = seededGame("Reference");
+        facade.run(reference, 12, events);
+
+        Game pruned = seededGame("Pruned");
+        pruned.getEventMapInternal().putAll(events);
+        facade.run(pruned, 10, events);
+        facade.checkpoint(pruned);
+        GenerationRepository generations = new GenerationRepository();
+        // steps 0, 4 and 8 are keyframes; 10 is not older than itself
+        generations.prune(pruned.getId(), 10, 4, progress -> {});
+
+        Game resumed = facade.resume(pruned.getId(), 10);
+        assertEquals(List.of(0, 4, 8, 10), resumed.getGenerations().stream()
+            .map(Generation::getStep).collect(Collectors.toList()));
+        facade.continueRun(resumed, 2);
+        facade.checkpoint(resumed);
+
+        assertEquals(List.of(0, 4, 8, 10, 11, 12), resumed.getGenerations().stream()
+            .map(Generation::getStep).collect(Collectors.toList()));
+        assertEquals(reference.getGenerations().get(12).getFrame(),
+            generations.loadFrame(pruned.getId(), 12).orElseThrow());
+        assertEquals(reference.getBoard().getTimeSeriesStats(10, 12).toString(),
+            resumed.getBoard().getTimeSeriesStats(10, 12).toString());
+        assertEquals(3, resumed.getBoard().analyze(EnumSet.allOf(AnalyticsMetric.class), 10, 12)
+            .getGenerations().size());
+        assertThrows(IllegalArgumentException.class,
+            () -> resumed.getBoard().analyze(EnumSet.allOf(AnalyticsMetric.class), 8, 9));
+    }
+
+    @Test
+    public void testR3FileLogStoreResumesAndReplays() throws IOException {
+        assumeBranch("R3");
+        Path directory = folder.getRoot().toPath();
+        ExtendedGameOfLife files = new ExtendedGameOfLife(new FileLogGameStore(directory));
+        Map<Integer, EventType> events = Map.of(1, EventType.BLOOD_MOON, 2, EventType.BLOOM, 65, EventType.FAMINE);
+        Game reference = seededGame("Reference");
+        facade.run(reference, 70, events);
+
+        // crosses a keyframe, and stores progress that resume later discards
+        Game interrupted = seededGame("Interrupted");
+        interrupted.getEventMapInternal().putAll(events);
+        files.run(interrupted, 66, events);
+        files.checkpoint(interrupted);
+        files.continueRun(interrupted, 3);
+        files.checkpoint(interrupted);
+        try (Stream<StoredGeneration> replay = new FileLogGameStore(directory).replay(interrupted.getId())) {
+            List<StoredGeneration> stored = replay.collect(Collectors.toList());
+            assertEquals(70, stored.size());
+            for (StoredGeneration generation : stored) {
+                assertEquals(interrupted.getGenerations().get(generation.step()).getFrame(), generation.frame());
+            }
+        }
+
+        ExtendedGameOfLife reopened = new ExtendedGameOfLife(new FileLogGameStore(directory));
+        Game resumed = reopened.resume(interrupted.getId(), 66);
+        assertEquals(67, resumed.getGenerations().size());
+        assertEquals(events, resumed.getEventMapInternal());
+        reopened.continueRun(resumed, 4);
+        reopened.checkpoint(resumed);
+
+        // a record torn by a crash is ignored, and cut off before the next append
+        Path log;
+        try (Stream<Path> logs = Files.list(directory)) {
+            log = logs.findFirst().orElseThrow();
+        }
+        Files.write(log, new byte[] { 2, 0, 0, 1, 0, 42 }, StandardOpenOption.APPEND);
+        FileLogGameStore recovered = new FileLogGameStore(directory);
+        Game again = recovered.resume(interrupted.getId(), 70).orElseThrow();
+        new ExtendedGameOfLife(recovered).continueRun(again, 1);
+        recovered.checkpoint(again);
+
+        try (Stream<StoredGeneration> replay = new FileLogGameStore(directory).replay(interrupted.getId())) {
+            List<StoredGeneration> stored = replay.collect(Collectors.toList());
+            assertEquals(72, stored.size());
+            for (int step = 0; step <= 70; step++) {
+                assertEquals("frame at step " + step,
+                    reference.getGenerations().get(step).getFrame(), stored.get(step).frame());
+            }
+            assertEquals(EventType.FAMINE, stored.get(66).event());
+        }
+        assertTrue(recovered.delete(interrupted.getId()));
+        assertEquals(0, recovered.replay(interrupted.getId()).count());
+    }
+
+    @Test
+    public void testR3FileLogStoresSharingADirectoryAssignDistinctIds() {
+        assumeBranch("R3");
+        Path directory = folder.getRoot().toPath();
+        FileLogGameStore first = new FileLogGameStore(directory);
+        FileLogGameStore second = new FileLogGameStore(directory);
+
+        // both stores scanned an empty directory, so both would start from id 1
+        Game one = Game.createExtended("One", 4, 4);
+        Game two = Game.createExtended("Two", 4, 4);
+        first.save(one);
+        second.save(two);
+
+        assertNotEquals(one.getId(), two.getId());
+        assertEquals("Two", new FileLogGameStore(directory).resume(two.getId(), 0).orElseThrow().getName());
+    }
+
+    /**
+     * Builds a small extended game mixing types and moods, so that resuming
+     * has Highlander, vampire and healer state to restore.
+     */
+    private static Game seededGame(String name) {
+        Game seeded = Game.createExtended(name, 6, 6);
+        Generation start = Generation.createInitial(seeded, seeded.getBoard(),
+            List.of(new Coord(1, 1), new Coord(2, 1), new Coord(3, 1), new Coord(2, 2),
+                    new Coord(4, 4), new Coord(4, 5), new Coord(0, 3)));
+        start.setType(List.of(new Coord(0, 3), new Coord(4, 4)), CellType.HIGHLANDER);
+        seeded.setMoods(CellMood.VAMPIRE, List.of(new Coord(2, 1)));
+        seeded.setMoods(CellMood.HEALER, List.of(new Coord(4, 5)));
+        start.snapCells();
+        return seeded;
+    }
+
+    @Test
+    public void testR3BulkOperationsInSingleTransaction() {
+        assumeBranch("R3");
+        GameRepository games = new GameRepository();
+        List<Game> batch = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            batch.add(Game.create("Bulk" + i, 2, 2));
+        }
+        games.createAll(batch);
+        assertEquals(120, games.findAll().size());
+
+        batch.forEach(g -> g.setName(g.getName() + "-renamed"));
+        games.updateAll(batch);
+        assertEquals("Bulk7-renamed", games.load(batch.get(7).getId()).orElseThrow().getName());
+
+        Game history = batch.get(0);
+        facade.run(history, 119);
+        facade.checkpoint(history);
+        GenerationRepository generations = new GenerationRepository();
+        generations.deleteAll(history.getGenerations().subList(20, 120));
+        assertEquals(20, generations.findAll().stream()
+            .filter(g -> g.getGame().getId().equals(history.getId())).count());
+
+        games.deleteAll(batch.subList(100, 120));
+        assertEquals(100, games.findAll().size());
+    }
+
+    @Test
+    public void testR3DeleteAndPruneWithSetBasedStatements() {
+        assumeBranch("R3");
+        Map<Integer, EventType> events = Map.of(2, EventType.BLOOD_MOON, 3, EventType.SANCTUARY);
+        Game doomed = seededGame("Doomed");
+        facade.run(doomed, 10, events);
+        facade.checkpoint(doomed);
+        Game kept = seededGame("Kept");
+        facade.run(kept, 10, events);
+        facade.checkpoint(kept);
+
+        GenerationRepository generations = new GenerationRepository();
+        List<DeletionProgress> pruned = new ArrayList<>();
+        // steps 0 and 4 are keyframes; 8, 9 and 10 are not older than step 8
+        assertEquals(6, generations.prune(kept.getId(), 8, 4, pruned::add));
+        assertEquals(6, pruned.get(pruned.size() - 1).totalDeleted());
+        assertEquals(11, generations.loadSummaries(kept.getId(), 0, 100).size());
+        assertTrue(generations.loadFrame(kept.getId(), 4).isPresent());
+        assertTrue(generations.loadFrame(kept.getId(), 5).isEmpty());
+        // the histogram of a pruned step is still answered from its summary
+        assertEquals(kept.getGenerations().get(5).getFrame().aliveEnergyHistogram(),
+            generations.energyHistogram(kept.getId(), 5));
+
+        List<DeletionProgress> reports = new ArrayList<>();
+        long deleted = new GameRepository().deleteGame(doomed.getId(), reports::add);
+        assertEquals(deleted, reports.get(reports.size() - 1).totalDeleted());
+        assertEquals(deleted, reports.stream().mapToLong(DeletionProgress::rowsDeleted).sum());
+        assertEquals(List.of(11, 11, 36, 36, 1, 1), reports.stream()
+            .filter(r -> List.of("generation", "generation_summary", "Tile", "Cell", "games", "Board").contains(r.table()))
+            .map(DeletionProgress::rowsDeleted).collect(Collectors.toList()));
+
+        GameRepository games = new GameRepository();
+        assertTrue(games.load(doomed.getId()).isEmpty());
+        assertEquals(1, games.findAll().size());
+        assertTrue(generations.loadSummaries(doomed.getId(), 0, 100).isEmpty());
+        Game reloaded = games.loadComplete(kept.getId()).orElseThrow();
+        assertEquals(36, reloaded.getBoard().getTiles().size());
+        assertEquals(0, games.deleteGame(doomed.getId(), reports::add));
+    }
+
+    @Test
+    public void testR3CallerControlledTransactionRollsBack() {
+        assumeBranch("R3");
+        GameRepository games = new GameRepository();
+        Game first = Game.create("First", 2, 2);
+        Game clash = Game.create("First", 2, 2);
+
+        // the second create violates the unique name: neither game must be stored
+        assertThrows(RuntimeException.class, () -> JPAUtil.inTransaction(em -> {
+            games.create(first, em);
+            games.create(clash, em);
+        }));
+        assertEquals(0, games.findAll().size());
+
+        Long id = JPAUtil.fromTransaction(em -> {
+            Game stored = Game.create("Second", 2, 2);
+            games.create(stored, em);
+            games.findById(stored.getId(), em).orElseThrow().setName("SecondRenamed");
+            return stored.getId();
+        });
+        assertEquals("SecondRenamed", games.load(id).orElseThrow().getName());
+    }
+
+    @Test
+    public void testR3FactoryIsBuiltOnceAndPooled() throws Exception {
+        assumeBranch("R3");
+        JPAUtil.close();
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<EntityManagerFactory>> factories = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                factories.add(threads.submit(() -> {
+                    start.await();
+                    return JPAUtil.getEntityManagerFactory();
+                }));
+            }
+            start.countDown();
+            EntityManagerFactory shared = JPAUtil.warmUp().get();
+            for (Future<EntityManagerFactory> factory : factories) {
+                assertTrue(shared == factory.get());
+            }
+
+            List<Future<Long>> counts = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                counts.add(threads.submit(() -> new GameRepository().findAll().stream().count()));
+            }
+            for (Future<Long> count : counts) {
+                assertEquals(Long.valueOf(0), count.get());
+            }
+        } finally {
+            threads.shutdown();
+        }
+
+        PoolMetrics pool = JPAUtil.getPoolMetrics();
+        assertEquals(JPAUtil.getDefaultUnit(), pool.unit());
+        assertEquals(0, pool.active());
+        assertTrue(pool.total() >= 1 && pool.total() <= pool.maximumPoolSize());
+    }
+
+    /**
+     * Enables the Hibernate statistics, which the persistence units leave
+     * off, and resets them.
+     */
+    private static Statistics startStatistics() {
+        Statistics stats = JPAUtil.getStatistics();
+        stats.setStatisticsEnabled(true);
+        stats.clear();
+        return stats;
+    }
+}
@@ -15,6 +15,7 @@ import it.polito.extgol.Cell;
 import it.polito.extgol.CellMood;
 import it.polito.extgol.CellType;
 import it.polito.extgol.Coord;
+import it.polito.extgol.EngineCounters;
 import it.polito.extgol.ExtendedGameOfLife;
 import it.polito.extgol.Game;
 import it.polito.extgol.Generation;
@@ -279,5 +280,39 @@ public class ExtGOLR1CellsTests {
         int energy=lp1.get(vamp1);
         assertEquals(4, energy);
     }
-    
+
+    @Test
+    public void testR1EngineCountsEvolutionEvents() {
+        assumeBranch("R1");
+
+        Generation init = Generation.createInitial(game, board,
+            List.of(new Coord(1, 1), new Coord(1, 2), new Coord(2, 1), new Coord(2, 2)));
+        game.setMoods(CellMood.VAMPIRE, List.of(new Coord(1, 1)));
+        board.getTile(new Coord(2, 1)).getCell().setLifePoints(1);
+        init.snapCells();
+        assertEquals(EngineCounters.NONE, init.getCounters());
+
+        // the stable block neither grows nor shrinks, while the Vampire bites and turns its three neighbors;
+        // the Vampire itself takes its future mood, still Naive, which is the fourth transition
+        Generation next = facade.run(game, 1).getGenerations().get(1);
+        assertEquals(new EngineCounters(0, 0, 0, 3, 0, 4, 3), next.getCounters());
+        assertEquals(next.getCounters(), next.getSummary().getCounters());
+
+        // a lonely Highlander spends its three extra lives, then dies
+        Game lonely = Game.createExtended("LonelyGame", 3, 3);
+        Map<Coord, CellType> cellTypesMap = new HashMap<>();
+        cellTypesMap.put(new Coord(1, 1), CellType.HIGHLANDER);
+        Generation.createInitial(lonely, lonely.getBoard(), cellTypesMap);
+        List<Generation> generations = facade.run(lonely, 5).getGenerations();
+        int extraLives = 0, births = 0, deaths = 0;
+        for (Generation gen : generations) {
+            extraLives += gen.getCounters().extraLives();
+            births += gen.getCounters().births();
+            deaths += gen.getCounters().deaths();
+        }
+        assertEquals(3, extraLives);
+        assertEquals(0, births);
+        assertEquals(1, deaths);
+        assertEquals(-1, generations.get(4).getCounters().netGrowth());
+    }
 }
@@ -1,25 +1,46 @@
 package it.polito.extgol.test;
 
+import java.util.EnumSet;
 import java.util.IntSummaryStatistics;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.AfterClass;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
 
+import it.polito.extgol.AnalyticsMetric;
+import it.polito.extgol.AnalyticsReport;
 import it.polito.extgol.Board;
 import it.polito.extgol.Cell;
+import it.polito.extgol.CellView;
+import it.polito.extgol.Cluster;
+import it.polito.extgol.ClusterAnalysis;
+import it.polito.extgol.CellType;
 import it.polito.extgol.Coord;
 import it.polito.extgol.ExtendedGameOfLife;
 import it.polito.extgol.Game;
 import it.polito.extgol.Generation;
+import it.polito.extgol.GenerationFrame;
+import it.polito.extgol.GenerationMetrics;
+import it.polito.extgol.GenerationSeries;
 import it.polito.extgol.Interactable;
 import it.polito.extgol.JPAUtil;
+import it.polito.extgol.NeighborCounts;
+import it.polito.extgol.PatternMatch;
+import it.polito.extgol.PatternRecognizer;
 import it.polito.extgol.Tile;
 import static it.polito.extgol.test.TestBranchUtils.assumeBranch;
 
@@ -351,4 +372,405 @@ public class ExtGOLR2BoardTests {
         assertEquals("Minimum energy should be 2", 2, last.getMin());
         assertEquals("Maximum energy should be 12", 12, last.getMax());        
     }
+
+    @Test
+    public void testR2AggregatesFollowEvolution() {
+        assumeBranch("R2");
+        Generation.createInitial(game, board, List.of(
+            new Coord(0, 0),
+            new Coord(0, 1),
+            new Coord(1, 0),
+            new Coord(1, 1),
+            new Coord(3, 2),
+            new Coord(3, 3),
+            new Coord(3, 4)));
+        Board.setInteractableTile(board, new Coord(1, 0), +4);
+        Board.setInteractableTile(board, new Coord(3, 3), -2);
+        board.getTile(new Coord(0, 1)).getCell().setType(CellType.HIGHLANDER);
+
+        facade.run(game, 6);
+
+        for (Generation gen : game.getGenerations()) {
+            GenerationFrame frame = gen.getFrame();
+            IntSummaryStatistics expected = frame.aliveEnergyStatistics();
+            IntSummaryStatistics stats = board.energyStatistics(gen);
+            assertEquals(frame.countAlive(), (int) board.countCells(gen));
+            assertEquals(expected.getCount(), stats.getCount());
+            assertEquals(expected.getSum(), stats.getSum());
+            assertEquals(expected.getMin(), stats.getMin());
+            assertEquals(expected.getMax(), stats.getMax());
+            assertEquals(frame.countAliveByType(), board.countCellsByType(gen));
+            assertEquals(frame.countAliveByMood(), gen.getAggregates().getMoodCounts());
+        }
+
+        // killing the strongest cell must move the maximum back
+        Generation last = game.getGenerations().get(game.getGenerations().size() - 1);
+        Cell strongest = board.getHighestEnergyCell(last);
+        int max = board.energyStatistics(last).getMax();
+        last.setCellAlivenessStates(Map.of(strongest, false));
+        IntSummaryStatistics after = board.energyStatistics(last);
+        assertEquals(last.getFrame().aliveEnergyStatistics().getMax(), after.getMax());
+        assertTrue("Maximum should not grow when a cell dies", after.getMax() <= max);
+        assertEquals(last.getFrame().countAlive(), (int) board.countCells(last));
+
+        // extremes as far apart as int allows are aggregated, and move back when they die
+        Cell weakest = last.getAliveCells().iterator().next();
+        last.setCellLifePoints(Map.of(strongest, Integer.MAX_VALUE, weakest, Integer.MIN_VALUE));
+        last.setCellAlivenessStates(Map.of(strongest, true));
+        assertEquals(Integer.MAX_VALUE, board.energyStatistics(last).getMax());
+        assertEquals(Integer.MIN_VALUE, board.energyStatistics(last).getMin());
+        last.setCellAlivenessStates(Map.of(strongest, false, weakest, false));
+        assertEquals(last.getFrame().aliveEnergyStatistics().toString(), board.energyStatistics(last).toString());
+    }
+
+    @Test
+    public void testR2EnergyIndexKeepsTopLeftTieBreaking() {
+        assumeBranch("R2");
+        Generation gen = Generation.createInitial(game, board, List.of(
+            new Coord(4, 0),
+            new Coord(1, 1),
+            new Coord(3, 1),
+            new Coord(0, 3),
+            new Coord(2, 3),
+            new Coord(5, 5)));
+        gen.setCellLifePoints(Map.of(
+            board.getTile(new Coord(4, 0)).getCell(), 7,
+            board.getTile(new Coord(1, 1)).getCell(), 9,
+            board.getTile(new Coord(3, 1)).getCell(), 7,
+            board.getTile(new Coord(0, 3)).getCell(), 9,
+            board.getTile(new Coord(2, 3)).getCell(), -2));
+
+        assertEquals(new Coord(1, 1), board.getHighestEnergyCell(gen).getCoordinates());
+        List<Cell> top = board.topEnergyCells(gen, 4);
+        assertEquals(List.of(new Coord(1, 1), new Coord(0, 3), new Coord(4, 0), new Coord(3, 1)),
+            top.stream().map(Cell::getCoordinates).toList());
+        assertEquals(6, board.topEnergyCells(gen, 10).size());
+
+        Map<Integer, List<Cell>> byEnergy = board.getCellsByEnergyLevel(gen);
+        assertEquals(List.of(-2, 0, 7, 9), List.copyOf(byEnergy.keySet()));
+        assertEquals(List.of(new Coord(4, 0), new Coord(3, 1)),
+            byEnergy.get(7).stream().map(Cell::getCoordinates).toList());
+
+        // values spread far beyond the population are indexed by sorting them
+        gen.setCellLifePoints(Map.of(
+            board.getTile(new Coord(5, 5)).getCell(), 1_000_000,
+            board.getTile(new Coord(2, 3)).getCell(), -1_000_000));
+        assertEquals(new Coord(5, 5), board.getHighestEnergyCell(gen).getCoordinates());
+        assertEquals(new Coord(2, 3), board.topEnergyCells(gen, 6).get(5).getCoordinates());
+        assertEquals(4, gen.getEnergyIndex().bucketCount());
+
+        Generation none = Game.createExtended("Empty", 3, 3).getStart();
+        assertNull(board.getHighestEnergyCell(none));
+        assertTrue(board.topEnergyCells(none, 3).isEmpty());
+        assertTrue(board.getCellsByEnergyLevel(none).isEmpty());
+    }
+
+    @Test
+    public void testR2NeighborCountsFollowTheSnapshot() {
+        assumeBranch("R2");
+        // wider than a word, so rows straddle word boundaries
+        Game wide = Game.createExtended("WideGame", 70, 5);
+        List<Coord> coords = List.of(
+            new Coord(62, 1), new Coord(63, 1), new Coord(64, 1),   // blinker across a word boundary
+            new Coord(0, 0), new Coord(0, 1), new Coord(1, 0), new Coord(1, 1),
+            new Coord(69, 4), new Coord(68, 4), new Coord(69, 3),
+            new Coord(30, 2), new Coord(31, 3), new Coord(29, 3));
+        Generation start = Generation.createInitial(wide, wide.getBoard(), coords);
+        facade.run(wide, 3);
+
+        for (Generation gen : wide.getGenerations()) {
+            GenerationFrame frame = gen.getFrame();
+            NeighborCounts counts = gen.getNeighborCounts();
+            int[] histogram = new int[9];
+            for (int y = 0; y < 5; y++) {
+                for (int x = 0; x < 70; x++) {
+                    int expected = 0;
+                    for (int dy = -1; dy <= 1; dy++) {
+                        for (int dx = -1; dx <= 1; dx++) {
+                            int nx = x + dx, ny = y + dy;
+                            if ((dx != 0 || dy != 0) && nx >= 0 && nx < 70 && ny >= 0 && ny < 5
+                                    && frame.isAlive(ny * 70 + nx))
+                                expected++;
+                        }
+                    }
+                    assertEquals("Neighbors of (" + x + "," + y + ") at step " + gen.getStep(),
+                        expected, counts.count(x, y));
+                    if (frame.isAlive(y * 70 + x))
+                        histogram[expected]++;
+                }
+            }
+            assertArrayEquals(histogram, counts.aliveHistogram());
+        }
+
+        // the start generation is grouped by its own alive cells, not the board's current ones
+        Map<Integer, List<Cell>> byNeighbor = wide.getBoard().groupByAliveNeighborCount(start);
+        assertEquals(coords.size(), byNeighbor.values().stream().mapToInt(List::size).sum());
+        assertEquals(2, byNeighbor.get(1).stream()
+            .filter(c -> c.getY() == 1 && c.getX() >= 62 && c.getX() <= 64).count());
+        assertEquals(4, byNeighbor.get(3).stream().filter(c -> c.getX() <= 1).count());
+    }
+
+    @Test
+    public void testR2SeriesAnswersTimeSeriesWithoutGenerations() {
+        assumeBranch("R2");
+        Generation.createInitial(game, board, List.of(
+            new Coord(0, 0),
+            new Coord(0, 1),
+            new Coord(1, 0),
+            new Coord(1, 1),
+            new Coord(4, 2),
+            new Coord(4, 3),
+            new Coord(4, 4)));
+        Board.setInteractableTile(board, new Coord(1, 0), +5);
+        facade.run(game, 5);
+
+        GenerationSeries series = game.getSeries();
+        assertEquals(0, series.getFirstStep());
+        assertEquals(6, series.size());
+        int[] population = series.population(1, 5);
+        long[] sums = series.sumLifePoints(1, 5);
+        for (Generation gen : game.getGenerations()) {
+            IntSummaryStatistics stats = board.energyStatistics(gen);
+            IntSummaryStatistics recorded = series.energyStatistics(gen.getStep());
+            assertEquals(stats.toString(), recorded.toString());
+            assertEquals(board.countCellsByType(gen).getOrDefault(CellType.BASIC, 0).intValue(),
+                series.count(CellType.BASIC, gen.getStep(), gen.getStep())[0]);
+            if (gen.getStep() > 0) {
+                assertEquals(stats.getCount(), population[gen.getStep() - 1]);
+                assertEquals(stats.getSum(), sums[gen.getStep() - 1]);
+            }
+        }
+        Map<Integer, IntSummaryStatistics> expected = board.getTimeSeriesStats(0, 5);
+
+        // the series outlives the generation objects it was recorded from
+        game.getGenerations().subList(0, 5).clear();
+        Map<Integer, IntSummaryStatistics> afterEviction = board.getTimeSeriesStats(0, 5);
+        assertEquals(expected.toString(), afterEviction.toString());
+    }
+
+    @Test
+    public void testR2CellViewsReportTheirGeneration() throws Exception {
+        assumeBranch("R2");
+        Generation start = Generation.createInitial(game, board, List.of(
+            new Coord(1, 1),
+            new Coord(2, 1),
+            new Coord(1, 2),
+            new Coord(2, 2)));
+        Board.setInteractableTile(board, new Coord(2, 2), +4);
+        facade.run(game, 1);
+        Generation first = game.getGenerations().get(1);
+
+        CellView before = start.getCellView(new Coord(2, 2));
+        CellView after = first.getCellView(new Coord(2, 2));
+        assertEquals(0, before.getLifePoints());
+        assertEquals(board.getTile(new Coord(2, 2)).getCell().getLifePoints(), after.getLifePoints());
+        assertEquals(new Coord(2, 2), board.getHighestEnergyView(first).getCoordinates());
+        assertNull(start.getCellView(new Coord(6, 0)));
+
+        // later changes to the cells do not leak into past generations
+        board.getTile(new Coord(1, 1)).getCell().setType(CellType.LONER);
+        assertEquals(CellType.BASIC, first.getCellView(new Coord(1, 1)).getType());
+        assertEquals(Map.of(CellType.BASIC, 4), board.countCellsByType(first));
+
+        List<CellView> expected = board.topEnergyViews(first, 4);
+        Map<Integer, List<CellView>> expectedGroups = board.groupViewsByAliveNeighborCount(first);
+        ExecutorService analytics = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<CellView>> top = analytics.submit(() -> {
+                List<CellView> last = null;
+                for (int i = 0; i < 200; i++) {
+                    last = board.topEnergyViews(first, 4);
+                    assertEquals(expectedGroups, board.groupViewsByAliveNeighborCount(first));
+                }
+                return last;
+            });
+            facade.run(game, 20);
+            assertEquals(expected, top.get(30, TimeUnit.SECONDS));
+        } finally {
+            analytics.shutdownNow();
+        }
+        assertEquals(4, first.getAliveCellViews().size());
+        assertTrue(first.getAliveCellViews().stream().allMatch(CellView::isAlive));
+    }
+
+    @Test
+    public void testR2RegionQueriesAndHeatmap() {
+        assumeBranch("R2");
+        Game wide = Game.createExtended("RegionGame", 13, 7);
+        Board b = wide.getBoard();
+        Generation gen = Generation.createInitial(wide, b, List.of(
+            new Coord(0, 0), new Coord(12, 6), new Coord(5, 3), new Coord(6, 3),
+            new Coord(7, 3), new Coord(2, 5), new Coord(11, 1)));
+        gen.setCellLifePoints(Map.of(
+            b.getTile(new Coord(5, 3)).getCell(), 4,
+            b.getTile(new Coord(6, 3)).getCell(), -1,
+            b.getTile(new Coord(12, 6)).getCell(), 9));
+
+        for (int y0 = 0; y0 < 7; y0++) {
+            for (int x0 = 0; x0 < 13; x0 += 3) {
+                for (int y1 = y0; y1 < 7; y1 += 2) {
+                    for (int x1 = x0; x1 < 13; x1 += 2) {
+                        int count = 0;
+                        long energy = 0;
+                        for (CellView v : gen.getAliveCellViews()) {
+                            if (v.getX() >= x0 && v.getX() <= x1 && v.getY() >= y0 && v.getY() <= y1) {
+                                count++;
+                                energy += v.getLifePoints();
+                            }
+                        }
+                        assertEquals(count, b.countCellsInRegion(gen, new Coord(x0, y0), new Coord(x1, y1)));
+                        assertEquals(energy, b.energyInRegion(gen, new Coord(x0, y0), new Coord(x1, y1)));
+                    }
+                }
+            }
+        }
+        assertEquals(7, b.countCellsInRegion(gen, new Coord(-5, -5), new Coord(100, 100)));
+        assertEquals(0, b.countCellsInRegion(gen, new Coord(4, 4), new Coord(3, 3)));
+
+        double[][] heatmap = b.densityHeatmap(gen, 2, 1);
+        assertEquals(3 / 42.0, heatmap[0][0], 1e-9);   // columns 0-5
+        assertEquals(4 / 49.0, heatmap[0][1], 1e-9);   // columns 6-12
+        assertEquals(12L, gen.getSummedAreaTable().energyHeatmap(1, 1)[0][0]);
+    }
+
+    @Test
+    public void testR2ClusterAnalysis() {
+        assumeBranch("R2");
+        Game wide = Game.createExtended("ClusterGame", 70, 8);
+        Board b = wide.getBoard();
+        Generation start = Generation.createInitial(wide, b, List.of(
+            // block touching a diagonal pair: one cluster of 6
+            new Coord(0, 0), new Coord(1, 0), new Coord(0, 1), new Coord(1, 1),
+            new Coord(2, 2), new Coord(3, 3),
+            // blinker straddling the 64-bit word boundary
+            new Coord(62, 4), new Coord(63, 4), new Coord(64, 4),
+            // U shape whose arms only meet at the bottom row
+            new Coord(20, 5), new Coord(22, 5), new Coord(20, 6), new Coord(22, 6),
+            new Coord(20, 7), new Coord(21, 7), new Coord(22, 7),
+            // isolated cell
+            new Coord(40, 0)));
+        start.setCellLifePoints(Map.of(b.getTile(new Coord(21, 7)).getCell(), 5));
+
+        ClusterAnalysis clusters = b.analyzeClusters(start);
+        assertEquals(4, clusters.count());
+        assertEquals(Map.of(1, 1, 3, 1, 6, 1, 7, 1), clusters.sizeDistribution());
+        Cluster first = clusters.getClusters().get(0);
+        assertEquals(new Cluster(0, 6, 0, 0, 0, 3, 3), first);
+        assertEquals(1, clusters.label(40, 0));
+        assertEquals(2, clusters.label(64, 4));
+        assertEquals(-1, clusters.label(21, 5));
+        assertEquals(clusters.label(20, 5), clusters.label(22, 5));
+        Cluster u = clusters.clusterAt(new Coord(22, 5)).get();
+        assertEquals(5L, u.energy());
+        assertEquals(3, u.width());
+        assertEquals(3, u.height());
+        assertEquals(u, clusters.largest().get());
+
+        // advancing from the previous generation labels cells like a flood fill would
+        facade.run(wide, 4);
+        List<Generation> generations = wide.getGenerations();
+        for (int step = 1; step < generations.size(); step++) {
+            Generation gen = generations.get(step);
+            ClusterAnalysis incremental = b.analyzeClusters(gen, generations.get(step - 1));
+            int population = 0;
+            for (Cluster cluster : incremental.getClusters()) {
+                population += cluster.size();
+            }
+            assertEquals((int) b.countCells(gen), population);
+            for (CellView v : gen.getAliveCellViews()) {
+                int label = incremental.label(v.getX(), v.getY());
+                assertTrue(label >= 0);
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        CellView n = gen.getCellView(new Coord(v.getX() + dx, v.getY() + dy));
+                        if (n != null && n.isAlive())
+                            assertEquals(label, incremental.label(n.getX(), n.getY()));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testR2PatternRecognizer() throws Exception {
+        assumeBranch("R2");
+        Game wide = Game.createExtended("PatternGame", 70, 12);
+        Board b = wide.getBoard();
+        Generation start = Generation.createInitial(wide, b, List.of(
+            // block
+            new Coord(1, 1), new Coord(2, 1), new Coord(1, 2), new Coord(2, 2),
+            // vertical blinker
+            new Coord(10, 1), new Coord(10, 2), new Coord(10, 3),
+            // glider mirrored left to right, across the 64-bit word boundary
+            new Coord(63, 1), new Coord(62, 2), new Coord(62, 3), new Coord(63, 3), new Coord(64, 3),
+            // glider in its other phase
+            new Coord(20, 6), new Coord(22, 6), new Coord(21, 7), new Coord(22, 7), new Coord(21, 8),
+            // unknown L tromino and a registered hook
+            new Coord(30, 6), new Coord(30, 7), new Coord(31, 7),
+            new Coord(40, 6), new Coord(41, 6), new Coord(42, 6), new Coord(42, 7), new Coord(42, 8), new Coord(41, 8)));
+
+        PatternRecognizer recognizer = new PatternRecognizer();
+        assertEquals(Map.of("block", 1, "blinker", 1, "glider", 2), recognizer.census(start));
+
+        // user patterns match in any orientation
+        recognizer.register("hook", "OOO", "O.O", "O..");
+        Map<String, Integer> census = recognizer.census(start);
+        assertEquals(Map.of("block", 1, "blinker", 1, "glider", 2, "hook", 1), census);
+        List<PatternMatch> matches = recognizer.recognize(start);
+        assertEquals(5, matches.size());
+        PatternMatch glider = matches.stream().filter(m -> m.cluster().minX() == 62).findFirst().get();
+        assertEquals("glider", glider.name());
+        assertEquals(5, glider.cluster().size());
+
+        // cached shapes give the same answer, on a background thread as well
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertEquals(matches, recognizer.recognizeAsync(start, executor).get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(matches, recognizer.recognize(start.getFrame()));
+
+        assertThrows(IllegalArgumentException.class, () -> recognizer.register("pair", "O.O"));
+    }
+
+    @Test
+    public void testR2FusedAnalyticsMatchSeparateCalls() {
+        assumeBranch("R2");
+        Game wide = Game.createExtended("AnalyticsGame", 70, 6);
+        Board b = wide.getBoard();
+        Generation start = Generation.createInitial(wide, b, List.of(
+            new Coord(1, 1), new Coord(2, 1), new Coord(1, 2), new Coord(2, 2),
+            new Coord(62, 3), new Coord(63, 3), new Coord(64, 3),
+            new Coord(30, 0), new Coord(31, 1), new Coord(29, 2), new Coord(30, 2), new Coord(31, 2)));
+        start.setCellLifePoints(Map.of(b.getTile(new Coord(63, 3)).getCell(), 4));
+        facade.run(wide, 4);
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            AnalyticsReport report = b.analyze(EnumSet.allOf(AnalyticsMetric.class), 1, 4, pool);
+            assertEquals(1, report.getFromStep());
+            assertEquals(4, report.getToStep());
+            assertEquals(4, report.getGenerations().size());
+            for (int step = 1; step <= 4; step++) {
+                Generation gen = wide.getGenerations().get(step);
+                GenerationMetrics metrics = report.get(step);
+                assertEquals(step, metrics.getStep());
+                assertEquals(b.countCells(gen).intValue(), metrics.getPopulation());
+                assertEquals(b.countCellsByType(gen), metrics.getTypeCounts());
+                assertEquals(b.energyStatistics(gen).toString(), metrics.getEnergyStatistics().toString());
+                assertEquals(b.getViewsByEnergyLevel(gen), metrics.getViewsByEnergyLevel());
+                assertEquals(b.groupViewsByAliveNeighborCount(gen), metrics.getViewsByAliveNeighborCount());
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        // only the requested metrics can be read
+        GenerationMetrics population = b.analyze(EnumSet.of(AnalyticsMetric.POPULATION), 0, 0).get(0);
+        assertEquals(12, population.getPopulation());
+        assertThrows(IllegalStateException.class, population::getTypeCounts);
+        assertThrows(IllegalArgumentException.class, () -> b.analyze(EnumSet.of(AnalyticsMetric.POPULATION), 0, 5));
+        assertThrows(IllegalArgumentException.class, () -> b.analyze(EnumSet.noneOf(AnalyticsMetric.class), 0, 1));
+    }
 }
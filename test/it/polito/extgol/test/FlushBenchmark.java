@@ -0,0 +1,74 @@
+package it.polito.extgol.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import it.polito.extgol.Board;
+import it.polito.extgol.BoardRepository;
+import it.polito.extgol.Cell;
+import it.polito.extgol.ExtendedGameOfLife;
+import it.polito.extgol.Game;
+import it.polito.extgol.JPAUtil;
+import it.polito.extgol.Tile;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityTransaction;
+
+/**
+ * Manual benchmark measuring the flush of a fully managed board on which only
+ * a handful of cells changed, i.e. the cost of Hibernate's dirty checking.
+ *
+ * Not part of the test suite; run with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=it.polito.extgol.test.FlushBenchmark -Dexec.args="200 200 20 10"}.
+ */
+public class FlushBenchmark {
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int flushes = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int changesPerFlush = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        try {
+            Game game = PersistenceBenchmark.randomGame("FlushBenchmark", width, height, 42);
+            new ExtendedGameOfLife().saveGame(game);
+            Integer boardId = game.getBoard().getId();
+
+            EntityManager em = JPAUtil.getEntityManager();
+            EntityTransaction tx = em.getTransaction();
+            try {
+                tx.begin();
+                Board board = new BoardRepository().load(boardId, em).orElseThrow();
+                List<Cell> cells = new ArrayList<>();
+                for (Tile tile : board.getTiles()) {
+                    cells.add(tile.getCell());
+                }
+                Random random = new Random(7);
+
+                // first flush warms up the persisters, it is not measured
+                em.flush();
+                long total = 0;
+                for (int i = 0; i < flushes; i++) {
+                    for (int c = 0; c < changesPerFlush; c++) {
+                        Cell cell = cells.get(random.nextInt(cells.size()));
+                        cell.setLifePoints(cell.getLifePoints() + 1);
+                    }
+                    long t0 = System.nanoTime();
+                    em.flush();
+                    total += System.nanoTime() - t0;
+                }
+                tx.commit();
+
+                System.out.printf("%dx%d board, %d managed cells: %d changes per flush, average flush %.2f ms%n",
+                    width, height, cells.size(), changesPerFlush, total / 1_000_000.0 / flushes);
+            } finally {
+                if (tx.isActive())
+                    tx.rollback();
+                em.close();
+            }
+        } finally {
+            JPAUtil.close();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package it.polito.extgol.test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IntSummaryStatistics;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.hibernate.jpa.SpecHints;
+
+import it.polito.extgol.Coord;
+import it.polito.extgol.ExtendedGameOfLife;
+import it.polito.extgol.FileLogGameStore;
+import it.polito.extgol.Game;
+import it.polito.extgol.Generation;
+import it.polito.extgol.GenerationRepository;
+import it.polito.extgol.JPAUtil;
+import it.polito.extgol.StoredGeneration;
+import jakarta.persistence.EntityGraph;
+import jakarta.persistence.EntityManager;
+
+/**
+ * Manual benchmark measuring save and load latency of a stored game, in the
+ * database and in a FileLogGameStore, and the energy time series computed by
+ * loading the game first versus through the GenerationRepository analytics.
+ * The board is stored before the run, so the save figure covers only the
+ * generations and can be compared with the same run on the per-cell mapping
+ * the frames replaced.
+ *
+ * Not part of the test suite; run with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=it.polito.extgol.test.PersistenceBenchmark -Dexec.args="100 100 500"}.
+ */
+public class PersistenceBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int steps = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+
+        try {
+            Game game = randomGame("Benchmark", width, height, 42);
+            ExtendedGameOfLife facade = new ExtendedGameOfLife();
+            // the board is stored once up front, so that the save below only
+            // measures the generations, i.e. the mapping under comparison
+            long b0 = System.nanoTime();
+            facade.checkpoint(game);
+            long b1 = System.nanoTime();
+            facade.run(game, steps);
+
+            long t0 = System.nanoTime();
+            facade.checkpoint(game);
+            long t1 = System.nanoTime();
+            int loaded = loadGenerations(game.getId());
+            long t2 = System.nanoTime();
+
+            System.out.printf("%dx%dx%d board: %d ms, save %d generations: %d ms, load %d generations: %d ms%n",
+                width, height, steps, (b1 - b0) / 1_000_000, steps, (t1 - t0) / 1_000_000,
+                loaded, (t2 - t1) / 1_000_000);
+
+            Path logs = Files.createTempDirectory("extgol-bench");
+            Game logged = randomGame("BenchmarkLog", width, height, 42);
+            facade.run(logged, steps);
+            long l0 = System.nanoTime();
+            new FileLogGameStore(logs).save(logged);
+            long l1 = System.nanoTime();
+            long replayed;
+            try (Stream<StoredGeneration> replay = new FileLogGameStore(logs).replay(logged.getId())) {
+                replayed = replay.mapToLong(g -> g.frame().countAlive()).count();
+            }
+            long l2 = System.nanoTime();
+            System.out.printf("file log save: %d ms (%d KiB), replay %d generations: %d ms%n",
+                (l1 - l0) / 1_000_000, Files.size(logs.resolve(logged.getId() + ".egol")) / 1024,
+                replayed, (l2 - l1) / 1_000_000);
+            new FileLogGameStore(logs).delete(logged.getId());
+            Files.delete(logs);
+
+            JPAUtil.getEntityManagerFactory().getCache().evictAll();
+            long t3 = System.nanoTime();
+            Map<Integer, IntSummaryStatistics> loadThenCompute = loadThenComputeStats(game.getId(), steps);
+            long t4 = System.nanoTime();
+            Map<Integer, IntSummaryStatistics> pushedDown =
+                new GenerationRepository().getTimeSeriesStats(game.getId(), 0, steps);
+            long t5 = System.nanoTime();
+
+            System.out.printf("energy time series: load-then-compute %d ms, repository %d ms (%s)%n",
+                (t4 - t3) / 1_000_000, (t5 - t4) / 1_000_000,
+                loadThenCompute.toString().equals(pushedDown.toString()) ? "same result" : "MISMATCH");
+        } finally {
+            JPAUtil.close();
+        }
+    }
+
+    /**
+     * Creates an extended game whose initial generation has roughly a third of
+     * the cells alive, chosen with a fixed seed.
+     */
+    static Game randomGame(String name, int width, int height, long seed) {
+        Game game = Game.createExtended(name, width, height);
+        Random random = new Random(seed);
+        List<Coord> alive = new ArrayList<>();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (random.nextInt(3) == 0)
+                    alive.add(new Coord(x, y));
+            }
+        }
+        Generation.createInitial(game, game.getBoard(), alive);
+        return game;
+    }
+
+    /**
+     * Loads the game with its board and generations, then computes the energy
+     * time series with the Board analytics.
+     */
+    private static Map<Integer, IntSummaryStatistics> loadThenComputeStats(Long gameId, int steps) {
+        EntityManager em = JPAUtil.getEntityManager();
+        try {
+            Game game = em.find(Game.class, gameId);
+            return game.getBoard().getTimeSeriesStats(0, steps);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Reads back every generation of the game and touches its state.
+     */
+    private static int loadGenerations(Long gameId) {
+        EntityManager em = JPAUtil.getEntityManager();
+        try {
+            EntityGraph<Generation> withFrames = em.createEntityGraph(Generation.class);
+            withFrames.addAttributeNodes("frame");
+            List<Generation> generations = em.createQuery(
+                "SELECT g FROM Generation g WHERE g.game.id = :id ORDER BY g.step", Generation.class)
+                .setParameter("id", gameId)
+                .setHint(SpecHints.HINT_SPEC_FETCH_GRAPH, withFrames)
+                .getResultList();
+            long alive = 0;
+            for (Generation g : generations) {
+                alive += g.getFrame().countAlive();
+            }
+            return alive >= 0 ? generations.size() : -1;
+        } finally {
+            em.close();
+        }
+    }
+}